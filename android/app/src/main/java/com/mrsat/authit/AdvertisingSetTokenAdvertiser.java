@@ -0,0 +1,136 @@
+package com.mrsat.authit;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Build;
+import android.os.Handler;
+import android.os.ParcelUuid;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * API 26+ path: the set is started once and each new token is pushed with setAdvertisingData,
+ * so there is no controller restart and no gap on air between two tokens. Callbacks already
+ * arrive on the handler.
+ * Permission checks are done by the service before calling in.
+ */
+@RequiresApi(Build.VERSION_CODES.O)
+@SuppressLint("MissingPermission")
+class AdvertisingSetTokenAdvertiser implements TokenAdvertiser.Port {
+
+    private static final ParcelUuid SERVICE_UUID = ParcelUuid.fromString(TokenAdvertiser.AUTH_SERVICE_UUID);
+    // legacy PDUs so older scanners still see it, same air profile as LOW_LATENCY + ULTRA_LOW
+    private static final AdvertisingSetParameters PARAMETERS = parameters(
+            AdvertisingSetParameters.INTERVAL_MIN, AdvertisingSetParameters.TX_POWER_ULTRA_LOW);
+
+    private final BluetoothLeAdvertiser advertiser;
+    private final Handler handler;
+    private final TokenAdvertiser.Results results;
+
+    private AdvertisingSet advertising_set;
+    private AdvertisingSetParameters parameters = PARAMETERS;
+
+    private final AdvertisingSetCallback callback = new AdvertisingSetCallback() {
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+            if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                results.on_failed(status);
+                return;
+            }
+            advertising_set = set;
+            results.on_started();
+        }
+
+        @Override
+        public void onAdvertisingDataSet(AdvertisingSet set, int status) {
+            if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                results.on_failed(status);
+            }
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet set) {
+            if (advertising_set == set) {
+                advertising_set = null;
+            }
+        }
+    };
+
+    AdvertisingSetTokenAdvertiser(BluetoothLeAdvertiser advertiser, Handler handler, TokenAdvertiser.Results results) {
+        this.advertiser = advertiser;
+        this.handler = handler;
+        this.results = results;
+    }
+
+    @Override
+    public void start(byte[] service_data) {
+        advertiser.startAdvertisingSet(parameters, build_data(service_data), null, null, null, callback, handler);
+    }
+
+    @Override
+    public void update(byte[] service_data) {
+        if (advertising_set != null) advertising_set.setAdvertisingData(build_data(service_data));
+    }
+
+    @Override
+    public void stop() {
+        advertiser.stopAdvertisingSet(callback);
+        advertising_set = null;
+    }
+
+    @Override
+    public boolean configure(int advertise_mode, int tx_power) {
+        int interval = interval_for(advertise_mode);
+        int set_tx_power = tx_power_for(tx_power);
+        if (parameters.getInterval() == interval && parameters.getTxPowerLevel() == set_tx_power) return false;
+        parameters = parameters(interval, set_tx_power);
+        return true; // parameters of a running set can't change
+    }
+
+    private static int tx_power_for(int tx_power) {
+        switch (tx_power) {
+            case AdvertiseSettings.ADVERTISE_TX_POWER_HIGH:
+                return AdvertisingSetParameters.TX_POWER_HIGH;
+            case AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM:
+                return AdvertisingSetParameters.TX_POWER_MEDIUM;
+            case AdvertiseSettings.ADVERTISE_TX_POWER_LOW:
+                return AdvertisingSetParameters.TX_POWER_LOW;
+            default:
+                return AdvertisingSetParameters.TX_POWER_ULTRA_LOW;
+        }
+    }
+
+    private static int interval_for(int advertise_mode) {
+        switch (advertise_mode) {
+            case AdvertiseSettings.ADVERTISE_MODE_LOW_POWER:
+                return AdvertisingSetParameters.INTERVAL_HIGH; // 1 s
+            case AdvertiseSettings.ADVERTISE_MODE_BALANCED:
+                return AdvertisingSetParameters.INTERVAL_MEDIUM; // 250 ms
+            default:
+                return AdvertisingSetParameters.INTERVAL_MIN; // 100 ms
+        }
+    }
+
+    private static AdvertisingSetParameters parameters(int interval, int tx_power) {
+        return new AdvertisingSetParameters.Builder()
+                .setLegacyMode(true)
+                .setConnectable(false)
+                .setScannable(false)
+                .setInterval(interval)
+                .setTxPowerLevel(tx_power)
+                .build();
+    }
+
+    private static AdvertiseData build_data(byte[] service_data) {
+        return new AdvertiseData.Builder()
+                .addServiceData(SERVICE_UUID, service_data)
+                .setIncludeDeviceName(false)
+                .setIncludeTxPowerLevel(false)
+                .build();
+    }
+}
@@ -0,0 +1,791 @@
+package com.mrsat.authit;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.BatteryManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.ActivityCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+
+import com.mrsat.authit.core.AdvertisePolicy;
+import com.mrsat.authit.core.AdvertisePolicyEngine;
+import com.mrsat.authit.core.AdvertiserStateMachine;
+import com.mrsat.authit.core.BurstController;
+import com.mrsat.authit.core.DutyCycle;
+import com.mrsat.authit.core.Metrics;
+import com.mrsat.authit.core.RollingHashEngine;
+import com.mrsat.authit.core.SlotClock;
+import com.mrsat.authit.core.SlotMac;
+import com.mrsat.authit.core.SlotTicker;
+import com.mrsat.authit.core.TokenFormat;
+import com.mrsat.authit.core.TokenRing;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Owns the advertiser, the hash chain and the broadcast loop.
+ *
+ * Everything that touches broadcast state runs on a dedicated HandlerThread, the activities
+ * only bind to it to start/stop and to follow the state.
+ */
+public class AuthBroadcastService extends Service {
+
+    public static final String ACTION_START = "com.mrsat.authit.START_BROADCAST";
+    public static final String ACTION_STOP = "com.mrsat.authit.STOP_BROADCAST";
+
+    private static final String PREFS_NAME = "AuthItPrefs";
+    private static final String SAVED_PASSWORD_HASH = "saved_password_hash";
+    private static final String RUN_WITH_SCREEN_LOCKED = "run_with_screen_locked";
+    static final String TOKEN_FORMAT = "token_format";
+    static final String ADVERTISE_POLICY = "advertise_policy";
+    static final String BURST_MODE = "burst_mode";
+    static final int BURST_OFF = 0; // advertise all the time
+    static final int BURST_LOW_POWER = 1; // low latency on request, low power in between
+    static final int BURST_SILENT = 2; // low latency on request, nothing in between
+    private static final String NOTIFICATION_CHANNEL_ID = "authit_ble_channel";
+    private static final int FOREGROUND_SERVICE_ID = 2;
+    private static final String TAG = "AuthIt";
+    private static final long WAKE_LOCK_SLACK_MS = 500; // past the next update, the lock never lapses in between
+    // longest a payload may stay on air before the next one, the policy picks anything up to it
+    private static final int MAX_HOLD_SLOTS_CHAIN = 4; // the verifier follows the chain up to 5 slots ahead
+    private static final int MAX_HOLD_SLOTS_KEYED = 6; // 1.2 s, inside the verifiers' 8 slot v3 window
+    private static final long POLICY_CHECK_MS = 1000; // inputs like "unlocked recently" expire on their own
+    private static final long BURST_HOLD_MS = 8000; // a low power scan catches the beacon about every 5 s
+
+    public enum State {
+        STOPPED,
+        ACTIVE,
+        BACKGROUND, // screen locked, still broadcasting
+        LOCKED // screen locked, paused until unlock
+    }
+
+    public interface StateListener {
+        void on_state_changed(State state);
+    }
+
+    public class LocalBinder extends Binder {
+        AuthBroadcastService get_service() {
+            return AuthBroadcastService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler main_handler = new Handler(Looper.getMainLooper());
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Runnable roll_task = this::roll_hash;
+    private HandlerScheduler handler_scheduler;
+    private HandlerThread worker_thread;
+    private Handler handler;
+
+    private BluetoothAdapter bluetooth_adapter;
+    private BluetoothLeAdvertiser advertiser;
+    private TokenAdvertiser token_advertiser;
+    private NotificationManager notification_manager;
+    private SharedPreferences shared_prefs;
+    private PowerManager.WakeLock wake_lock;
+
+    private RollingHashEngine engine; // v1 and v2
+    private SlotMac slot_mac; // v3, nothing to roll
+    private int token_format = TokenFormat.V1; // above token_source, which reads it
+    // recorded on the broadcast thread, read by dumpsys and the diagnostics screen
+    private final Metrics metrics = new Metrics(DutyCycle.Clock.SYSTEM);
+    private final Metrics.Histogram roll_micros = metrics.histogram("roll_hash_us", Metrics.MICROS);
+    private final Metrics.Histogram broadcast_micros = metrics.histogram("broadcast_hash_us", Metrics.MICROS);
+    private final Metrics.Histogram fill_micros = metrics.histogram("ring_fill_us", Metrics.MICROS);
+    private final Metrics.Histogram token_micros = metrics.histogram("token_us", Metrics.MICROS); // roll + encode, the SHA-512 part
+    private final Metrics.Histogram roll_period = metrics.histogram("roll_period_ms", Metrics.MILLIS);
+    private final Metrics.Histogram wakeup_lateness = metrics.histogram("wakeup_late_ms", Metrics.MILLIS);
+    private final Metrics.Counter payload_changes = metrics.counter("payload_changes");
+    private final Metrics.Counter payload_repeats = metrics.counter("payload_repeats");
+    private final Metrics.Counter broadcast_errors = metrics.counter("broadcast_errors");
+    // rolls on fixed 200 ms boundaries of the UTC clock instead of chaining postDelayed(200)
+    private final SlotTicker ticker = new SlotTicker(new SlotClock(SlotClock.DEFAULT_PERIOD_MS));
+    // the ticker replays every slot since the last tick in order, the ring rolls them in per-minute batches
+    private final SlotTicker.Listener slot_listener = (slot, slot_start_millis) -> fill_token_ring(slot);
+    // payloads up to the end of the minute, computed in one go so a tick is just a copy
+    private final TokenRing token_ring = new TokenRing((int) (60_000 / SlotClock.DEFAULT_PERIOD_MS), TokenFormat.MAX_LENGTH);
+    private final TokenRing.Source token_source = (slot, slot_start_millis, dst) -> {
+        long start = System.nanoTime();
+        int length;
+        if (engine == null) {
+            length = TokenFormat.encode_v3(slot_mac, slot, dst);
+        } else {
+            engine.roll(slot_start_millis);
+            length = TokenFormat.encode(token_format, engine, slot, dst);
+        }
+        token_micros.record((System.nanoTime() - start) / 1000);
+        return length;
+    };
+    private final DutyCycle duty_cycle = new DutyCycle(ticker.clock(), DutyCycle.Clock.SYSTEM);
+    private BurstController burst; // null unless advertising on request
+    private BeaconScanner beacon_scanner;
+    private final BurstController.Radio burst_radio = new BurstController.Radio() {
+        @Override
+        public void set_advertise_mode(BurstController.Mode mode) {
+            if (mode == BurstController.Mode.OFF) {
+                stop_adv_tasks();
+                return;
+            }
+            start_adv_tasks(); // picks the burst state up through the policy inputs
+        }
+
+        @Override
+        public void set_beacon_scan(boolean on) {
+            if (beacon_scanner != null) beacon_scanner.set_scanning(on);
+        }
+    };
+    private final AdvertisePolicyEngine policy_engine =
+            new AdvertisePolicyEngine(AdvertisePolicy.PERFORMANCE, this::on_policy_decision);
+    private final AdvertisePolicy.Inputs policy_inputs = new AdvertisePolicy.Inputs();
+    private long last_roll_uptime = -1;
+    private long next_policy_check = 0;
+    private int battery_percent = -1;
+    private boolean charging = false;
+    private long last_unlock = 0;
+    private volatile long current_slot = -1;
+    private byte[] last_broadcast_hash = null;
+    private final byte[] payload_scratch = new byte[TokenFormat.MAX_LENGTH];
+    private volatile State state = State.STOPPED;
+    private boolean was_running_before_lock = false;
+    private long last_offscreen = 0;
+
+    // retries and backoff are the state machine's, the user only hears about it when it gives up
+    private final AdvertiserStateMachine.Listener advertise_listener = (adv_state, cause) -> {
+        if (cause == null) return;
+        if (adv_state == AdvertiserStateMachine.State.FAILED) {
+            Log.e(TAG, "Advertising failed: " + cause);
+            notify_user("Advertising failed: " + cause);
+        } else {
+            Log.w(TAG, "Advertising failed: " + cause + ", retrying");
+        }
+    };
+
+    private final BroadcastReceiver screen_state_receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+
+            if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+                long currentTime = System.currentTimeMillis();
+                if (currentTime - last_offscreen < 1000) {
+                    return;
+                }
+                last_offscreen = currentTime;
+
+                if (is_running()) {
+                    if (shared_prefs.getBoolean(RUN_WITH_SCREEN_LOCKED, false)) {
+                        set_state(State.BACKGROUND);
+                        refresh_policy(true);
+                    } else {
+                        was_running_before_lock = true;
+                        pause_advertising();
+                        set_state(State.LOCKED);
+                    }
+                }
+            } else if (Intent.ACTION_USER_PRESENT.equals(action)) {
+                last_unlock = System.currentTimeMillis();
+                handle_screen_unlock();
+            }
+        }
+    };
+
+    private final BroadcastReceiver battery_receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            battery_percent = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+            charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            if (is_running()) refresh_policy(false);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        worker_thread = new HandlerThread("AuthItBroadcast", Process.THREAD_PRIORITY_FOREGROUND);
+        worker_thread.start();
+        handler = new Handler(worker_thread.getLooper());
+        handler_scheduler = new HandlerScheduler(handler, roll_task);
+
+        shared_prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        notification_manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        BluetoothManager mgr = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        if (mgr != null) {
+            bluetooth_adapter = mgr.getAdapter();
+        }
+        create_notif_channel();
+
+        // screen events are delivered on the worker thread, same as every other state change
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+        filter.setPriority(IntentFilter.SYSTEM_HIGH_PRIORITY);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            registerReceiver(screen_state_receiver, filter, null, handler, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            registerReceiver(screen_state_receiver, filter, null, handler);
+        }
+        // sticky, the current level arrives right away
+        registerReceiver(battery_receiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, handler);
+
+        // counted elsewhere already, read without locking so only roughly current
+        metrics.gauge("duty_wakeups", duty_cycle::wakeups);
+        metrics.gauge("policy_changes", policy_engine::changes);
+        metrics.gauge("burst_beacons", () -> burst == null ? 0 : burst.beacons());
+        metrics.gauge("burst_bursts", () -> burst == null ? 0 : burst.bursts());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            handler.post(this::stop_broadcast_internal);
+            return START_NOT_STICKY;
+        }
+
+        // explicit start, or a restart by the system after the process was killed. Revoking a
+        // permission kills the process too, and startForeground() throws if the restart lacks it.
+        if (!has_bluetooth_permissions()) {
+            Log.w(TAG, "Bluetooth permissions missing, not starting");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        start_foreground();
+        handler.post(this::start_broadcast_internal);
+        return START_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        try {
+            unregisterReceiver(screen_state_receiver);
+            unregisterReceiver(battery_receiver);
+        } catch (IllegalArgumentException e) {
+        }
+        handler.post(() -> {
+            pause_advertising();
+            release_wake_lock();
+        });
+        worker_thread.quitSafely();
+        listeners.clear();
+    }
+
+    public State get_state() {
+        return state;
+    }
+
+    public boolean is_running() {
+        return state != State.STOPPED;
+    }
+
+    /**
+     * Index of the 200 ms UTC slot the broadcast token belongs to, -1 when stopped.
+     */
+    public long get_current_slot() {
+        return current_slot;
+    }
+
+    /**
+     * Text report of the broadcaster's metrics, for the diagnostics screen and
+     * {@code adb shell dumpsys activity service com.mrsat.authit/.AuthBroadcastService}.
+     */
+    public String diagnostics() {
+        TokenAdvertiser adv = token_advertiser;
+        AdvertisePolicy.Decision decision = policy_engine.current();
+        return "state " + state
+                + "\nadvertiser " + (adv == null ? "none" : adv.machine().state())
+                + "\npolicy " + policy_engine.policy().name() + (decision == null ? "" : ": " + decision)
+                + "\n" + metrics.report();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.print(diagnostics());
+    }
+
+    public void add_listener(StateListener listener) {
+        listeners.add(listener);
+        State current = state;
+        main_handler.post(() -> listener.on_state_changed(current));
+    }
+
+    public void remove_listener(StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void stop_broadcast() {
+        handler.post(this::stop_broadcast_internal);
+    }
+
+    private void set_state(State new_state) {
+        state = new_state;
+        main_handler.post(() -> {
+            for (StateListener listener : listeners) {
+                listener.on_state_changed(new_state);
+            }
+        });
+    }
+
+    private void start_broadcast_internal() {
+        if (is_running()) return;
+
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_ADVERTISE) != PackageManager.PERMISSION_GRANTED) {
+            notify_user("Bluetooth Advertise permission not granted.");
+            shutdown();
+            return;
+        }
+
+        String saved_hash = shared_prefs.getString(SAVED_PASSWORD_HASH, null);
+        if (saved_hash == null || saved_hash.isEmpty()) {
+            notify_user("Please enter a password.");
+            shutdown();
+            return;
+        }
+
+        if (bluetooth_adapter == null || !bluetooth_adapter.isEnabled()) {
+            notify_user("Bluetooth is not enabled.");
+            shutdown();
+            return;
+        }
+        advertiser = bluetooth_adapter.getBluetoothLeAdvertiser();
+        if (advertiser == null) {
+            notify_user("Bluetooth LE Advertiser not available. Device may not support BLE advertising.");
+            shutdown();
+            return;
+        }
+        token_advertiser = new TokenAdvertiser(advertiser, handler, advertise_listener, metrics);
+        burst = create_burst();
+
+        token_format = shared_prefs.getInt(TOKEN_FORMAT, TokenFormat.V1);
+        if (!TokenFormat.is_supported(token_format)) {
+            token_format = TokenFormat.V1;
+        }
+        policy_engine.set_policy(AdvertisePolicyEngine.by_name(shared_prefs.getString(ADVERTISE_POLICY, "")));
+
+        try {
+            if (TokenFormat.uses_chain(token_format)) {
+                engine = new RollingHashEngine(saved_hash);
+            } else {
+                slot_mac = new SlotMac(saved_hash);
+            }
+        } catch (Exception e) {
+            notify_user("Error: Hash generation failed.");
+            shutdown();
+            return;
+        }
+
+        was_running_before_lock = false;
+        last_broadcast_hash = null;
+        // the first tick starts the chain at its own slot
+        ticker.clear();
+        token_ring.clear();
+        set_state(State.ACTIVE);
+        resume_advertising();
+        notify_user("AuthIt Started.");
+    }
+
+    @Nullable
+    private BurstController create_burst() {
+        int mode = shared_prefs.getInt(BURST_MODE, BURST_OFF);
+        if (mode == BURST_OFF) return null;
+        String permission = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? Manifest.permission.BLUETOOTH_SCAN
+                : Manifest.permission.ACCESS_FINE_LOCATION;
+        BluetoothLeScanner scanner = bluetooth_adapter.getBluetoothLeScanner();
+        if (ActivityCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED || scanner == null) {
+            notify_user("Can't listen for auth requests, advertising all the time.");
+            return null;
+        }
+        beacon_scanner = new BeaconScanner(scanner, handler, this::on_beacon);
+        BurstController.Mode idle = mode == BURST_SILENT ? BurstController.Mode.OFF : BurstController.Mode.LOW_POWER;
+        return new BurstController(burst_radio, DutyCycle.Clock.SYSTEM, idle, BURST_HOLD_MS);
+    }
+
+    private void on_beacon() {
+        if (burst != null && is_running() && state != State.LOCKED) burst.on_beacon();
+    }
+
+    /**
+     * Advertising on request only starts the beacon scan and whatever the burst state says,
+     * otherwise this is start_adv_tasks.
+     */
+    private void resume_advertising() {
+        if (burst != null) {
+            burst.start();
+        } else {
+            start_adv_tasks();
+        }
+    }
+
+    private void pause_advertising() {
+        if (burst != null) burst.stop();
+        stop_adv_tasks();
+    }
+
+    private void stop_broadcast_internal() {
+        boolean was_running = is_running();
+        shutdown();
+        if (was_running) {
+            notify_user("AuthIt stopped.");
+        }
+    }
+
+    private void shutdown() {
+        set_state(State.STOPPED);
+        was_running_before_lock = false;
+        last_broadcast_hash = null; // Reset to allow fresh start next time
+        pause_advertising();
+        burst = null;
+        beacon_scanner = null;
+        advertiser = null;
+        token_advertiser = null;
+        engine = null;
+        slot_mac = null;
+        ticker.clear();
+        token_ring.clear();
+        current_slot = -1;
+        release_wake_lock();
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    private void handle_screen_unlock() {
+        boolean run_with_lock = shared_prefs.getBoolean(RUN_WITH_SCREEN_LOCKED, false);
+
+        if (run_with_lock && state == State.BACKGROUND) {
+            set_state(State.ACTIVE);
+            refresh_policy(true);
+        } else if (was_running_before_lock) {
+            was_running_before_lock = false;
+
+            handler.postDelayed(() -> {
+                if (is_running() && bluetooth_adapter != null && bluetooth_adapter.isEnabled()) {
+                    if (advertiser == null) {
+                        advertiser = bluetooth_adapter.getBluetoothLeAdvertiser();
+                        if (advertiser != null) {
+                            token_advertiser = new TokenAdvertiser(advertiser, handler, advertise_listener, metrics);
+                        }
+                    }
+
+                    if (advertiser != null) {
+                        last_broadcast_hash = null;
+                        set_state(State.ACTIVE);
+                        resume_advertising();
+                    } else {
+                        shutdown();
+                        notify_user("Could not resume broadcast. BLE Advertiser not available.");
+                    }
+                } else if (is_running()) {
+                    shutdown();
+                    notify_user("Could not resume broadcast. Please check Bluetooth and press Start.");
+                }
+            }, 500);
+        }
+    }
+
+    private void start_adv_tasks() {
+        if (!is_running()) return;
+        if (token_advertiser == null) {
+            notify_user("Cannot start advertising tasks: Advertiser not initialized.");
+            return;
+        }
+
+        // the advertiser may be new (resume) or the burst state changed, apply the decision again
+        policy_engine.reset();
+        evaluate_policy();
+        tick(); // catch up on the slots since we stopped before sending anything
+        broadcast_hash();
+        start_duty_cycle();
+    }
+
+    /**
+     * Runs the policy on the current inputs. A changed decision reconfigures the advertiser
+     * through on_policy_decision.
+     */
+    private AdvertisePolicy.Decision evaluate_policy() {
+        long now = System.currentTimeMillis();
+        next_policy_check = now + POLICY_CHECK_MS;
+        policy_inputs.screen_on = state == State.ACTIVE;
+        policy_inputs.battery_percent = battery_percent;
+        policy_inputs.charging = charging;
+        policy_inputs.millis_since_unlock = last_unlock == 0 ? Long.MAX_VALUE : now - last_unlock;
+        policy_inputs.max_hold_slots = TokenFormat.uses_chain(token_format) ? MAX_HOLD_SLOTS_CHAIN : MAX_HOLD_SLOTS_KEYED;
+        policy_inputs.on_request = burst != null;
+        policy_inputs.requested = burst != null && burst.mode() == BurstController.Mode.LOW_LATENCY;
+        return policy_engine.evaluate(policy_inputs);
+    }
+
+    /**
+     * Evaluates the policy and reschedules the wakeups when the cadence changed, or always with
+     * {@code reschedule} (the screen state decides whether the wake lock is held).
+     */
+    private void refresh_policy(boolean reschedule) {
+        AdvertisePolicy.Decision before = policy_engine.current();
+        AdvertisePolicy.Decision decision = evaluate_policy();
+        if (!duty_cycle.is_running()) return;
+        if (reschedule || decision != before) start_duty_cycle();
+        if (decision != before) {
+            // don't leave the air empty until the next update
+            tick();
+            broadcast_hash();
+        }
+    }
+
+    private void on_policy_decision(AdvertisePolicy policy, AdvertisePolicy.Decision decision, AdvertisePolicy.Decision previous) {
+        Log.i(TAG, "Advertise policy " + policy.name() + ": " + decision);
+        if (token_advertiser != null) {
+            // the core enums follow the AdvertiseSettings constants
+            token_advertiser.configure(decision.mode.ordinal(), decision.tx_power.ordinal());
+        }
+        last_broadcast_hash = null; // push the current payload again with the new settings
+    }
+
+    /**
+     * The policy decides how many slots a payload stays on air, handler messages wake the thread
+     * for each update. Screen off, every update renews a timed wake lock that runs until just past
+     * the next one. That keeps the CPU out of suspend for as long as we broadcast, a screen-off
+     * hold saves rolls and advertiser restarts but not CPU sleep: AlarmManager can't wake us at
+     * this cadence (at best every few seconds, and API 31+ stretches short windows), and a v3
+     * payload can't be held longer than the verifier's slot window. The timeout only makes sure
+     * a stuck thread lets the CPU go within one hold.
+     */
+    private void start_duty_cycle() {
+        AdvertisePolicy.Decision decision = policy_engine.current();
+        if (decision == null) decision = evaluate_policy();
+        DutyCycle.Policy cadence = decision.hold_slots > 1
+                ? DutyCycle.aligned(decision.hold_slots)
+                : DutyCycle.every_slot();
+        duty_cycle.start(handler_scheduler, cadence);
+        if (state == State.BACKGROUND) {
+            acquire_wake_lock();
+        } else {
+            release_wake_lock();
+        }
+    }
+
+    private void stop_adv_tasks() {
+        duty_cycle.stop();
+        last_roll_uptime = -1; // a pause isn't a roll period
+        release_wake_lock();
+        if (token_advertiser != null && ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_ADVERTISE) == PackageManager.PERMISSION_GRANTED) {
+            token_advertiser.stop();
+        }
+    }
+
+    void roll_hash() {
+        if (!is_running() || state == State.LOCKED) return;
+
+        if (engine == null && slot_mac == null) {
+            shutdown();
+            notify_user("Error: Hash generation failed.");
+            return;
+        }
+        if (burst != null) {
+            burst.check();
+            if (!duty_cycle.is_running()) return; // the burst ended and we're silent until the next beacon
+        }
+        Trace.beginSection("AuthIt.roll_hash");
+        long start = System.nanoTime();
+        try {
+            if (System.currentTimeMillis() >= next_policy_check) refresh_policy(false);
+            duty_cycle.on_wakeup();
+            if (state == State.BACKGROUND) acquire_wake_lock(); // through the next update
+            record_wakeup();
+            tick();
+            broadcast_hash();
+        } finally {
+            roll_micros.record((System.nanoTime() - start) / 1000);
+            Trace.endSection();
+        }
+    }
+
+    private void record_wakeup() {
+        long now = SystemClock.uptimeMillis();
+        if (last_roll_uptime >= 0) roll_period.record(now - last_roll_uptime);
+        last_roll_uptime = now;
+        wakeup_lateness.record(Math.max(0, duty_cycle.last_lateness_millis()));
+    }
+
+    void broadcast_hash() {
+        if (!is_running() || token_advertiser == null || (engine == null && slot_mac == null)) {
+            return;
+        }
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_ADVERTISE) != PackageManager.PERMISSION_GRANTED) {
+            notify_user("Cannot broadcast: BLUETOOTH_ADVERTISE permission missing.");
+            return;
+        }
+
+        Trace.beginSection("AuthIt.broadcast_hash");
+        long start = System.nanoTime();
+        try {
+            int length = token_ring.copy(current_slot, payload_scratch);
+            if (length < 0) return; // not ticked since the start
+            // Only restart advertising if hash has actually changed
+            if (payload_unchanged(length)) {
+                payload_repeats.inc();
+                return; // Hash unchanged, no need to restart advertising
+            }
+
+            byte[] hashBytes = Arrays.copyOf(payload_scratch, length);
+            last_broadcast_hash = hashBytes;
+
+            payload_changes.inc();
+            token_advertiser.advertise(hashBytes);
+
+        } catch (Exception e) {
+            broadcast_errors.inc();
+            notify_user("Broadcast error: " + e.getMessage());
+        } finally {
+            broadcast_micros.record((System.nanoTime() - start) / 1000);
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Moves current_slot up to now through the ticker, which also fills the ring.
+     */
+    private void tick() {
+        ticker.tick(System.currentTimeMillis(), slot_listener);
+        current_slot = ticker.current_slot();
+    }
+
+    /**
+     * Ticker listener: a slot not in the ring yet starts a batch up to the end of its minute.
+     * Since the ticker hands over every slot in order (or only the current one after a gap too
+     * long to replay), the chain matches one roll per slot.
+     */
+    private void fill_token_ring(long slot) {
+        if (token_ring.contains(slot)) return;
+        Trace.beginSection("AuthIt.fill_ring");
+        long start = System.nanoTime();
+        try {
+            token_ring.fill_to_minute_end(slot, ticker.clock(), token_source);
+        } finally {
+            fill_micros.record((System.nanoTime() - start) / 1000);
+            Trace.endSection();
+        }
+    }
+
+    private boolean payload_unchanged(int length) {
+        if (last_broadcast_hash == null || last_broadcast_hash.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (last_broadcast_hash[i] != payload_scratch[i]) return false;
+        }
+        return true;
+    }
+
+    private void acquire_wake_lock() {
+        PowerManager power_manager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+
+        if (wake_lock == null && power_manager != null) {
+            wake_lock = power_manager.newWakeLock(
+                PowerManager.PARTIAL_WAKE_LOCK,
+                "AuthIt::BroadcastWakeLock"
+            );
+            wake_lock.setReferenceCounted(false);
+        }
+
+        if (wake_lock != null) {
+            // timed, so a stuck thread can't keep the CPU up; acquiring again restarts the timeout
+            long until_next = duty_cycle.next_wakeup_millis() - System.currentTimeMillis();
+            wake_lock.acquire(Math.max(0, until_next) + WAKE_LOCK_SLACK_MS);
+        }
+    }
+
+    private void release_wake_lock() {
+        if (wake_lock != null && wake_lock.isHeld()) {
+            wake_lock.release();
+        }
+    }
+
+    void notify_user(String message) {
+        main_handler.post(() -> Toast.makeText(AuthBroadcastService.this, message, Toast.LENGTH_SHORT).show());
+    }
+
+    private void create_notif_channel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && notification_manager != null) {
+            CharSequence name = "AuthIt Broadcasting Service";
+            String description = "Notifications for AuthIt BLE broadcasting status";
+            int importance = NotificationManager.IMPORTANCE_HIGH;
+            NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL_ID, name, importance);
+            channel.setDescription(description);
+            notification_manager.createNotificationChannel(channel);
+        }
+    }
+
+    /**
+     * What the connectedDevice foreground type needs from Android 12 on. Before that the
+     * Bluetooth permissions are install time.
+     */
+    private boolean has_bluetooth_permissions() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) return true;
+        return ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_ADVERTISE) == PackageManager.PERMISSION_GRANTED
+                && ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private void start_foreground() {
+        Intent notificationIntent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, notificationIntent, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+
+        Intent stopIntent = new Intent(this, AuthBroadcastService.class).setAction(ACTION_STOP);
+        PendingIntent stopPendingIntent = PendingIntent.getService(this, 1, stopIntent, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+
+        Notification notification = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setContentTitle("AuthIt Service")
+                .setContentText("AuthIt is broadcasting authentication signals")
+                .setSmallIcon(android.R.drawable.ic_dialog_info)
+                .setContentIntent(pendingIntent)
+                .addAction(R.drawable.ic_stop_simple, "Stop", stopPendingIntent)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setCategory(NotificationCompat.CATEGORY_SERVICE)
+                .build();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(FOREGROUND_SERVICE_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } else {
+            startForeground(FOREGROUND_SERVICE_ID, notification);
+        }
+    }
+}
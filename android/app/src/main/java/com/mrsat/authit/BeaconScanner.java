@@ -0,0 +1,74 @@
+package com.mrsat.authit;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.ParcelUuid;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Listens for the host's "auth requested" beacon (service data on 0xFFF1, see authitd --beacon).
+ *
+ * Low power scan with a service UUID filter, so the matching can be offloaded to the controller
+ * and keeps running with the screen off. Results are handed to the broadcast thread.
+ * Permission checks are done by the service before calling in.
+ */
+@SuppressLint("MissingPermission")
+class BeaconScanner {
+
+    static final String BEACON_SERVICE_UUID = "0000FFF1-0000-1000-8000-00805F9B34FB";
+
+    interface Listener {
+        void on_beacon();
+    }
+
+    private static final List<ScanFilter> FILTERS = Collections.singletonList(
+            new ScanFilter.Builder().setServiceUuid(ParcelUuid.fromString(BEACON_SERVICE_UUID)).build());
+    private static final ScanSettings SETTINGS = new ScanSettings.Builder()
+            .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
+            .build();
+
+    private final BluetoothLeScanner scanner;
+    private final Handler handler;
+    private final Listener listener;
+    private boolean scanning = false;
+
+    private final ScanCallback callback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            handler.post(listener::on_beacon);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            if (!results.isEmpty()) handler.post(listener::on_beacon);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            handler.post(() -> scanning = false);
+        }
+    };
+
+    BeaconScanner(BluetoothLeScanner scanner, Handler handler, Listener listener) {
+        this.scanner = scanner;
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    void set_scanning(boolean on) {
+        if (on == scanning) return;
+        scanning = on;
+        if (on) {
+            scanner.startScan(FILTERS, SETTINGS, callback);
+        } else {
+            scanner.stopScan(callback);
+        }
+    }
+}
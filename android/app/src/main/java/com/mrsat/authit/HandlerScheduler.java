@@ -0,0 +1,31 @@
+package com.mrsat.authit;
+
+import android.os.Handler;
+
+import com.mrsat.authit.core.DutyCycle;
+
+/**
+ * Wakeups as delayed messages on the broadcast thread. Uptime based, it stops while the CPU
+ * sleeps, so it's only used while something keeps the CPU up (screen on, or a wake lock).
+ */
+class HandlerScheduler implements DutyCycle.Scheduler {
+
+    private final Handler handler;
+    private final Runnable task;
+
+    HandlerScheduler(Handler handler, Runnable task) {
+        this.handler = handler;
+        this.task = task;
+    }
+
+    @Override
+    public void schedule_at(long at_millis) {
+        handler.removeCallbacks(task);
+        handler.postDelayed(task, Math.max(0, at_millis - System.currentTimeMillis()));
+    }
+
+    @Override
+    public void cancel() {
+        handler.removeCallbacks(task);
+    }
+}
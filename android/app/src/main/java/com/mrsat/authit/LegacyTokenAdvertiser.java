@@ -0,0 +1,92 @@
+package com.mrsat.authit;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Handler;
+import android.os.ParcelUuid;
+
+/**
+ * Pre-O path: every new token means stopAdvertising + startAdvertising, so every update reports
+ * a start result. AdvertiseCallback runs on the main thread, results are posted to the handler.
+ * Permission checks are done by the service before calling in.
+ */
+@SuppressLint("MissingPermission")
+class LegacyTokenAdvertiser implements TokenAdvertiser.Port {
+
+    private static final ParcelUuid SERVICE_UUID = ParcelUuid.fromString(TokenAdvertiser.AUTH_SERVICE_UUID);
+    private static final AdvertiseSettings SETTINGS = settings(
+            AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY,
+            AdvertiseSettings.ADVERTISE_TX_POWER_ULTRA_LOW); // ultra low to save space and battery
+    private static final AdvertiseData SCAN_RESPONSE = new AdvertiseData.Builder()
+            .setIncludeDeviceName(false)
+            .setIncludeTxPowerLevel(false)
+            .build();
+
+    private final BluetoothLeAdvertiser advertiser;
+    private final Handler handler;
+    private final TokenAdvertiser.Results results;
+    private AdvertiseSettings settings = SETTINGS;
+
+    private final AdvertiseCallback callback = new AdvertiseCallback() {
+        @Override
+        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+            handler.post(results::on_started);
+        }
+
+        @Override
+        public void onStartFailure(int errorCode) {
+            handler.post(() -> results.on_failed(errorCode));
+        }
+    };
+
+    LegacyTokenAdvertiser(BluetoothLeAdvertiser advertiser, Handler handler, TokenAdvertiser.Results results) {
+        this.advertiser = advertiser;
+        this.handler = handler;
+        this.results = results;
+    }
+
+    @Override
+    public void start(byte[] service_data) {
+        advertiser.startAdvertising(settings, build_data(service_data), SCAN_RESPONSE, callback);
+    }
+
+    @Override
+    public void update(byte[] service_data) {
+        advertiser.stopAdvertising(callback);
+        start(service_data);
+    }
+
+    @Override
+    public void stop() {
+        advertiser.stopAdvertising(callback);
+    }
+
+    @Override
+    public boolean configure(int advertise_mode, int tx_power) {
+        // every token is a restart here anyway, the next one picks the new settings up
+        if (settings.getMode() != advertise_mode || settings.getTxPowerLevel() != tx_power) {
+            settings = settings(advertise_mode, tx_power);
+        }
+        return false;
+    }
+
+    private static AdvertiseData build_data(byte[] service_data) {
+        return new AdvertiseData.Builder()
+                .addServiceData(SERVICE_UUID, service_data)
+                .setIncludeDeviceName(false) // exclude device name
+                .setIncludeTxPowerLevel(false) // exclude TX power level
+                .build();
+    }
+
+    private static AdvertiseSettings settings(int advertise_mode, int tx_power) {
+        return new AdvertiseSettings.Builder()
+                .setAdvertiseMode(advertise_mode)
+                .setTxPowerLevel(tx_power)
+                .setConnectable(false)
+                .setTimeout(0)
+                .build();
+    }
+}
@@ -1,27 +1,81 @@
 package com.mrsat.authit;
 
+import android.Manifest;
 import android.app.NotificationManager;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.graphics.Typeface;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.HorizontalScrollView;
+import android.widget.ScrollView;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 import com.google.android.material.button.MaterialButton;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+
+import com.mrsat.authit.core.AdvertisePolicy;
+import com.mrsat.authit.core.TokenFormat;
 
 public class SettingsActivity extends AppCompatActivity {
     
     private static final String PREFS_NAME = "AuthItPrefs";
     private static final String RUN_WITH_SCREEN_LOCKED = "run_with_screen_locked";
+    private static final int[] TOKEN_FORMATS = { TokenFormat.V1, TokenFormat.V2, TokenFormat.V3 };
+    private static final String[] TOKEN_FORMAT_LABELS = {
+            "v1 · Hex text",
+            "v2 · Compact binary (needs an updated verifier)",
+            "v3 · Keyed MAC, lightest (needs an updated verifier)"
+    };
+    private static final int[] BURST_MODES = {
+            AuthBroadcastService.BURST_OFF, AuthBroadcastService.BURST_LOW_POWER, AuthBroadcastService.BURST_SILENT
+    };
+    private static final String[] BURST_MODE_LABELS = {
+            "Always",
+            "On request, low power in between (needs authitd --beacon)",
+            "On request, silent in between (needs authitd --beacon)"
+    };
+    private static final int SCAN_PERMISSION_REQUEST_CODE = 2;
+    private static final AdvertisePolicy[] POWER_POLICIES = {
+            AdvertisePolicy.PERFORMANCE, AdvertisePolicy.ADAPTIVE, AdvertisePolicy.BATTERY_SAVER
+    };
+    private static final String[] POWER_POLICY_LABELS = {
+            "Performance · lowest latency",
+            "Adaptive · fast when in use, charging or just unlocked",
+            "Battery saver · slowest, fast only with the screen on"
+    };
     
     private SharedPreferences shared_prefs;
     private Switch screen_lock_switch;
+    private TextView token_format_value;
+    private TextView burst_mode_value;
+    private TextView power_policy_value;
+    private AuthBroadcastService service;
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((AuthBroadcastService.LocalBinder) binder).get_service();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -39,6 +93,13 @@ public class SettingsActivity extends AppCompatActivity {
         
         screen_lock_switch = findViewById(R.id.screen_lock_switch);
         View github_link = findViewById(R.id.github_link);
+        View token_format_row = findViewById(R.id.token_format_row);
+        token_format_value = findViewById(R.id.token_format_value);
+        View burst_mode_row = findViewById(R.id.burst_mode_row);
+        burst_mode_value = findViewById(R.id.burst_mode_value);
+        View power_policy_row = findViewById(R.id.power_policy_row);
+        power_policy_value = findViewById(R.id.power_policy_value);
+        View diagnostics_row = findViewById(R.id.diagnostics_row);
         MaterialButton clear_password_btn = findViewById(R.id.clear_password_settings_btn);
         
         boolean run_with_lock = shared_prefs.getBoolean(RUN_WITH_SCREEN_LOCKED, false);
@@ -48,6 +109,14 @@ public class SettingsActivity extends AppCompatActivity {
             shared_prefs.edit().putBoolean(RUN_WITH_SCREEN_LOCKED, isChecked).apply();
         });
         
+        update_token_format_label();
+        token_format_row.setOnClickListener(v -> choose_token_format());
+        update_burst_mode_label();
+        burst_mode_row.setOnClickListener(v -> choose_burst_mode());
+        update_power_policy_label();
+        power_policy_row.setOnClickListener(v -> choose_power_policy());
+        diagnostics_row.setOnClickListener(v -> show_diagnostics());
+        
         github_link.setOnClickListener(v -> {
             Intent intent = new Intent(Intent.ACTION_VIEW);
             intent.setData(Uri.parse("https://github.com/MrSatellites/Auth-It/releases/tag/v1.2.1"));
@@ -55,8 +124,9 @@ public class SettingsActivity extends AppCompatActivity {
         });
         
         clear_password_btn.setOnClickListener(v -> {
-            Intent stopBroadcastIntent = new Intent("com.mrsat.authit.STOP_BROADCAST");
-            sendBroadcast(stopBroadcastIntent);
+            if (service != null) {
+                service.stop_broadcast();
+            }
             
             shared_prefs.edit().remove("saved_password_hash").apply();
             
@@ -74,6 +144,141 @@ public class SettingsActivity extends AppCompatActivity {
         });
     }
     
+    private int token_format_index() {
+        int format = shared_prefs.getInt(AuthBroadcastService.TOKEN_FORMAT, TokenFormat.V1);
+        for (int i = 0; i < TOKEN_FORMATS.length; i++) {
+            if (TOKEN_FORMATS[i] == format) return i;
+        }
+        return 0;
+    }
+
+    private void update_token_format_label() {
+        token_format_value.setText(TOKEN_FORMAT_LABELS[token_format_index()]);
+    }
+
+    private void choose_token_format() {
+        new AlertDialog.Builder(this)
+                .setTitle("Token Format")
+                .setSingleChoiceItems(TOKEN_FORMAT_LABELS, token_format_index(), (dialog, which) -> {
+                    shared_prefs.edit().putInt(AuthBroadcastService.TOKEN_FORMAT, TOKEN_FORMATS[which]).apply();
+                    update_token_format_label();
+                    dialog.dismiss();
+                    if (service != null && service.is_running()) {
+                        Toast.makeText(this, "Applies the next time broadcasting starts", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .show();
+    }
+    
+    private int burst_mode_index() {
+        int mode = shared_prefs.getInt(AuthBroadcastService.BURST_MODE, AuthBroadcastService.BURST_OFF);
+        for (int i = 0; i < BURST_MODES.length; i++) {
+            if (BURST_MODES[i] == mode) return i;
+        }
+        return 0;
+    }
+
+    private void update_burst_mode_label() {
+        burst_mode_value.setText(BURST_MODE_LABELS[burst_mode_index()]);
+    }
+
+    private void choose_burst_mode() {
+        new AlertDialog.Builder(this)
+                .setTitle("Advertise")
+                .setSingleChoiceItems(BURST_MODE_LABELS, burst_mode_index(), (dialog, which) -> {
+                    shared_prefs.edit().putInt(AuthBroadcastService.BURST_MODE, BURST_MODES[which]).apply();
+                    update_burst_mode_label();
+                    dialog.dismiss();
+                    if (BURST_MODES[which] != AuthBroadcastService.BURST_OFF) {
+                        request_scan_permission();
+                    }
+                    if (service != null && service.is_running()) {
+                        Toast.makeText(this, "Applies the next time broadcasting starts", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .show();
+    }
+
+    private int power_policy_index() {
+        String name = shared_prefs.getString(AuthBroadcastService.ADVERTISE_POLICY, "");
+        for (int i = 0; i < POWER_POLICIES.length; i++) {
+            if (POWER_POLICIES[i].name().equals(name)) return i;
+        }
+        return 0;
+    }
+
+    private void update_power_policy_label() {
+        power_policy_value.setText(POWER_POLICY_LABELS[power_policy_index()]);
+    }
+
+    private void choose_power_policy() {
+        new AlertDialog.Builder(this)
+                .setTitle("Power Policy")
+                .setSingleChoiceItems(POWER_POLICY_LABELS, power_policy_index(), (dialog, which) -> {
+                    shared_prefs.edit().putString(AuthBroadcastService.ADVERTISE_POLICY, POWER_POLICIES[which].name()).apply();
+                    update_power_policy_label();
+                    dialog.dismiss();
+                    if (service != null && service.is_running()) {
+                        Toast.makeText(this, "Applies the next time broadcasting starts", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .show();
+    }
+
+    private void show_diagnostics() {
+        if (service == null) {
+            Toast.makeText(this, "Service not available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String report = service.diagnostics();
+        TextView text = new TextView(this);
+        text.setText(report);
+        text.setTypeface(Typeface.MONOSPACE);
+        text.setTextSize(11);
+        text.setTextIsSelectable(true);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        text.setPadding(padding, padding, padding, padding);
+        HorizontalScrollView wide = new HorizontalScrollView(this);
+        wide.addView(text);
+        ScrollView scroll = new ScrollView(this);
+        scroll.addView(wide);
+        new AlertDialog.Builder(this)
+                .setTitle("Diagnostics")
+                .setView(scroll)
+                .setPositiveButton("Share", (dialog, which) -> {
+                    Intent share = new Intent(Intent.ACTION_SEND)
+                            .setType("text/plain")
+                            .putExtra(Intent.EXTRA_SUBJECT, "AuthIt diagnostics")
+                            .putExtra(Intent.EXTRA_TEXT, report);
+                    startActivity(Intent.createChooser(share, "Share diagnostics"));
+                })
+                .setNegativeButton("Close", null)
+                .show();
+    }
+
+    // listening for the host's beacon is a scan, Nearby devices on 12+, location before that
+    private void request_scan_permission() {
+        String permission = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? Manifest.permission.BLUETOOTH_SCAN
+                : Manifest.permission.ACCESS_FINE_LOCATION;
+        if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[] { permission }, SCAN_PERMISSION_REQUEST_CODE);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, AuthBroadcastService.class), connection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        service = null;
+        unbindService(connection);
+    }
+    
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
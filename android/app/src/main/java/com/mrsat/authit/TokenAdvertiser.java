@@ -0,0 +1,141 @@
+package com.mrsat.authit;
+
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.mrsat.authit.core.AdvertiserStateMachine;
+import com.mrsat.authit.core.Metrics;
+
+import java.util.Locale;
+
+/**
+ * Puts the current token on air. The lifecycle (start, retry, backoff, giving up) is
+ * {@link AdvertiserStateMachine}'s, the ports only differ in how a new token replaces the old one.
+ * Everything runs on the broadcast handler, ports hand their callbacks over to it.
+ *
+ * Starts, updates, failures and start latency go to the service's metrics, which outlive this
+ * advertiser (a new one is made on every start).
+ */
+final class TokenAdvertiser implements AdvertiserStateMachine.Timer {
+
+    static final String AUTH_SERVICE_UUID = "0000FFF0-0000-1000-8000-00805F9B34FB";
+
+    /**
+     * Where ports report start results, on the broadcast handler.
+     */
+    interface Results {
+        void on_started();
+
+        void on_failed(int error_code);
+    }
+
+    interface Port extends AdvertiserStateMachine.Port {
+        /**
+         * AdvertiseSettings.ADVERTISE_MODE_* and ADVERTISE_TX_POWER_*, LOW_LATENCY and ULTRA_LOW
+         * by default. Returns true when a running advertisement has to be restarted for them.
+         */
+        boolean configure(int advertise_mode, int tx_power);
+    }
+
+    private final Handler handler;
+    private final Port port;
+    private final AdvertiserStateMachine machine;
+    private final Runnable retry_task;
+    private final Metrics.Counter starts;
+    private final Metrics.Counter updates;
+    private final Metrics.Counter[] failures;
+    private final Metrics.Histogram start_latency;
+    private long start_requested = -1; // uptime of the start in flight
+
+    // what the machine drives: the port, counted
+    private final AdvertiserStateMachine.Port counted_port = new AdvertiserStateMachine.Port() {
+        @Override
+        public void start(byte[] payload) {
+            starts.inc();
+            start_requested = SystemClock.uptimeMillis();
+            port.start(payload);
+        }
+
+        @Override
+        public void update(byte[] payload) {
+            updates.inc();
+            port.update(payload);
+        }
+
+        @Override
+        public void stop() {
+            start_requested = -1;
+            port.stop();
+        }
+    };
+
+    private final Results results = new Results() {
+        @Override
+        public void on_started() {
+            if (start_requested >= 0) {
+                start_latency.record(SystemClock.uptimeMillis() - start_requested);
+                start_requested = -1;
+            }
+            machine.on_started();
+        }
+
+        @Override
+        public void on_failed(int error_code) {
+            start_requested = -1;
+            failures[AdvertiserStateMachine.FailureClass.of(error_code).ordinal()].inc();
+            machine.on_failed(error_code);
+        }
+    };
+
+    /**
+     * AdvertisingSet on API 26+ (data updated in place), stop/start on older devices.
+     */
+    TokenAdvertiser(BluetoothLeAdvertiser advertiser, Handler handler, AdvertiserStateMachine.Listener listener, Metrics metrics) {
+        this.handler = handler;
+        this.port = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? new AdvertisingSetTokenAdvertiser(advertiser, handler, results)
+                : new LegacyTokenAdvertiser(advertiser, handler, results);
+        this.machine = new AdvertiserStateMachine(counted_port, this, listener);
+        this.retry_task = machine::on_timer;
+        starts = metrics.counter("adv_starts");
+        updates = metrics.counter("adv_updates");
+        AdvertiserStateMachine.FailureClass[] classes = AdvertiserStateMachine.FailureClass.values();
+        failures = new Metrics.Counter[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            failures[i] = metrics.counter("adv_fail_" + classes[i].name().toLowerCase(Locale.US));
+        }
+        start_latency = metrics.histogram("adv_start_ms", Metrics.MILLIS);
+    }
+
+    /**
+     * Starts advertising {@code service_data}, or replaces what is already on air.
+     */
+    void advertise(byte[] service_data) {
+        machine.advertise(service_data);
+    }
+
+    void stop() {
+        machine.stop();
+    }
+
+    void configure(int advertise_mode, int tx_power) {
+        if (port.configure(advertise_mode, tx_power)) machine.restart();
+    }
+
+    AdvertiserStateMachine machine() {
+        return machine;
+    }
+
+    @Override
+    public void schedule(long delay_millis) {
+        handler.removeCallbacks(retry_task);
+        handler.postDelayed(retry_task, delay_millis);
+    }
+
+    @Override
+    public void cancel() {
+        handler.removeCallbacks(retry_task);
+    }
+}
@@ -0,0 +1,67 @@
+package com.mrsat.authit.bench;
+
+import com.mrsat.authit.core.RollingHashEngine;
+import com.mrsat.authit.core.TokenFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service data bytes handed to AdvertiseData in broadcast_hash. The Builder itself
+ * is an Android class and can't run here, so this covers everything up to it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AdvertisePayloadBenchmark {
+
+    private String current_hash;
+    private RollingHashEngine engine;
+    private final byte[] payload = new byte[RollingHashEngine.PREFIX_LENGTH];
+    private final byte[] payload_v2 = new byte[TokenFormat.V2_LENGTH];
+    private long slot;
+
+    @Setup
+    public void setup() throws Exception {
+        String password = RollingHashEngine.sha512_hex("correct horse battery staple");
+        engine = new RollingHashEngine(password);
+        engine.roll(System.currentTimeMillis());
+        current_hash = engine.current_hash();
+        slot = System.currentTimeMillis() / 200;
+    }
+
+    @Benchmark
+    public byte[] legacy_payload() {
+        return Legacy.advertise_payload(current_hash);
+    }
+
+    @Benchmark
+    public byte[] engine_payload() {
+        engine.copy_prefix(payload, 0);
+        return payload;
+    }
+
+    @Benchmark
+    public byte[] engine_payload_v2() {
+        TokenFormat.encode(TokenFormat.V2, engine, slot, payload_v2);
+        return payload_v2;
+    }
+
+    @Benchmark
+    public boolean engine_payload_unchanged() {
+        return engine.prefix_equals(payload);
+    }
+}
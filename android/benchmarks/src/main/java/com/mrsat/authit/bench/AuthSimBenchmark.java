@@ -0,0 +1,45 @@
+package com.mrsat.authit.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of one simulated authentication, see {@link AuthSimulator}. An op is one attempt with
+ * everything the model does in it: every phone's payload work since the previous attempt and the
+ * verifier's work on what the host heard. The time to auth itself is virtual, run the simulator
+ * for its distribution.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AuthSimBenchmark {
+
+    @Param({ "ideal", "office", "v2", "v3" })
+    public String preset;
+
+    private AuthSimulator simulator;
+
+    @Setup
+    public void setup() throws Exception {
+        simulator = new AuthSimulator(AuthSimulator.preset(preset));
+    }
+
+    @Benchmark
+    public boolean attempt() throws Exception {
+        return simulator.attempt();
+    }
+}
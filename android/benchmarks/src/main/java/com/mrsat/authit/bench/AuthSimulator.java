@@ -0,0 +1,440 @@
+package com.mrsat.authit.bench;
+
+import com.mrsat.authit.core.RollingHashEngine;
+import com.mrsat.authit.core.SlotClock;
+import com.mrsat.authit.core.SlotMac;
+import com.mrsat.authit.core.SlotTicker;
+import com.mrsat.authit.core.TokenFormat;
+import com.mrsat.authit.core.TokenRing;
+import com.mrsat.authit.verifier.ClockOffset;
+import com.mrsat.authit.verifier.TokenVerifier;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Phones broadcasting and a host verifying, end to end on a virtual clock.
+ *
+ * Phones produce their payloads the way AuthBroadcastService does (a {@link TokenRing} filled to
+ * the end of the minute from the rolling chain, or {@link SlotMac} for v3) and the host runs the
+ * :verifier {@link TokenVerifier}. In between is a radio model:
+ * <ul>
+ * <li>each phone sends an advert every {@code adv_interval_millis} plus the 0-10 ms random delay BLE adds;</li>
+ * <li>after each payload change the phone is silent for {@code restart_gap_millis} (legacy stop + start);</li>
+ * <li>the host only hears during the first {@code scan_window_millis} of every {@code scan_interval_millis};</li>
+ * <li>what it could hear is still lost with probability {@code loss};</li>
+ * <li>RSSI is normal around a per-phone level, phone clocks are off by up to {@code max_skew_millis}.</li>
+ * </ul>
+ * With {@code adapters} above 1 the host scans on several controllers at once, each with its own scan
+ * phase and losses and hearing each phone up to {@code adapter_rssi_spread} dB louder or quieter than
+ * the first one. Their copies of an advert are merged like linux/ingest.py does: the verifier gets it
+ * once, with the best RSSI.
+ * One {@link #attempt} is one authentication like linux/main.py runs it: a fresh verifier with the clock
+ * offset kept from the previous run, started at a random moment 1 to 6 s after the previous one ended,
+ * giving up after {@code timeout_millis}. Phone 0 is the user's, the others are the office.
+ * The verifier is the JVM one, not main.py itself; it anchors windows, refuses and corrects the clock
+ * the same way main.py's TokenVerifier does (linux/tests/test_verifier.py checks that side).
+ *
+ * Nothing sleeps, a run covers hours of virtual time in seconds and the same config gives the same
+ * result. Run it with {@code ./gradlew :benchmarks:simulate}, see {@link #main}.
+ */
+public final class AuthSimulator {
+
+    public static final class Config {
+        public int format = TokenFormat.V1;
+        public long roll_millis = SlotClock.DEFAULT_PERIOD_MS; // v1 only, v2/v3 slots are 200 ms by definition
+        public int lookahead = TokenVerifier.LOOKAHEAD_WINDOW;
+        public int rssi_threshold = TokenVerifier.RSSI_THRESHOLD;
+        public long adv_interval_millis = 100; // ADVERTISE_MODE_LOW_LATENCY
+        public long restart_gap_millis = 0;
+        public long scan_interval_millis = 100;
+        public long scan_window_millis = 100; // == interval: listening all the time
+        public double loss = 0;
+        public long max_skew_millis = 0;
+        public int rssi = -70; // phone 0
+        public double rssi_sigma = 4;
+        public int phones = 1;
+        public int adapters = 1;
+        public int adapter_rssi_spread = 0;
+        public int attempts = 1000;
+        public long timeout_millis = 10_000; // linux/main.py SCAN_TIMEOUT_SECONDS
+        public long seed = 1;
+
+        Config copy() {
+            Config c = new Config();
+            c.format = format;
+            c.roll_millis = roll_millis;
+            c.lookahead = lookahead;
+            c.rssi_threshold = rssi_threshold;
+            c.adv_interval_millis = adv_interval_millis;
+            c.restart_gap_millis = restart_gap_millis;
+            c.scan_interval_millis = scan_interval_millis;
+            c.scan_window_millis = scan_window_millis;
+            c.loss = loss;
+            c.max_skew_millis = max_skew_millis;
+            c.rssi = rssi;
+            c.rssi_sigma = rssi_sigma;
+            c.phones = phones;
+            c.adapters = adapters;
+            c.adapter_rssi_spread = adapter_rssi_spread;
+            c.attempts = attempts;
+            c.timeout_millis = timeout_millis;
+            c.seed = seed;
+            return c;
+        }
+
+        /**
+         * Sets one field by name, for the command line and JMH params.
+         */
+        void set(String key, String value) {
+            switch (key) {
+                case "format": format = Integer.parseInt(value); break;
+                case "roll_millis": roll_millis = Long.parseLong(value); break;
+                case "lookahead": lookahead = Integer.parseInt(value); break;
+                case "rssi_threshold": rssi_threshold = Integer.parseInt(value); break;
+                case "adv_interval_millis": adv_interval_millis = Long.parseLong(value); break;
+                case "restart_gap_millis": restart_gap_millis = Long.parseLong(value); break;
+                case "scan_interval_millis": scan_interval_millis = Long.parseLong(value); break;
+                case "scan_window_millis": scan_window_millis = Long.parseLong(value); break;
+                case "loss": loss = Double.parseDouble(value); break;
+                case "max_skew_millis": max_skew_millis = Long.parseLong(value); break;
+                case "rssi": rssi = Integer.parseInt(value); break;
+                case "rssi_sigma": rssi_sigma = Double.parseDouble(value); break;
+                case "phones": phones = Integer.parseInt(value); break;
+                case "adapters": adapters = Integer.parseInt(value); break;
+                case "adapter_rssi_spread": adapter_rssi_spread = Integer.parseInt(value); break;
+                case "attempts": attempts = Integer.parseInt(value); break;
+                case "timeout_millis": timeout_millis = Long.parseLong(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("unknown setting " + key);
+            }
+        }
+
+        String describe() {
+            return String.format(Locale.US,
+                    "v%d roll=%d look=%d rssi>=%d adv=%d gap=%d scan=%d/%d loss=%.2f skew=%d phones=%d adapters=%d",
+                    format, roll_millis, lookahead, rssi_threshold, adv_interval_millis, restart_gap_millis,
+                    scan_window_millis, scan_interval_millis, loss, max_skew_millis, phones, adapters);
+        }
+    }
+
+    /**
+     * Named scenarios, each one changes a few settings of the default (one phone, perfect radio).
+     */
+    public static Config preset(String name) {
+        Config c = new Config();
+        switch (name) {
+            case "ideal":
+                break;
+            case "lossy":
+                c.loss = 0.3;
+                break;
+            case "duty_scan": // the host scans 30 ms out of every 100
+                c.scan_window_millis = 30;
+                break;
+            case "restart_gap": // legacy advertiser, stop + start on every roll
+                c.restart_gap_millis = 80;
+                break;
+            case "skewed":
+                c.max_skew_millis = 20_000;
+                break;
+            case "far":
+                c.rssi = -84;
+                c.rssi_sigma = 6;
+                break;
+            case "crowd":
+                c.phones = 20;
+                break;
+            case "office":
+                c.loss = 0.2;
+                c.scan_window_millis = 30;
+                c.restart_gap_millis = 80;
+                c.max_skew_millis = 5_000;
+                c.rssi_sigma = 6;
+                c.phones = 20;
+                break;
+            case "v2":
+                c.format = TokenFormat.V2;
+                c.loss = 0.2;
+                c.phones = 20;
+                break;
+            case "v3":
+                c.format = TokenFormat.V3;
+                c.loss = 0.2;
+                c.phones = 20;
+                break;
+            case "poor_cover": // kiosk at the edge of its adapter's range
+            case "bank": // same room, a bank of four adapters
+                c.rssi = -86;
+                c.rssi_sigma = 6;
+                c.loss = 0.4;
+                c.scan_window_millis = 30;
+                c.adapter_rssi_spread = 8;
+                c.adapters = name.equals("bank") ? 4 : 1;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown preset " + name);
+        }
+        return c;
+    }
+
+    public static final String[] PRESETS = {
+            "ideal", "lossy", "duty_scan", "restart_gap", "skewed", "far", "crowd", "office", "v2", "v3",
+            "poor_cover", "bank"
+    };
+
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final long ADV_DELAY_MILLIS = 10;
+
+    /**
+     * One simulated phone: its clock, its payload ring, and when it sends next. The ring is driven by
+     * a {@link SlotTicker} the same way AuthBroadcastService does it.
+     */
+    private static final class Phone {
+        final int index;
+        final long skew_millis;
+        final int rssi;
+        final SlotClock clock;
+        final TokenRing ring;
+        final TokenRing.Source source;
+        final SlotTicker ticker;
+        final SlotTicker.Listener fill;
+        long next_tx;
+
+        Phone(int index, String secret, Config config, long skew_millis, int rssi, long first_tx)
+                throws NoSuchAlgorithmException {
+            this.index = index;
+            this.skew_millis = skew_millis;
+            this.rssi = rssi;
+            this.clock = new SlotClock(config.roll_millis);
+            this.ring = new TokenRing((int) Math.max(1, 60_000 / config.roll_millis), TokenFormat.MAX_LENGTH);
+            this.next_tx = first_tx;
+            final int format = config.format;
+            if (format == TokenFormat.V3) {
+                final SlotMac mac = new SlotMac(secret);
+                source = (slot, slot_start_millis, dst) -> TokenFormat.encode_v3(mac, slot, dst);
+            } else {
+                final RollingHashEngine engine = new RollingHashEngine(secret);
+                source = (slot, slot_start_millis, dst) -> {
+                    engine.roll(slot_start_millis);
+                    return TokenFormat.encode(format, engine, slot, dst);
+                };
+            }
+            this.ticker = new SlotTicker(clock);
+            this.fill = (slot, slot_start_millis) -> {
+                if (!ring.contains(slot)) ring.fill_to_minute_end(slot, clock, source);
+            };
+        }
+
+        /**
+         * Payload on air at {@code now} (host clock), or -1 while the advertiser restarts.
+         */
+        int payload_at(long now, long restart_gap_millis, byte[] dst) {
+            long phone_now = now + skew_millis;
+            ticker.tick(phone_now, fill);
+            long slot = ticker.current_slot();
+            if (phone_now - clock.slot_start(slot) < restart_gap_millis) return -1;
+            return ring.copy(slot, dst);
+        }
+    }
+
+    private final Config config;
+    private final Random random;
+    private final String secret;
+    private final PriorityQueue<Phone> air = new PriorityQueue<>((a, b) -> Long.compare(a.next_tx, b.next_tx));
+    private final ClockOffset offset = new ClockOffset();
+    private final long[] scan_phase; // per adapter
+    private final int[][] adapter_rssi; // [adapter][phone] offset from the phone's level
+    private final byte[] payload = new byte[TokenFormat.MAX_LENGTH];
+    private long now = START_MILLIS;
+    private long[] latencies = new long[64];
+    private int successes = 0;
+    private int timeouts = 0;
+    private long verifier_nanos = 0;
+    private long phone_nanos = 0;
+
+    public AuthSimulator(Config config) throws NoSuchAlgorithmException {
+        if (config.format != TokenFormat.V1 && config.roll_millis != SlotClock.DEFAULT_PERIOD_MS) {
+            throw new IllegalArgumentException("v2 and v3 slots are 200 ms, only v1 can roll at another pace");
+        }
+        if (config.phones < 1) throw new IllegalArgumentException("phones must be >= 1");
+        if (config.adapters < 1) throw new IllegalArgumentException("adapters must be >= 1");
+        this.config = config.copy();
+        this.random = new Random(config.seed);
+        this.secret = RollingHashEngine.sha512_hex("sim-phone-0");
+        this.scan_phase = new long[config.adapters];
+        this.adapter_rssi = new int[config.adapters][config.phones];
+        scan_phase[0] = random.nextInt((int) Math.max(1, config.scan_interval_millis));
+        for (int i = 0; i < config.phones; i++) {
+            long skew = config.max_skew_millis == 0 ? 0
+                    : (long) ((random.nextDouble() * 2 - 1) * config.max_skew_millis);
+            int rssi = i == 0 ? config.rssi : -95 + random.nextInt(45);
+            String phone_secret = i == 0 ? secret : RollingHashEngine.sha512_hex("sim-phone-" + i);
+            air.add(new Phone(i, phone_secret, config, skew, rssi, now + random.nextInt((int) config.adv_interval_millis + 1)));
+        }
+        // after the phones, so a single adapter run draws the same numbers as before adapters existed
+        for (int a = 1; a < config.adapters; a++) {
+            scan_phase[a] = random.nextInt((int) Math.max(1, config.scan_interval_millis));
+            for (int i = 0; i < config.phones; i++) {
+                adapter_rssi[a][i] = config.adapter_rssi_spread == 0 ? 0
+                        : random.nextInt(2 * config.adapter_rssi_spread + 1) - config.adapter_rssi_spread;
+            }
+        }
+    }
+
+    /**
+     * Runs one authentication, true if it succeeded before the timeout.
+     */
+    public boolean attempt() throws NoSuchAlgorithmException {
+        long start = now + 1_000 + random.nextInt(5_000);
+        TokenVerifier verifier = new TokenVerifier(secret, config.lookahead, config.rssi_threshold, offset);
+        while (true) {
+            Phone phone = air.poll();
+            long t = phone.next_tx;
+            phone.next_tx = t + config.adv_interval_millis + random.nextInt((int) ADV_DELAY_MILLIS + 1);
+            air.add(phone);
+            now = t;
+
+            long phone_start = System.nanoTime();
+            int length = phone.payload_at(t, config.restart_gap_millis, payload);
+            phone_nanos += System.nanoTime() - phone_start;
+            if (t < start) continue; // the phones broadcast between authentications too
+            if (t - start > config.timeout_millis) {
+                timeouts++;
+                return false;
+            }
+            if (length < 0) continue;
+            int rssi = Integer.MIN_VALUE; // best copy over the adapters that heard it
+            for (int a = 0; a < config.adapters; a++) {
+                if (!listening(a, t) || random.nextDouble() < config.loss) continue;
+                rssi = Math.max(rssi, (int) Math.round(
+                        phone.rssi + adapter_rssi[a][phone.index] + random.nextGaussian() * config.rssi_sigma));
+            }
+            if (rssi == Integer.MIN_VALUE) continue;
+            long verify_start = System.nanoTime();
+            boolean ok = verifier.feed(payload, length, rssi, t);
+            verifier_nanos += System.nanoTime() - verify_start;
+            if (ok) {
+                if (successes == latencies.length) latencies = Arrays.copyOf(latencies, successes * 2);
+                latencies[successes++] = t - start;
+                return true;
+            }
+        }
+    }
+
+    public Result run() throws NoSuchAlgorithmException {
+        for (int i = 0; i < config.attempts; i++) attempt();
+        return result();
+    }
+
+    public Result result() {
+        return new Result(Arrays.copyOf(latencies, successes), timeouts, verifier_nanos, phone_nanos,
+                now - START_MILLIS, config.phones);
+    }
+
+    private boolean listening(int adapter, long t) {
+        return Math.floorMod(t - scan_phase[adapter], config.scan_interval_millis) < config.scan_window_millis;
+    }
+
+    public static final class Result {
+        final long[] latencies; // sorted, successful attempts only
+        final int timeouts;
+        final long verifier_nanos;
+        final long phone_nanos;
+        final long virtual_millis;
+        final int phones;
+
+        Result(long[] latencies, int timeouts, long verifier_nanos, long phone_nanos, long virtual_millis, int phones) {
+            Arrays.sort(latencies);
+            this.latencies = latencies;
+            this.timeouts = timeouts;
+            this.verifier_nanos = verifier_nanos;
+            this.phone_nanos = phone_nanos;
+            this.virtual_millis = virtual_millis;
+            this.phones = phones;
+        }
+
+        public long percentile(double p) {
+            if (latencies.length == 0) return -1;
+            return latencies[(int) Math.min(latencies.length - 1, Math.ceil(p / 100 * latencies.length) - 1)];
+        }
+
+        public double success_rate() {
+            int total = latencies.length + timeouts;
+            return total == 0 ? 0 : (double) latencies.length / total;
+        }
+
+        /**
+         * Verifier CPU, over all attempts, per successful one.
+         */
+        public double verifier_micros_per_auth() {
+            return latencies.length == 0 ? 0 : verifier_nanos / 1e3 / latencies.length;
+        }
+
+        /**
+         * Payload work of one phone per minute of broadcasting.
+         */
+        public double phone_micros_per_minute() {
+            return virtual_millis == 0 ? 0 : phone_nanos / 1e3 / phones / (virtual_millis / 60_000.0);
+        }
+
+        static String header() {
+            return String.format(Locale.US, "%-12s %6s %7s %7s %7s %7s %14s %12s",
+                    "scenario", "ok%", "p50 ms", "p90 ms", "p99 ms", "max ms", "verify us/auth", "phone us/min");
+        }
+
+        String row(String name) {
+            return String.format(Locale.US, "%-12s %6.1f %7d %7d %7d %7d %14.1f %12.1f",
+                    name, success_rate() * 100, percentile(50), percentile(90), percentile(99),
+                    latencies.length == 0 ? -1 : latencies[latencies.length - 1],
+                    verifier_micros_per_auth(), phone_micros_per_minute());
+        }
+    }
+
+    /**
+     * <pre>
+     * AuthSimulator [preset ...] [key=value ...] [sweep=key:v1,v2,...]
+     * </pre>
+     * Runs the given presets (all of them by default) with the settings applied on top, once per
+     * sweep value if there is one, and prints a table of time to auth and CPU cost.
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> presets = new ArrayList<>();
+        List<String[]> settings = new ArrayList<>();
+        String sweep_key = null;
+        String[] sweep_values = { null };
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                presets.add(arg);
+            } else if (arg.startsWith("sweep=")) {
+                String[] parts = arg.substring(6).split(":", 2);
+                sweep_key = parts[0];
+                sweep_values = parts[1].split(",");
+            } else {
+                settings.add(new String[] { arg.substring(0, eq), arg.substring(eq + 1) });
+            }
+        }
+        if (presets.isEmpty()) presets.addAll(Arrays.asList(PRESETS));
+
+        System.out.println(Result.header());
+        for (String name : presets) {
+            for (String sweep_value : sweep_values) {
+                Config config = preset(name);
+                for (String[] kv : settings) config.set(kv[0], kv[1]);
+                String label = name;
+                if (sweep_key != null) {
+                    config.set(sweep_key, sweep_value);
+                    label = name + " " + sweep_value;
+                }
+                Result result = new AuthSimulator(config).run();
+                System.out.println(result.row(label) + "   " + config.describe());
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.mrsat.authit.bench;
+
+import com.mrsat.authit.verifier.RawAdvertFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Front of the scan pipeline on a crowded stream of raw advertising payloads, one in twenty ours:
+ * RawAdvertFilter against parsing every AD structure into a map first, the way ScanRecord does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestBenchmark {
+
+    private static final int RECORDS = 1024;
+    private static final int AUTH_EVERY = 20;
+
+    private final byte[][] records = new byte[RECORDS][];
+    private final RawAdvertFilter filter = new RawAdvertFilter();
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] data = new byte[i % AUTH_EVERY == 0 ? 20 : 8 + random.nextInt(12)];
+            random.nextBytes(data);
+            int uuid = i % AUTH_EVERY == 0 ? RawAdvertFilter.AUTH_SERVICE_UUID : 0xfe00 + random.nextInt(0xf0);
+            // flags, manufacturer data, service data
+            byte[] record = new byte[3 + 6 + 4 + data.length];
+            int at = 0;
+            record[at++] = 2; record[at++] = 0x01; record[at++] = 0x06;
+            record[at++] = 5; record[at++] = (byte) 0xff; record[at++] = 0x4c; record[at++] = 0x00;
+            record[at++] = (byte) random.nextInt(); record[at++] = (byte) random.nextInt();
+            record[at++] = (byte) (3 + data.length); record[at++] = RawAdvertFilter.AD_SERVICE_DATA_16;
+            record[at++] = (byte) uuid; record[at++] = (byte) (uuid >>> 8);
+            System.arraycopy(data, 0, record, at, data.length);
+            records[i] = record;
+        }
+    }
+
+    @Benchmark
+    public int raw_filter() {
+        byte[] record = records[next++ & (RECORDS - 1)];
+        return filter.find(record, 0, record.length) ? filter.data_length() : -1;
+    }
+
+    @Benchmark
+    public int parse_then_lookup() {
+        byte[] record = records[next++ & (RECORDS - 1)];
+        Map<Integer, byte[]> service_data = new HashMap<>();
+        int at = 0;
+        while (at < record.length) {
+            int field = record[at] & 0xff;
+            if (field == 0 || at + 1 + field > record.length) break;
+            if ((record[at + 1] & 0xff) == RawAdvertFilter.AD_SERVICE_DATA_16 && field >= 3) {
+                int uuid = (record[at + 2] & 0xff) | (record[at + 3] & 0xff) << 8;
+                byte[] data = new byte[field - 3];
+                System.arraycopy(record, at + 4, data, 0, data.length);
+                service_data.put(uuid, data);
+            }
+            at += 1 + field;
+        }
+        byte[] ours = service_data.get(RawAdvertFilter.AUTH_SERVICE_UUID);
+        return ours == null ? -1 : ours.length;
+    }
+}
@@ -0,0 +1,57 @@
+package com.mrsat.authit.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Copy of the tick path as it was in MainActivity before the core module,
+ * kept as the baseline every benchmark compares against.
+ */
+final class Legacy {
+
+    private Legacy() {
+    }
+
+    static String sha512(String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-512");
+            byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : hash) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1)
+                    hexString.append('0');
+                hexString.append(hex);
+            }
+            return hexString.toString();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    static String roll_input(String current_hash, String password) {
+        String hashPrefixOld = current_hash.substring(0, Math.min(20, current_hash.length()));
+        String padding = repeat('0', 108);
+        String currentDate = ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+        return hashPrefixOld + padding + password + currentDate;
+    }
+
+    static String roll_hash(String current_hash, String password) {
+        return sha512(roll_input(current_hash, password));
+    }
+
+    static byte[] advertise_payload(String current_hash) {
+        String hashPrefix = current_hash.substring(0, Math.min(20, current_hash.length()));
+        return hashPrefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // String.repeat is Java 11, the app gets it through desugaring
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) sb.append(c);
+        return sb.toString();
+    }
+}
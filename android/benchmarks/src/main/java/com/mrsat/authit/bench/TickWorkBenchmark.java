@@ -0,0 +1,98 @@
+package com.mrsat.authit.bench;
+
+import com.mrsat.authit.core.RollingHashEngine;
+import com.mrsat.authit.core.SlotClock;
+import com.mrsat.authit.core.TokenFormat;
+import com.mrsat.authit.core.TokenRing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work the broadcast thread does per 200 ms wakeup, with the screen locked and nothing else running.
+ *
+ * per_tick_* rolls and encodes on every wakeup like the service used to, ring_* copies out of a
+ * {@link TokenRing} that is refilled once a minute, the refill is included. Slots are simulated, so
+ * a run covers many minutes of phone time and is the same every time. Sample mode gives the
+ * per-wakeup distribution, the time the CPU has to stay up before it can go back to sleep.
+ * *_minute is the whole minute (300 wakeups) per op.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TickWorkBenchmark {
+
+    private static final int SLOTS_PER_MINUTE = 300;
+
+    private final SlotClock clock = new SlotClock(200);
+    private RollingHashEngine engine;
+    private TokenRing ring;
+    private TokenRing.Source source;
+    private final byte[] payload = new byte[TokenFormat.MAX_LENGTH];
+    private long slot;
+
+    @Setup
+    public void setup() throws Exception {
+        engine = new RollingHashEngine(RollingHashEngine.sha512_hex("correct horse battery staple"));
+        ring = new TokenRing(SLOTS_PER_MINUTE, TokenFormat.MAX_LENGTH);
+        source = (s, slot_start_millis, dst) -> {
+            engine.roll(slot_start_millis);
+            return TokenFormat.encode(TokenFormat.V1, engine, s, dst);
+        };
+        // start on a minute boundary so every refill is a full minute
+        slot = clock.slot_at(System.currentTimeMillis() / 60_000 * 60_000);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int per_tick_wakeup() {
+        return per_tick(slot++);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int ring_wakeup() {
+        return ring_tick(slot++);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int per_tick_minute() {
+        int total = 0;
+        for (int i = 0; i < SLOTS_PER_MINUTE; i++) total += per_tick(slot++);
+        return total;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int ring_minute() {
+        int total = 0;
+        for (int i = 0; i < SLOTS_PER_MINUTE; i++) total += ring_tick(slot++);
+        return total;
+    }
+
+    private int per_tick(long s) {
+        engine.roll(clock.slot_start(s));
+        return TokenFormat.encode(TokenFormat.V1, engine, s, payload);
+    }
+
+    private int ring_tick(long s) {
+        if (!ring.contains(s)) ring.fill_to_minute_end(s, clock, source);
+        return ring.copy(s, payload);
+    }
+}
@@ -0,0 +1,99 @@
+package com.mrsat.authit.bench;
+
+import com.mrsat.authit.core.RollingHashEngine;
+import com.mrsat.authit.core.SlotMac;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The 200 ms tick: hashing, building the roll input and the full roll.
+ * keyed_* is the v3 token, SlotMac against a plain JCE Mac that rehashes the ipad block every call.
+ * Run with -prof gc (the jmh task does) to get bytes allocated per op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenBenchmark {
+
+    private String password;
+    private String current_hash;
+    private RollingHashEngine engine;
+    private long now;
+    private SlotMac slot_mac;
+    private Mac jce_mac;
+    private final byte[] message = new byte[SlotMac.MESSAGE_LENGTH];
+    private long slot;
+
+    @Setup
+    public void setup() throws Exception {
+        password = RollingHashEngine.sha512_hex("correct horse battery staple");
+        current_hash = Legacy.sha512(password);
+        engine = new RollingHashEngine(password);
+        now = System.currentTimeMillis();
+        slot_mac = new SlotMac(password);
+        jce_mac = Mac.getInstance("HmacSHA512");
+        jce_mac.init(new SecretKeySpec(password.getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+        slot = now / 200;
+    }
+
+    @Benchmark
+    public String legacy_sha512_hex() {
+        return Legacy.sha512(current_hash);
+    }
+
+    @Benchmark
+    public String legacy_roll_input() {
+        return Legacy.roll_input(current_hash, password);
+    }
+
+    @Benchmark
+    public String legacy_roll_hash() {
+        current_hash = Legacy.roll_hash(current_hash, password);
+        return current_hash;
+    }
+
+    @Benchmark
+    public byte[] engine_roll() {
+        engine.roll(now);
+        return engine.raw_hash();
+    }
+
+    @Benchmark
+    public String engine_roll_to_string() {
+        engine.roll(now);
+        return engine.current_hash();
+    }
+
+    @Benchmark
+    public byte[] keyed_slot_mac() {
+        return slot_mac.compute(slot++);
+    }
+
+    @Benchmark
+    public byte[] keyed_jce_mac() {
+        long s = slot++;
+        for (int i = message.length - 1; i >= 0; i--) {
+            message[i] = (byte) s;
+            s >>>= 8;
+        }
+        return jce_mac.doFinal(message);
+    }
+}
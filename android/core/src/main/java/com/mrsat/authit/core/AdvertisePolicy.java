@@ -0,0 +1,134 @@
+package com.mrsat.authit.core;
+
+/**
+ * Picks how the token is put on air: advertise mode, TX power and how many slots a payload stays
+ * on air before the next update.
+ *
+ * The slot itself stays at {@link SlotClock#DEFAULT_PERIOD_MS}, it is part of the token (the chain
+ * rolls once per slot, v2/v3 carry the slot number), so a slower cadence means holding a payload
+ * for several slots, never longer slots. How long a payload may be held is bounded by what the
+ * verifier accepts, that bound comes in as {@link Inputs#max_hold_slots}.
+ *
+ * Mode and TX power use the values of Android's AdvertiseSettings constants, in the same order.
+ * The built-in policies keep TX power at ULTRA_LOW: the host's RSSI threshold was tuned for it and
+ * more power means unlocking from further away.
+ */
+public interface AdvertisePolicy {
+
+    enum Mode {
+        LOW_POWER, // ~1 s advertising interval
+        BALANCED, // ~250 ms
+        LOW_LATENCY // ~100 ms
+    }
+
+    enum TxPower {
+        ULTRA_LOW,
+        LOW,
+        MEDIUM,
+        HIGH
+    }
+
+    /**
+     * What the phone is doing right now. Reused between evaluations, policies must not keep it.
+     */
+    final class Inputs {
+        public boolean screen_on;
+        public int battery_percent = -1; // -1 when unknown
+        public boolean charging;
+        public long millis_since_unlock = Long.MAX_VALUE;
+        public int max_hold_slots = 1;
+        public boolean on_request; // advertising on request (host beacon), see BurstController
+        public boolean requested; // on request and the host is asking right now
+    }
+
+    final class Decision {
+        public final Mode mode;
+        public final TxPower tx_power;
+        public final int hold_slots;
+        public final String reason;
+
+        public Decision(Mode mode, TxPower tx_power, int hold_slots, String reason) {
+            if (hold_slots <= 0) throw new IllegalArgumentException("hold_slots must be > 0");
+            this.mode = mode;
+            this.tx_power = tx_power;
+            this.hold_slots = hold_slots;
+            this.reason = reason;
+        }
+
+        /**
+         * Same radio settings and cadence, the reason doesn't count.
+         */
+        public boolean same_as(Decision other) {
+            return other != null && mode == other.mode && tx_power == other.tx_power && hold_slots == other.hold_slots;
+        }
+
+        @Override
+        public String toString() {
+            return mode + " " + tx_power + " every " + hold_slots + " slot(s) (" + reason + ")";
+        }
+    }
+
+    String name();
+
+    Decision decide(Inputs inputs);
+
+    /**
+     * Lowest latency all the time, the radio settings the app always had. Only the screen-off
+     * cadence is stretched, the CPU is what costs there, not the radio.
+     */
+    AdvertisePolicy PERFORMANCE = new AdvertisePolicy() {
+        @Override
+        public String name() {
+            return "performance";
+        }
+
+        @Override
+        public Decision decide(Inputs in) {
+            if (in.screen_on) return new Decision(Mode.LOW_LATENCY, TxPower.ULTRA_LOW, 1, "screen on");
+            return new Decision(Mode.LOW_LATENCY, TxPower.ULTRA_LOW, in.max_hold_slots, "screen off");
+        }
+    };
+
+    /**
+     * Fast while the phone is in use, just unlocked or charging, slower otherwise and slowest on
+     * a low battery.
+     */
+    AdvertisePolicy ADAPTIVE = new AdvertisePolicy() {
+        private static final long RECENT_UNLOCK_MS = 60_000; // a sudo usually follows shortly after unlocking
+        private static final int LOW_BATTERY_PERCENT = 20;
+
+        @Override
+        public String name() {
+            return "adaptive";
+        }
+
+        @Override
+        public Decision decide(Inputs in) {
+            if (in.charging) return new Decision(Mode.LOW_LATENCY, TxPower.ULTRA_LOW, 1, "charging");
+            if (in.screen_on) return new Decision(Mode.LOW_LATENCY, TxPower.ULTRA_LOW, 1, "screen on");
+            if (in.millis_since_unlock < RECENT_UNLOCK_MS) {
+                return new Decision(Mode.LOW_LATENCY, TxPower.ULTRA_LOW, in.max_hold_slots, "unlocked recently");
+            }
+            if (in.battery_percent >= 0 && in.battery_percent <= LOW_BATTERY_PERCENT) {
+                return new Decision(Mode.LOW_POWER, TxPower.ULTRA_LOW, in.max_hold_slots, "battery low");
+            }
+            return new Decision(Mode.BALANCED, TxPower.ULTRA_LOW, in.max_hold_slots, "idle");
+        }
+    };
+
+    /**
+     * Low power and the longest hold whenever possible, only the screen being on speeds it up.
+     */
+    AdvertisePolicy BATTERY_SAVER = new AdvertisePolicy() {
+        @Override
+        public String name() {
+            return "battery_saver";
+        }
+
+        @Override
+        public Decision decide(Inputs in) {
+            if (in.screen_on) return new Decision(Mode.BALANCED, TxPower.ULTRA_LOW, 1, "screen on");
+            return new Decision(Mode.LOW_POWER, TxPower.ULTRA_LOW, in.max_hold_slots, "screen off");
+        }
+    };
+}
@@ -0,0 +1,90 @@
+package com.mrsat.authit.core;
+
+/**
+ * Runs the selected {@link AdvertisePolicy} and reports when its decision changes, so the radio
+ * is only reconfigured (and the change only logged) on an actual change.
+ *
+ * Advertising on request overrides the policy's mode and cadence: low latency on every slot while
+ * the host asks, low power with the longest hold while it doesn't. The TX power stays the
+ * policy's.
+ *
+ * Not thread-safe, owned by the broadcast thread.
+ */
+public final class AdvertisePolicyEngine {
+
+    public interface Listener {
+        void on_decision(AdvertisePolicy policy, AdvertisePolicy.Decision decision, AdvertisePolicy.Decision previous);
+    }
+
+    private static final AdvertisePolicy[] BUILT_IN = {
+            AdvertisePolicy.PERFORMANCE, AdvertisePolicy.ADAPTIVE, AdvertisePolicy.BATTERY_SAVER
+    };
+
+    private final Listener listener;
+    private AdvertisePolicy policy;
+    private AdvertisePolicy.Decision current;
+    private long changes = 0;
+
+    public AdvertisePolicyEngine(AdvertisePolicy policy, Listener listener) {
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    /**
+     * Built-in policy called {@code name}, PERFORMANCE if there is none.
+     */
+    public static AdvertisePolicy by_name(String name) {
+        for (AdvertisePolicy p : BUILT_IN) {
+            if (p.name().equals(name)) return p;
+        }
+        return AdvertisePolicy.PERFORMANCE;
+    }
+
+    public void set_policy(AdvertisePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Decision for {@code inputs}. The listener only hears about it if the radio settings or the
+     * cadence differ from the previous one.
+     */
+    public AdvertisePolicy.Decision evaluate(AdvertisePolicy.Inputs inputs) {
+        AdvertisePolicy.Decision decision = policy.decide(inputs);
+        if (inputs.on_request) {
+            decision = inputs.requested
+                    ? new AdvertisePolicy.Decision(AdvertisePolicy.Mode.LOW_LATENCY, decision.tx_power, 1, "requested by the host")
+                    : new AdvertisePolicy.Decision(AdvertisePolicy.Mode.LOW_POWER, decision.tx_power, inputs.max_hold_slots, "waiting for a request");
+        }
+        if (decision.hold_slots > inputs.max_hold_slots) {
+            decision = new AdvertisePolicy.Decision(decision.mode, decision.tx_power, inputs.max_hold_slots, decision.reason);
+        }
+        if (decision.same_as(current)) return current;
+        AdvertisePolicy.Decision previous = current;
+        current = decision;
+        changes++;
+        listener.on_decision(policy, decision, previous);
+        return decision;
+    }
+
+    /**
+     * Last decision, null before the first evaluation.
+     */
+    public AdvertisePolicy.Decision current() {
+        return current;
+    }
+
+    /**
+     * Forgets the current decision, the next evaluation is reported even if nothing changed.
+     */
+    public void reset() {
+        current = null;
+    }
+
+    public AdvertisePolicy policy() {
+        return policy;
+    }
+
+    public long changes() {
+        return changes;
+    }
+}
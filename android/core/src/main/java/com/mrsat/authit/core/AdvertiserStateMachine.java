@@ -0,0 +1,243 @@
+package com.mrsat.authit.core;
+
+import java.util.Arrays;
+
+/**
+ * Owns the advertiser's lifecycle so a failing start can't turn into a retry on every tick.
+ *
+ * <pre>
+ * IDLE --advertise--> STARTING --started--> ACTIVE
+ *                        |                    |
+ *                     failure              failure
+ *                        v                    v
+ *       FAILED <--permanent-- (classify) --retryable--> BACKING_OFF --timer--> STARTING
+ * </pre>
+ *
+ * Payloads handed in while a start is in flight or while backing off are coalesced, only the
+ * newest one goes out once the advertiser is up. Retryable failures back off exponentially with a
+ * base and cap per failure class; permanent ones (data too large, feature unsupported) stop in
+ * FAILED until {@link #stop}. The radio and the timer come in as interfaces, so the whole machine
+ * can be driven by fakes.
+ *
+ * Not thread-safe, every call including the radio callbacks has to come from one thread.
+ */
+public final class AdvertiserStateMachine {
+
+    public enum State {
+        IDLE,
+        STARTING,
+        ACTIVE,
+        BACKING_OFF,
+        FAILED
+    }
+
+    /**
+     * AdvertiseCallback / AdvertisingSetCallback failure codes, they share the values 1 to 5.
+     */
+    public enum FailureClass {
+        DATA_TOO_LARGE(1, 0, 0),
+        TOO_MANY_ADVERTISERS(2, 1_000, 60_000), // someone else holds the slots, give them time
+        ALREADY_STARTED(3, 200, 5_000), // our view and the stack's disagree, stop and start again soon
+        INTERNAL_ERROR(4, 500, 30_000),
+        FEATURE_UNSUPPORTED(5, 0, 0),
+        OTHER(-1, 1_000, 30_000);
+
+        public final int error_code;
+        final long base_millis;
+        final long max_millis;
+
+        FailureClass(int error_code, long base_millis, long max_millis) {
+            this.error_code = error_code;
+            this.base_millis = base_millis;
+            this.max_millis = max_millis;
+        }
+
+        public boolean is_permanent() {
+            return base_millis == 0;
+        }
+
+        public static FailureClass of(int error_code) {
+            for (FailureClass c : values()) {
+                if (c.error_code == error_code) return c;
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * The radio. start and update answer later through {@link #on_started} or {@link #on_failed}
+     * (update may answer only on failure).
+     */
+    public interface Port {
+        void start(byte[] payload);
+
+        void update(byte[] payload);
+
+        void stop();
+    }
+
+    public interface Timer {
+        /**
+         * Calls {@link #on_timer} after {@code delay_millis}, replacing a pending call.
+         */
+        void schedule(long delay_millis);
+
+        void cancel();
+    }
+
+    public interface Listener {
+        void on_state_changed(State state, FailureClass cause);
+    }
+
+    private static final int MAX_SHIFT = 16;
+
+    private final Port port;
+    private final Timer timer;
+    private final Listener listener;
+    private State state = State.IDLE;
+    private byte[] current; // last payload handed to the port
+    private byte[] pending; // newest payload asked for, goes out once the advertiser is up
+    private int attempts = 0; // consecutive failures since the last successful start
+    private FailureClass last_failure;
+
+    private final long[] failures = new long[FailureClass.values().length];
+    private long starts = 0;
+    private long started = 0;
+    private long updates = 0;
+    private long coalesced = 0;
+
+    public AdvertiserStateMachine(Port port, Timer timer, Listener listener) {
+        this.port = port;
+        this.timer = timer;
+        this.listener = listener;
+    }
+
+    public void advertise(byte[] payload) {
+        switch (state) {
+            case IDLE:
+                pending = payload;
+                start();
+                break;
+            case ACTIVE:
+                pending = payload;
+                current = payload;
+                updates++;
+                port.update(payload);
+                break;
+            case STARTING:
+            case BACKING_OFF:
+                if (pending != null && pending != current) coalesced++;
+                pending = payload;
+                break;
+            case FAILED:
+                break; // nothing goes out until stop(), so nothing is coalesced either
+        }
+    }
+
+    public void on_started() {
+        if (state != State.STARTING) return; // legacy restarts report every start
+        attempts = 0;
+        started++;
+        set_state(State.ACTIVE, null);
+        if (pending != null && !Arrays.equals(pending, current)) {
+            current = pending;
+            updates++;
+            port.update(pending);
+        }
+    }
+
+    public void on_failed(int error_code) {
+        if (state != State.STARTING && state != State.ACTIVE) return;
+        FailureClass cause = FailureClass.of(error_code);
+        failures[cause.ordinal()]++;
+        last_failure = cause;
+        port.stop();
+        if (cause.is_permanent()) {
+            timer.cancel();
+            set_state(State.FAILED, cause);
+            return;
+        }
+        timer.schedule(backoff_millis(cause, attempts));
+        attempts++;
+        set_state(State.BACKING_OFF, cause);
+    }
+
+    public void on_timer() {
+        if (state == State.BACKING_OFF) start();
+    }
+
+    /**
+     * Stops advertising and the backoff, forgets the payloads. Also the way out of FAILED.
+     */
+    public void stop() {
+        timer.cancel();
+        if (state == State.STARTING || state == State.ACTIVE) port.stop();
+        current = null;
+        pending = null;
+        attempts = 0;
+        if (state != State.IDLE) set_state(State.IDLE, null);
+    }
+
+    /**
+     * Starts again with the newest payload, for settings that only apply to a fresh start.
+     */
+    public void restart() {
+        if (state != State.STARTING && state != State.ACTIVE) return;
+        port.stop();
+        start();
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public long failures(FailureClass cause) {
+        return failures[cause.ordinal()];
+    }
+
+    /**
+     * Cause of the last failure, null if there was none.
+     */
+    public FailureClass last_failure() {
+        return last_failure;
+    }
+
+    /**
+     * Starts handed to the port, retries included.
+     */
+    public long starts() {
+        return starts;
+    }
+
+    public long successful_starts() {
+        return started;
+    }
+
+    public long updates() {
+        return updates;
+    }
+
+    /**
+     * Payloads replaced by a newer one before they went out.
+     */
+    public long coalesced() {
+        return coalesced;
+    }
+
+    static long backoff_millis(FailureClass cause, int attempts) {
+        long delay = cause.base_millis << Math.min(attempts, MAX_SHIFT);
+        return Math.min(delay, cause.max_millis);
+    }
+
+    private void start() {
+        current = pending;
+        starts++;
+        set_state(State.STARTING, null);
+        port.start(current);
+    }
+
+    private void set_state(State next, FailureClass cause) {
+        state = next;
+        listener.on_state_changed(next, cause);
+    }
+}
@@ -0,0 +1,114 @@
+package com.mrsat.authit.core;
+
+/**
+ * Advertise on request: the host puts an "auth requested" beacon on air while a PAM prompt is
+ * open, the phone listens for it with a low duty scan and only advertises at low latency while
+ * it keeps hearing it.
+ *
+ * Every beacon seen extends the burst by {@code hold_millis}, so the hold has to be longer than
+ * the gap between two beacon sightings at the scan duty cycle. Between requests the advertiser is
+ * off or at low power, whichever {@code idle_mode} says.
+ *
+ * Not thread-safe, owned by the broadcast thread. The radio is only called on a change.
+ */
+public final class BurstController {
+
+    public enum Mode {
+        OFF,
+        LOW_POWER,
+        LOW_LATENCY
+    }
+
+    public interface Radio {
+        void set_advertise_mode(Mode mode);
+
+        void set_beacon_scan(boolean on);
+    }
+
+    private final Radio radio;
+    private final DutyCycle.Clock clock;
+    private final Mode idle_mode;
+    private final long hold_millis;
+    private boolean running = false;
+    private Mode mode = Mode.OFF;
+    private long burst_until = Long.MIN_VALUE;
+    private long bursts = 0;
+    private long beacons = 0;
+
+    public BurstController(Radio radio, DutyCycle.Clock clock, Mode idle_mode, long hold_millis) {
+        if (idle_mode == Mode.LOW_LATENCY) throw new IllegalArgumentException("idle_mode can't be LOW_LATENCY");
+        if (hold_millis <= 0) throw new IllegalArgumentException("hold_millis must be > 0");
+        this.radio = radio;
+        this.clock = clock;
+        this.idle_mode = idle_mode;
+        this.hold_millis = hold_millis;
+    }
+
+    /**
+     * Starts listening and puts the advertiser in the mode for now. Also used to resume after a
+     * pause, the radio is told again even if the mode didn't change.
+     */
+    public void start() {
+        running = true;
+        radio.set_beacon_scan(true);
+        mode = mode_at(clock.now_millis());
+        radio.set_advertise_mode(mode);
+    }
+
+    /**
+     * Stops listening and advertising.
+     */
+    public void stop() {
+        if (!running) return;
+        running = false;
+        radio.set_beacon_scan(false);
+        mode = Mode.OFF;
+        radio.set_advertise_mode(Mode.OFF);
+    }
+
+    public void on_beacon() {
+        long now = clock.now_millis();
+        beacons++;
+        if (now >= burst_until) bursts++;
+        burst_until = now + hold_millis;
+        apply(now);
+    }
+
+    /**
+     * Ends the burst once no beacon was seen for {@code hold_millis}. Call on every tick.
+     */
+    public void check() {
+        apply(clock.now_millis());
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public boolean is_running() {
+        return running;
+    }
+
+    /**
+     * Bursts started, a beacon extending a running burst doesn't count.
+     */
+    public long bursts() {
+        return bursts;
+    }
+
+    public long beacons() {
+        return beacons;
+    }
+
+    private Mode mode_at(long now) {
+        return now < burst_until ? Mode.LOW_LATENCY : idle_mode;
+    }
+
+    private void apply(long now) {
+        if (!running) return;
+        Mode next = mode_at(now);
+        if (next == mode) return;
+        mode = next;
+        radio.set_advertise_mode(next);
+    }
+}
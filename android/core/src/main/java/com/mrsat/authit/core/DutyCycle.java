@@ -0,0 +1,131 @@
+package com.mrsat.authit.core;
+
+/**
+ * Decides when the broadcast thread wakes up to put a new token on air.
+ *
+ * A {@link Policy} picks the slot of the next update and the wakeup is aimed at that slot's start,
+ * so the payload always changes on a boundary. Time and timers come in through {@link Clock} and
+ * {@link Scheduler}, a policy can be driven entirely by fakes.
+ *
+ * Holding a payload for several slots saves the rolls and the advertiser restarts in between, not
+ * CPU sleep: the wakeups are handler messages, which need the CPU up (screen on, or a wake lock
+ * with the screen off), and no OS timer fires reliably at this cadence from suspend.
+ *
+ * Not thread-safe, owned by the broadcast thread.
+ */
+public final class DutyCycle {
+
+    public interface Clock {
+        Clock SYSTEM = System::currentTimeMillis;
+
+        long now_millis();
+    }
+
+    public interface Scheduler {
+        /**
+         * Wakes the broadcast thread at {@code at_millis} (wall clock), replacing the pending
+         * wakeup if there is one.
+         */
+        void schedule_at(long at_millis);
+
+        void cancel();
+    }
+
+    public interface Policy {
+        /**
+         * First slot after {@code slot} that gets a fresh payload.
+         */
+        long next_update(long slot);
+    }
+
+    /**
+     * A new payload every slot.
+     */
+    public static Policy every_slot() {
+        return aligned(1);
+    }
+
+    /**
+     * A new payload every {@code hold_slots} slots, on the slots that are a multiple of it, so
+     * the verifier sees jumps of a fixed size. Has to stay below what the verifier accepts
+     * between two adverts (its lookahead for the chain formats).
+     */
+    public static Policy aligned(final int hold_slots) {
+        if (hold_slots <= 0) throw new IllegalArgumentException("hold_slots must be > 0");
+        return slot -> (Math.floorDiv(slot, hold_slots) + 1) * hold_slots;
+    }
+
+    private final SlotClock slot_clock;
+    private final Clock clock;
+    private Scheduler scheduler;
+    private Policy policy;
+    private long wakeups = 0;
+    private long scheduled_at = -1; // the pending wakeup, -1 when none
+    private long last_lateness = 0;
+
+    public DutyCycle(SlotClock slot_clock, Clock clock) {
+        this.slot_clock = slot_clock;
+        this.clock = clock;
+    }
+
+    /**
+     * Switches to {@code scheduler} and {@code policy} (screen on/off) and schedules the next
+     * wakeup. The wakeup pending on the previous scheduler is cancelled.
+     */
+    public void start(Scheduler scheduler, Policy policy) {
+        if (this.scheduler != null && this.scheduler != scheduler) this.scheduler.cancel();
+        this.scheduler = scheduler;
+        this.policy = policy;
+        schedule_next(clock.now_millis());
+    }
+
+    /**
+     * Call first thing on every wakeup. Schedules the next one before any work is done, so a
+     * failing update doesn't stop the cycle, and returns the current slot.
+     */
+    public long on_wakeup() {
+        long now = clock.now_millis();
+        wakeups++;
+        if (scheduled_at >= 0) last_lateness = now - scheduled_at;
+        if (scheduler != null) schedule_next(now);
+        return slot_clock.slot_at(now);
+    }
+
+    public void stop() {
+        if (scheduler != null) scheduler.cancel();
+        scheduler = null;
+        policy = null;
+        scheduled_at = -1;
+    }
+
+    public boolean is_running() {
+        return scheduler != null;
+    }
+
+    /**
+     * Wakeups since this instance was created.
+     */
+    public long wakeups() {
+        return wakeups;
+    }
+
+    /**
+     * When the pending wakeup is due (wall clock), -1 when none is.
+     */
+    public long next_wakeup_millis() {
+        return scheduled_at;
+    }
+
+    /**
+     * How late the last wakeup came compared to when it was scheduled, negative if early.
+     */
+    public long last_lateness_millis() {
+        return last_lateness;
+    }
+
+    private void schedule_next(long now_millis) {
+        long next = policy.next_update(slot_clock.slot_at(now_millis));
+        scheduled_at = slot_clock.slot_start(next);
+        scheduler.schedule_at(scheduled_at);
+    }
+}
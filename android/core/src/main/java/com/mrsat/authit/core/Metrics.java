@@ -0,0 +1,203 @@
+package com.mrsat.authit.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, fixed-bucket histograms and gauges for the broadcaster, readable as a text report.
+ *
+ * Registration takes a lock and is meant for setup, asking again for a name returns the same
+ * instance. Recording is lock-free and allocation-free, so it can sit on the tick path and be
+ * read from another thread (dumpsys, the diagnostics screen) while the broadcaster runs.
+ * Percentiles come from the buckets, they are the upper bound of the bucket they fall in.
+ */
+public final class Metrics {
+
+    public static final class Counter {
+        final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        public void add(long n) {
+            value.addAndGet(n);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public static final class Histogram {
+        final String name;
+        private final long[] bounds; // inclusive upper bounds, one more bucket for anything above
+        private final AtomicLongArray buckets;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        Histogram(String name, long[] bounds) {
+            for (int i = 1; i < bounds.length; i++) {
+                if (bounds[i] <= bounds[i - 1]) throw new IllegalArgumentException("bounds must increase");
+            }
+            this.name = name;
+            this.bounds = bounds.clone();
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        public void record(long value) {
+            buckets.incrementAndGet(bucket_of(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)) { }
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        public long max() {
+            return count.get() == 0 ? 0 : max.get();
+        }
+
+        public double mean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) sum.get() / n;
+        }
+
+        /**
+         * Upper bound of the bucket holding quantile {@code q}, never more than the max.
+         */
+        public long quantile(double q) {
+            long n = 0;
+            long[] snapshot = new long[buckets.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(bounds[i], max());
+            }
+            return max();
+        }
+
+        private int bucket_of(long value) {
+            int lo = 0;
+            int hi = bounds.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (bounds[mid] < value) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    public interface Gauge {
+        long value();
+    }
+
+    /**
+     * 1, 2, 5, 10, 20, 50... from {@code from} up to and including {@code to}.
+     */
+    public static long[] series_125(long from, long to) {
+        List<Long> values = new ArrayList<>();
+        for (long decade = from; decade <= to; decade *= 10) {
+            for (long step : new long[] { 1, 2, 5 }) {
+                if (decade * step <= to) values.add(decade * step);
+            }
+        }
+        long[] bounds = new long[values.size()];
+        for (int i = 0; i < bounds.length; i++) bounds[i] = values.get(i);
+        return bounds;
+    }
+
+    public static final long[] MICROS = series_125(1, 1_000_000); // 1 us to 1 s
+    public static final long[] MILLIS = series_125(1, 10_000); // 1 ms to 10 s
+
+    private final List<Counter> counters = new ArrayList<>();
+    private final List<Histogram> histograms = new ArrayList<>();
+    private final List<String> gauge_names = new ArrayList<>();
+    private final List<Gauge> gauges = new ArrayList<>();
+    private final DutyCycle.Clock clock;
+    private final long created_millis;
+
+    public Metrics(DutyCycle.Clock clock) {
+        this.clock = clock;
+        this.created_millis = clock.now_millis();
+    }
+
+    public synchronized Counter counter(String name) {
+        for (Counter c : counters) {
+            if (c.name.equals(name)) return c;
+        }
+        Counter c = new Counter(name);
+        counters.add(c);
+        return c;
+    }
+
+    public synchronized Histogram histogram(String name, long[] bounds) {
+        for (Histogram h : histograms) {
+            if (h.name.equals(name)) return h;
+        }
+        Histogram h = new Histogram(name, bounds);
+        histograms.add(h);
+        return h;
+    }
+
+    /**
+     * Reads a value that is already counted elsewhere, a later gauge with the same name replaces it.
+     */
+    public synchronized void gauge(String name, Gauge gauge) {
+        int i = gauge_names.indexOf(name);
+        if (i >= 0) {
+            gauges.set(i, gauge);
+        } else {
+            gauge_names.add(name);
+            gauges.add(gauge);
+        }
+    }
+
+    public synchronized String report() {
+        long uptime = Math.max(0, clock.now_millis() - created_millis);
+        double minutes = uptime / 60_000.0;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "uptime %d s%n", uptime / 1000));
+        if (!counters.isEmpty()) {
+            sb.append(String.format(Locale.US, "%n%-28s %12s %10s%n", "counter", "value", "per min"));
+            for (Counter c : counters) {
+                long v = c.get();
+                sb.append(String.format(Locale.US, "%-28s %12d %10.1f%n", c.name, v, minutes > 0 ? v / minutes : 0.0));
+            }
+        }
+        if (!gauges.isEmpty()) {
+            sb.append(String.format(Locale.US, "%n%-28s %12s%n", "gauge", "value"));
+            for (int i = 0; i < gauges.size(); i++) {
+                sb.append(String.format(Locale.US, "%-28s %12d%n", gauge_names.get(i), gauges.get(i).value()));
+            }
+        }
+        if (!histograms.isEmpty()) {
+            sb.append(String.format(Locale.US, "%n%-28s %9s %9s %9s %9s %9s %9s%n",
+                    "histogram", "count", "mean", "p50", "p90", "p99", "max"));
+            for (Histogram h : histograms) {
+                sb.append(String.format(Locale.US, "%-28s %9d %9.1f %9d %9d %9d %9d%n", h.name, h.count(), h.mean(),
+                        h.quantile(0.50), h.quantile(0.90), h.quantile(0.99), h.max()));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,214 @@
+package com.mrsat.authit.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Rolling hash chain shared by the phone and the verifier.
+ *
+ * Each roll hashes {@code prefix(20) + "0" * 108 + secret + "yyyy-MM-dd HH:mm"} (UTC) with SHA-512,
+ * exactly like the original MainActivity code, but every buffer is allocated once and reused.
+ * The minute stamp is only re-encoded when the minute changes.
+ *
+ * Not thread-safe, one instance per broadcaster.
+ */
+public final class RollingHashEngine {
+
+    public static final int PREFIX_LENGTH = 20;
+    public static final int PADDING_LENGTH = 108; // same padding as the linux client (128 - 20)
+    public static final int STAMP_LENGTH = 16; // "yyyy-MM-dd HH:mm"
+    public static final int HASH_LENGTH = 64;
+    public static final int HEX_LENGTH = HASH_LENGTH * 2;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final long MILLIS_PER_MINUTE = 60_000L;
+
+    private final MessageDigest digest;
+    private final byte[] secret;
+    private final byte[] seed_prefix; // first 20 chars of the secret, what the old code advertised first
+    private final byte[] hash = new byte[HASH_LENGTH];
+    private final byte[] hex = new byte[HEX_LENGTH];
+
+    // prefix | padding | secret | stamp
+    private byte[] input;
+    private int prefix_length;
+    private int hex_length;
+    private long stamp_minute = Long.MIN_VALUE;
+    private boolean at_seed;
+
+    public RollingHashEngine(String secret) throws NoSuchAlgorithmException {
+        this.digest = MessageDigest.getInstance("SHA-512");
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.seed_prefix = secret.substring(0, Math.min(PREFIX_LENGTH, secret.length())).getBytes(StandardCharsets.UTF_8);
+        reset();
+    }
+
+    /**
+     * Puts the chain back at its start: the current hash becomes the secret itself.
+     */
+    public void reset() {
+        int seed_hex_length = Math.min(HEX_LENGTH, secret.length);
+        Arrays.fill(hex, (byte) 0);
+        System.arraycopy(secret, 0, hex, 0, seed_hex_length);
+        hex_length = seed_hex_length;
+        at_seed = true;
+        layout(seed_prefix.length);
+        System.arraycopy(seed_prefix, 0, input, 0, prefix_length);
+    }
+
+    /**
+     * Advances the chain by one step using the minute of {@code epoch_millis} (UTC).
+     */
+    public void roll(long epoch_millis) {
+        if (prefix_length != advertised_length()) {
+            layout(advertised_length());
+        }
+        System.arraycopy(advertised(), 0, input, 0, prefix_length);
+        write_stamp(Math.floorDiv(epoch_millis, MILLIS_PER_MINUTE));
+
+        digest.update(input, 0, input.length);
+        try {
+            digest.digest(hash, 0, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            int v = hash[i] & 0xff;
+            hex[i * 2] = HEX[v >>> 4];
+            hex[i * 2 + 1] = HEX[v & 0x0f];
+        }
+        hex_length = HEX_LENGTH;
+        at_seed = false;
+    }
+
+    /**
+     * Continues the chain from an advertised prefix (PREFIX_LENGTH hex bytes at {@code offset})
+     * instead of this engine's own hash. The verifier uses it to predict what a phone sends next.
+     */
+    public void seek(byte[] prefix, int offset) {
+        System.arraycopy(prefix, offset, hex, 0, PREFIX_LENGTH);
+        hex_length = PREFIX_LENGTH;
+        at_seed = false;
+    }
+
+    /**
+     * Current hash as lowercase hex, same value the old {@code sha512()} returned.
+     */
+    public String current_hash() {
+        return new String(hex, 0, hex_length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * First 20 hex characters of the current hash, as advertised over BLE.
+     */
+    public String prefix() {
+        return new String(advertised(), 0, advertised_length(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the advertised prefix into {@code dst} and returns the number of bytes written.
+     */
+    public int copy_prefix(byte[] dst, int offset) {
+        int length = advertised_length();
+        System.arraycopy(advertised(), 0, dst, offset, length);
+        return length;
+    }
+
+    /**
+     * Compares the advertised prefix with {@code other} without allocating.
+     */
+    public boolean prefix_equals(byte[] other) {
+        int length = advertised_length();
+        if (other == null || other.length != length) return false;
+        byte[] advertised = advertised();
+        for (int i = 0; i < length; i++) {
+            if (advertised[i] != other[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Raw digest of the last roll. The returned array is reused, copy it if you keep it.
+     */
+    public byte[] raw_hash() {
+        return hash;
+    }
+
+    // Before the first roll the prefix is cut from the secret by chars, like substring(0, 20) was,
+    // which for a non-ASCII secret isn't its first 20 bytes.
+    private byte[] advertised() {
+        return at_seed ? seed_prefix : hex;
+    }
+
+    private int advertised_length() {
+        return at_seed ? seed_prefix.length : Math.min(PREFIX_LENGTH, hex_length);
+    }
+
+    private void layout(int new_prefix_length) {
+        prefix_length = new_prefix_length;
+        input = new byte[prefix_length + PADDING_LENGTH + secret.length + STAMP_LENGTH];
+        Arrays.fill(input, prefix_length, prefix_length + PADDING_LENGTH, (byte) '0');
+        System.arraycopy(secret, 0, input, prefix_length + PADDING_LENGTH, secret.length);
+        stamp_minute = Long.MIN_VALUE;
+    }
+
+    private void write_stamp(long minute) {
+        if (minute == stamp_minute) return;
+        stamp_minute = minute;
+        encode_stamp(minute, input, input.length - STAMP_LENGTH);
+    }
+
+    /**
+     * Writes {@code yyyy-MM-dd HH:mm} for the given epoch minute (UTC) into {@code dst}.
+     * Done by hand so we don't need java.time (API 26+) or a formatter per tick.
+     */
+    public static void encode_stamp(long epoch_minute, byte[] dst, int offset) {
+        long days = Math.floorDiv(epoch_minute, 1440L);
+        int minute_of_day = (int) Math.floorMod(epoch_minute, 1440L);
+
+        // civil_from_days, http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        write_digits(dst, offset, year, 4);
+        dst[offset + 4] = '-';
+        write_digits(dst, offset + 5, month, 2);
+        dst[offset + 7] = '-';
+        write_digits(dst, offset + 8, day, 2);
+        dst[offset + 10] = ' ';
+        write_digits(dst, offset + 11, minute_of_day / 60, 2);
+        dst[offset + 13] = ':';
+        write_digits(dst, offset + 14, minute_of_day % 60, 2);
+    }
+
+    private static void write_digits(byte[] dst, int offset, int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            dst[offset + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Plain SHA-512 as lowercase hex, used to hash the password before it is stored.
+     */
+    public static String sha512_hex(String input) throws NoSuchAlgorithmException {
+        byte[] hash = MessageDigest.getInstance("SHA-512").digest(input.getBytes(StandardCharsets.UTF_8));
+        byte[] out = new byte[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            int v = hash[i] & 0xff;
+            out[i * 2] = HEX[v >>> 4];
+            out[i * 2 + 1] = HEX[v & 0x0f];
+        }
+        return new String(out, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,41 @@
+package com.mrsat.authit.core;
+
+/**
+ * Cuts UTC time into fixed slots counted from the epoch, slot n covers
+ * {@code [n * period, (n + 1) * period)}. Both ends can agree on which token belongs
+ * to which slot without talking to each other.
+ */
+public final class SlotClock {
+
+    public static final long DEFAULT_PERIOD_MS = 200;
+
+    private final long period_ms;
+
+    public SlotClock(long period_ms) {
+        if (period_ms <= 0) throw new IllegalArgumentException("period_ms must be > 0");
+        this.period_ms = period_ms;
+    }
+
+    public SlotClock() {
+        this(DEFAULT_PERIOD_MS);
+    }
+
+    public long period_ms() {
+        return period_ms;
+    }
+
+    public long slot_at(long epoch_millis) {
+        return Math.floorDiv(epoch_millis, period_ms);
+    }
+
+    public long slot_start(long slot) {
+        return slot * period_ms;
+    }
+
+    /**
+     * Milliseconds from {@code epoch_millis} to the start of the next slot, always in (0, period].
+     */
+    public long delay_to_next(long epoch_millis) {
+        return slot_start(slot_at(epoch_millis) + 1) - epoch_millis;
+    }
+}
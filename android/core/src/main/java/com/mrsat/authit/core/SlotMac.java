@@ -0,0 +1,145 @@
+package com.mrsat.authit.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * HMAC-SHA-512 of the slot counter, keyed with the stored password hash. Used by the v3 token.
+ *
+ * The ipad and opad blocks are compressed once in the constructor and only their eight state words
+ * are kept. A slot then costs exactly two SHA-512 compressions (the 8 byte counter, then the 64 byte
+ * inner hash) and no allocation, where the v1 chain needs three for its 272 byte input.
+ * MessageDigest can't be restarted from a saved state, hence the compression function here.
+ * Each slot stands on its own, nothing has to be replayed after a late wakeup.
+ *
+ * Not thread-safe, one instance per broadcaster.
+ */
+public final class SlotMac {
+
+    public static final int MAC_LENGTH = 64;
+    public static final int MESSAGE_LENGTH = 8; // slot, big endian
+    private static final int BLOCK_LENGTH = 128;
+
+    private static final long[] K = {
+            0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+            0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+            0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+            0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+            0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+            0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+            0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+            0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+            0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+            0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+            0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+            0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+            0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+            0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+            0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+            0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+            0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+            0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+            0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+            0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+    };
+    private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+
+    // state after the ipad / opad block, never changed after the constructor
+    private final long[] inner_key = new long[8];
+    private final long[] outer_key = new long[8];
+
+    private final long[] state = new long[8];
+    private final long[] w = new long[80];
+    private final byte[] mac = new byte[MAC_LENGTH];
+
+    public SlotMac(String secret) throws NoSuchAlgorithmException {
+        byte[] key = secret.getBytes(StandardCharsets.UTF_8);
+        if (key.length > BLOCK_LENGTH) {
+            key = MessageDigest.getInstance("SHA-512").digest(key);
+        }
+        byte[] pad = new byte[BLOCK_LENGTH];
+        start_key(key, (byte) 0x36, pad, inner_key);
+        start_key(key, (byte) 0x5c, pad, outer_key);
+    }
+
+    /**
+     * MAC of {@code slot}. The returned array is reused, copy it if you keep it.
+     */
+    public byte[] compute(long slot) {
+        // inner: one block holding the counter, 0x80 and the bit length of pad + counter
+        System.arraycopy(inner_key, 0, state, 0, 8);
+        w[0] = slot;
+        w[1] = 0x8000000000000000L;
+        for (int i = 2; i < 15; i++) w[i] = 0;
+        w[15] = (BLOCK_LENGTH + MESSAGE_LENGTH) * 8L;
+        compress(state, w);
+
+        // outer: the 8 inner words, 0x80 and the bit length of pad + inner hash
+        for (int i = 0; i < 8; i++) w[i] = state[i];
+        System.arraycopy(outer_key, 0, state, 0, 8);
+        w[8] = 0x8000000000000000L;
+        for (int i = 9; i < 15; i++) w[i] = 0;
+        w[15] = (BLOCK_LENGTH + MAC_LENGTH) * 8L;
+        compress(state, w);
+
+        for (int i = 0; i < 8; i++) {
+            long v = state[i];
+            for (int b = 7; b >= 0; b--) {
+                mac[i * 8 + b] = (byte) v;
+                v >>>= 8;
+            }
+        }
+        return mac;
+    }
+
+    private void start_key(byte[] key, byte xor, byte[] pad, long[] out) {
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ xor);
+        }
+        for (int i = 0; i < 16; i++) {
+            long v = 0;
+            for (int b = 0; b < 8; b++) v = (v << 8) | (pad[i * 8 + b] & 0xff);
+            w[i] = v;
+        }
+        System.arraycopy(IV, 0, out, 0, 8);
+        compress(out, w);
+    }
+
+    // FIPS 180-4 SHA-512 compression of the 16 words in w[0..15] into h
+    private static void compress(long[] h, long[] w) {
+        for (int t = 16; t < 80; t++) {
+            long x = w[t - 2];
+            long y = w[t - 15];
+            long s1 = Long.rotateRight(x, 19) ^ Long.rotateRight(x, 61) ^ (x >>> 6);
+            long s0 = Long.rotateRight(y, 1) ^ Long.rotateRight(y, 8) ^ (y >>> 7);
+            w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+        }
+        long a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], k = h[7];
+        for (int t = 0; t < 80; t++) {
+            long t1 = k + (Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41))
+                    + ((e & f) ^ (~e & g)) + K[t] + w[t];
+            long t2 = (Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39))
+                    + ((a & b) ^ (a & c) ^ (b & c));
+            k = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += k;
+    }
+}
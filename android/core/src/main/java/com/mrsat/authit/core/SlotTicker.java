@@ -0,0 +1,80 @@
+package com.mrsat.authit.core;
+
+/**
+ * Drives one roll per slot of a {@link SlotClock}.
+ *
+ * The timer only has to call {@link #tick} somewhere after a boundary, the ticker works out
+ * which slots were crossed, so late or coalesced wakeups never shift the schedule. Missed slots
+ * are replayed in order with their own start time, up to {@code max_catch_up}; after a longer gap
+ * (deep sleep, clock jump) it skips straight to the current slot.
+ */
+public final class SlotTicker {
+
+    public interface Listener {
+        void on_slot(long slot, long slot_start_millis);
+    }
+
+    public static final int DEFAULT_MAX_CATCH_UP = 300; // one minute of 200 ms slots
+
+    private final SlotClock clock;
+    private final int max_catch_up;
+    private long last_slot = Long.MIN_VALUE;
+    private long skipped_slots = 0;
+
+    public SlotTicker(SlotClock clock, int max_catch_up) {
+        this.clock = clock;
+        this.max_catch_up = max_catch_up;
+    }
+
+    public SlotTicker(SlotClock clock) {
+        this(clock, DEFAULT_MAX_CATCH_UP);
+    }
+
+    /**
+     * Forgets the last slot, the next tick only runs its own.
+     */
+    public void clear() {
+        last_slot = Long.MIN_VALUE;
+    }
+
+    /**
+     * Runs {@code listener} once for every slot started since the last tick and returns the delay
+     * until the next boundary. Nothing runs if we're still in the same slot (early wakeup).
+     */
+    public long tick(long now_millis, Listener listener) {
+        long slot = clock.slot_at(now_millis);
+        if (last_slot == Long.MIN_VALUE || slot < last_slot) {
+            // first tick or the wall clock went backwards, restart from here
+            last_slot = slot - 1;
+        }
+
+        long first = last_slot + 1;
+        if (slot - first >= max_catch_up) {
+            skipped_slots += slot - first;
+            first = slot;
+        }
+        for (long s = first; s <= slot; s++) {
+            listener.on_slot(s, clock.slot_start(s));
+        }
+        last_slot = slot;
+        return clock.delay_to_next(now_millis);
+    }
+
+    /**
+     * Last slot a roll was produced for.
+     */
+    public long current_slot() {
+        return last_slot;
+    }
+
+    /**
+     * Slots dropped because the gap was larger than {@code max_catch_up}.
+     */
+    public long skipped_slots() {
+        return skipped_slots;
+    }
+
+    public SlotClock clock() {
+        return clock;
+    }
+}
@@ -0,0 +1,70 @@
+package com.mrsat.authit.core;
+
+/**
+ * Wire formats of the advertised service data.
+ *
+ * v1 is the original one, the first 20 hex characters of the current hash as ASCII (80 bits in 20 bytes).
+ * v2 is binary: {@code 0x02 | slot counter (uint32, big endian) | first 12 bytes of the raw hash},
+ * 96 bits in 17 bytes. The hash chain is the same for both, the verifier tells them apart by the
+ * first byte since a v1 payload only contains hex digits.
+ * v3 has the v2 layout with version byte 0x03, but the 12 bytes are {@link SlotMac} of the slot
+ * instead of the chain, so each token is checked on its own.
+ */
+public final class TokenFormat {
+
+    public static final int V1 = 1;
+    public static final int V2 = 2;
+    public static final int V3 = 3;
+
+    public static final byte V2_VERSION_BYTE = 0x02;
+    public static final int SLOT_LENGTH = 4;
+    public static final int V2_MAC_LENGTH = 12;
+    public static final int V2_LENGTH = 1 + SLOT_LENGTH + V2_MAC_LENGTH;
+    public static final byte V3_VERSION_BYTE = 0x03;
+    public static final int MAX_LENGTH = Math.max(RollingHashEngine.PREFIX_LENGTH, V2_LENGTH);
+
+    private TokenFormat() {
+    }
+
+    public static boolean is_supported(int version) {
+        return version == V1 || version == V2 || version == V3;
+    }
+
+    /**
+     * True when the format is derived from the rolling hash chain, false for the keyed v3.
+     */
+    public static boolean uses_chain(int version) {
+        return version != V3;
+    }
+
+    /**
+     * Writes the payload for the engine's current hash into {@code dst} and returns its length.
+     * {@code slot} is only sent by v2, as its low 32 bits.
+     */
+    public static int encode(int version, RollingHashEngine engine, long slot, byte[] dst) {
+        if (version != V2) {
+            return engine.copy_prefix(dst, 0);
+        }
+        dst[0] = V2_VERSION_BYTE;
+        write_slot(slot, dst, 1);
+        System.arraycopy(engine.raw_hash(), 0, dst, 1 + SLOT_LENGTH, V2_MAC_LENGTH);
+        return V2_LENGTH;
+    }
+
+    /**
+     * Writes the v3 payload for {@code slot} into {@code dst} and returns its length.
+     */
+    public static int encode_v3(SlotMac mac, long slot, byte[] dst) {
+        dst[0] = V3_VERSION_BYTE;
+        write_slot(slot, dst, 1);
+        System.arraycopy(mac.compute(slot), 0, dst, 1 + SLOT_LENGTH, V2_MAC_LENGTH);
+        return V2_LENGTH;
+    }
+
+    static void write_slot(long slot, byte[] dst, int offset) {
+        dst[offset] = (byte) (slot >>> 24);
+        dst[offset + 1] = (byte) (slot >>> 16);
+        dst[offset + 2] = (byte) (slot >>> 8);
+        dst[offset + 3] = (byte) slot;
+    }
+}
@@ -0,0 +1,276 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.mrsat.authit.core.AdvertiserStateMachine.FailureClass;
+import com.mrsat.authit.core.AdvertiserStateMachine.State;
+
+public class AdvertiserStateMachineTest {
+
+    private static final class FakePort implements AdvertiserStateMachine.Port {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void start(byte[] payload) {
+            calls.add("start " + text(payload));
+        }
+
+        @Override
+        public void update(byte[] payload) {
+            calls.add("update " + text(payload));
+        }
+
+        @Override
+        public void stop() {
+            calls.add("stop");
+        }
+
+        List<String> take() {
+            List<String> taken = new ArrayList<>(calls);
+            calls.clear();
+            return taken;
+        }
+    }
+
+    private static final class FakeTimer implements AdvertiserStateMachine.Timer {
+        long delay = -1; // pending delay, -1 when none
+        final List<Long> delays = new ArrayList<>();
+
+        @Override
+        public void schedule(long delay_millis) {
+            delay = delay_millis;
+            delays.add(delay_millis);
+        }
+
+        @Override
+        public void cancel() {
+            delay = -1;
+        }
+    }
+
+    private final FakePort port = new FakePort();
+    private final FakeTimer timer = new FakeTimer();
+    private final List<String> transitions = new ArrayList<>();
+    private final AdvertiserStateMachine machine = new AdvertiserStateMachine(port, timer,
+            (state, cause) -> transitions.add(cause == null ? state.name() : state + " " + cause));
+
+    private static byte[] payload(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String text(byte[] payload) {
+        return payload == null ? "null" : new String(payload, StandardCharsets.US_ASCII);
+    }
+
+    /** Fires the pending timer, like the handler would. */
+    private void fire() {
+        assertTrue("no timer pending", timer.delay >= 0);
+        timer.delay = -1;
+        machine.on_timer();
+    }
+
+    @Test
+    public void backoff_doubles_per_class_up_to_its_cap() {
+        long[] internal = new long[8];
+        long[] too_many = new long[8];
+        long[] already = new long[8];
+        for (int n = 0; n < 8; n++) {
+            internal[n] = AdvertiserStateMachine.backoff_millis(FailureClass.INTERNAL_ERROR, n);
+            too_many[n] = AdvertiserStateMachine.backoff_millis(FailureClass.TOO_MANY_ADVERTISERS, n);
+            already[n] = AdvertiserStateMachine.backoff_millis(FailureClass.ALREADY_STARTED, n);
+        }
+        assertArrayEquals(new long[] { 500, 1_000, 2_000, 4_000, 8_000, 16_000, 30_000, 30_000 }, internal);
+        assertArrayEquals(new long[] { 1_000, 2_000, 4_000, 8_000, 16_000, 32_000, 60_000, 60_000 }, too_many);
+        assertArrayEquals(new long[] { 200, 400, 800, 1_600, 3_200, 5_000, 5_000, 5_000 }, already);
+        // no overflow however long it keeps failing
+        assertEquals(30_000, AdvertiserStateMachine.backoff_millis(FailureClass.OTHER, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void retryable_failures_back_off_and_retry_with_the_newest_payload() {
+        machine.advertise(payload("a"));
+        assertEquals(Arrays.asList("start a"), port.take());
+
+        for (int n = 0; n < 7; n++) {
+            machine.on_failed(4);
+            assertEquals(State.BACKING_OFF, machine.state());
+            fire();
+        }
+        assertEquals(Arrays.asList(500L, 1_000L, 2_000L, 4_000L, 8_000L, 16_000L, 30_000L), timer.delays);
+        assertEquals(7, machine.failures(FailureClass.INTERNAL_ERROR));
+        assertEquals(FailureClass.INTERNAL_ERROR, machine.last_failure());
+        assertEquals(8, machine.starts());
+
+        // a successful start resets the sequence
+        machine.on_started();
+        machine.on_failed(4);
+        assertEquals(500L, timer.delay);
+        assertEquals(1, machine.successful_starts());
+    }
+
+    @Test
+    public void failure_while_active_stops_and_backs_off() {
+        machine.advertise(payload("a"));
+        machine.on_started();
+        port.take();
+        machine.on_failed(2);
+        assertEquals(Arrays.asList("stop"), port.take());
+        assertEquals(State.BACKING_OFF, machine.state());
+        assertEquals(1_000L, timer.delay);
+        machine.advertise(payload("b"));
+        fire();
+        assertEquals(Arrays.asList("start b"), port.take());
+    }
+
+    @Test
+    public void payloads_coalesce_while_starting() {
+        machine.advertise(payload("a"));
+        machine.advertise(payload("b"));
+        machine.advertise(payload("c"));
+        machine.advertise(payload("d"));
+        assertEquals(Arrays.asList("start a"), port.take());
+        // b and c were replaced before they went out, d waits for the start
+        assertEquals(2, machine.coalesced());
+
+        machine.on_started();
+        assertEquals(Arrays.asList("update d"), port.take());
+        assertEquals(State.ACTIVE, machine.state());
+
+        machine.advertise(payload("e"));
+        assertEquals(Arrays.asList("update e"), port.take());
+        assertEquals(2, machine.updates());
+        assertEquals(2, machine.coalesced());
+    }
+
+    @Test
+    public void started_with_the_same_payload_sends_no_update() {
+        machine.advertise(payload("a"));
+        machine.advertise(payload("a"));
+        machine.on_started();
+        assertEquals(Arrays.asList("start a"), port.take());
+        assertEquals(0, machine.updates());
+    }
+
+    @Test
+    public void payloads_coalesce_while_backing_off() {
+        machine.advertise(payload("a"));
+        machine.on_failed(4);
+        port.take();
+        machine.advertise(payload("b"));
+        machine.advertise(payload("c"));
+        machine.advertise(payload("d"));
+        assertTrue(port.take().isEmpty());
+        assertEquals(2, machine.coalesced());
+        fire();
+        assertEquals(Arrays.asList("start d"), port.take());
+        assertEquals(State.STARTING, machine.state());
+    }
+
+    @Test
+    public void permanent_codes_fail_until_stop() {
+        for (int code : new int[] { 1, 5 }) {
+            transitions.clear();
+            machine.advertise(payload("a"));
+            machine.on_failed(code);
+            FailureClass cause = FailureClass.of(code);
+            assertTrue(cause.is_permanent());
+            assertEquals(State.FAILED, machine.state());
+            assertEquals(Arrays.asList("STARTING", "FAILED " + cause), transitions);
+            assertEquals(-1, timer.delay);
+            port.take();
+
+            // nothing gets it out of FAILED but stop()
+            machine.advertise(payload("b"));
+            machine.on_timer();
+            machine.on_started();
+            machine.on_failed(4);
+            machine.restart();
+            assertEquals(State.FAILED, machine.state());
+            assertTrue(port.take().isEmpty());
+
+            machine.stop();
+            assertEquals(State.IDLE, machine.state());
+            assertTrue(port.take().isEmpty()); // nothing on air to stop
+            machine.advertise(payload("c"));
+            assertEquals(Arrays.asList("start c"), port.take());
+            machine.stop();
+            port.take();
+        }
+        assertEquals(1, machine.failures(FailureClass.DATA_TOO_LARGE));
+        assertEquals(1, machine.failures(FailureClass.FEATURE_UNSUPPORTED));
+    }
+
+    @Test
+    public void failed_does_not_count_coalesced_payloads() {
+        machine.advertise(payload("a"));
+        machine.on_failed(1);
+        assertEquals(State.FAILED, machine.state());
+        for (String p : new String[] { "b", "c", "d", "e" }) machine.advertise(payload(p));
+        assertEquals(0, machine.coalesced());
+
+        // and the payloads handed in while failed don't go out after stop()
+        machine.stop();
+        port.take();
+        machine.advertise(payload("f"));
+        assertEquals(Arrays.asList("start f"), port.take());
+    }
+
+    @Test
+    public void repeated_start_callbacks_are_ignored() {
+        machine.advertise(payload("a"));
+        machine.on_started();
+        machine.advertise(payload("b"));
+        port.take();
+        transitions.clear();
+
+        // legacy restarts report every start, only the first counts
+        machine.on_started();
+        machine.on_started();
+        assertEquals(State.ACTIVE, machine.state());
+        assertEquals(1, machine.successful_starts());
+        assertTrue(port.take().isEmpty());
+        assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    public void start_callback_after_a_failure_is_ignored() {
+        machine.advertise(payload("a"));
+        machine.on_failed(4);
+        machine.on_started(); // late callback from the stopped attempt
+        assertEquals(State.BACKING_OFF, machine.state());
+        assertEquals(0, machine.successful_starts());
+    }
+
+    @Test
+    public void stop_cancels_the_backoff_and_forgets_payloads() {
+        machine.advertise(payload("a"));
+        machine.on_failed(4);
+        machine.advertise(payload("b"));
+        machine.stop();
+        assertEquals(-1, timer.delay);
+        assertEquals(State.IDLE, machine.state());
+        machine.on_timer(); // a timer that was already queued
+        assertEquals(State.IDLE, machine.state());
+        assertEquals(Arrays.asList("start a", "stop"), port.take());
+    }
+
+    @Test
+    public void unknown_codes_are_retryable() {
+        assertEquals(FailureClass.OTHER, FailureClass.of(42));
+        assertNull(machine.last_failure());
+        machine.advertise(payload("a"));
+        machine.on_failed(42);
+        assertEquals(State.BACKING_OFF, machine.state());
+        assertEquals(1_000L, timer.delay);
+    }
+}
@@ -0,0 +1,148 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BurstControllerTest {
+
+    private static final long HOLD = 8000;
+
+    private static final class FakeRadio implements BurstController.Radio {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void set_advertise_mode(BurstController.Mode mode) {
+            calls.add("mode " + mode);
+        }
+
+        @Override
+        public void set_beacon_scan(boolean on) {
+            calls.add("scan " + on);
+        }
+
+        List<String> take() {
+            List<String> taken = new ArrayList<>(calls);
+            calls.clear();
+            return taken;
+        }
+    }
+
+    private final FakeRadio radio = new FakeRadio();
+    private long now = 1_000_000;
+    private final BurstController low_power = new BurstController(radio, () -> now, BurstController.Mode.LOW_POWER, HOLD);
+
+    @Test
+    public void start_listens_and_idles() {
+        low_power.start();
+        assertEquals(Arrays.asList("scan true", "mode LOW_POWER"), radio.take());
+        assertEquals(BurstController.Mode.LOW_POWER, low_power.mode());
+        assertTrue(low_power.is_running());
+    }
+
+    @Test
+    public void a_beacon_starts_a_burst() {
+        low_power.start();
+        radio.take();
+        low_power.on_beacon();
+        assertEquals(Arrays.asList("mode LOW_LATENCY"), radio.take());
+        assertEquals(BurstController.Mode.LOW_LATENCY, low_power.mode());
+        assertEquals(1, low_power.bursts());
+        assertEquals(1, low_power.beacons());
+    }
+
+    @Test
+    public void every_beacon_extends_the_hold() {
+        low_power.start();
+        low_power.on_beacon();
+        radio.take();
+
+        now += 5000;
+        low_power.on_beacon();
+        now += HOLD - 1; // past the first beacon's hold, inside the second's
+        low_power.check();
+        assertEquals(BurstController.Mode.LOW_LATENCY, low_power.mode());
+        assertTrue(radio.take().isEmpty()); // the radio is only told about changes
+
+        assertEquals(1, low_power.bursts());
+        assertEquals(2, low_power.beacons());
+    }
+
+    @Test
+    public void falls_back_to_idle_after_the_hold() {
+        low_power.start();
+        low_power.on_beacon();
+        radio.take();
+
+        now += HOLD - 1;
+        low_power.check();
+        assertEquals(BurstController.Mode.LOW_LATENCY, low_power.mode());
+        now += 1;
+        low_power.check();
+        low_power.check();
+        assertEquals(BurstController.Mode.LOW_POWER, low_power.mode());
+        assertEquals(Arrays.asList("mode LOW_POWER"), radio.take());
+
+        // the next beacon is a new burst
+        low_power.on_beacon();
+        assertEquals(2, low_power.bursts());
+        assertEquals(Arrays.asList("mode LOW_LATENCY"), radio.take());
+    }
+
+    @Test
+    public void silent_idle_turns_the_advertiser_off() {
+        BurstController silent = new BurstController(radio, () -> now, BurstController.Mode.OFF, HOLD);
+        silent.start();
+        silent.on_beacon();
+        now += HOLD;
+        silent.check();
+        assertEquals(Arrays.asList("scan true", "mode OFF", "mode LOW_LATENCY", "mode OFF"), radio.take());
+    }
+
+    @Test
+    public void start_and_stop_announce_the_mode_again() {
+        low_power.start();
+        low_power.on_beacon();
+        radio.take();
+
+        low_power.stop();
+        assertEquals(Arrays.asList("scan false", "mode OFF"), radio.take());
+        assertEquals(BurstController.Mode.OFF, low_power.mode());
+        assertFalse(low_power.is_running());
+        low_power.stop();
+        assertTrue(radio.take().isEmpty());
+
+        // resumed within the hold, the burst is still on
+        low_power.start();
+        assertEquals(Arrays.asList("scan true", "mode LOW_LATENCY"), radio.take());
+
+        // starting again while running tells the radio again, the advertiser may be new
+        low_power.start();
+        assertEquals(Arrays.asList("scan true", "mode LOW_LATENCY"), radio.take());
+    }
+
+    @Test
+    public void beacons_while_stopped_are_counted_but_not_applied() {
+        low_power.on_beacon();
+        low_power.check();
+        assertTrue(radio.take().isEmpty());
+        assertEquals(BurstController.Mode.OFF, low_power.mode());
+        assertEquals(1, low_power.beacons());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void idle_mode_cannot_be_low_latency() {
+        new BurstController(radio, () -> now, BurstController.Mode.LOW_LATENCY, HOLD);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hold_must_be_positive() {
+        new BurstController(radio, () -> now, BurstController.Mode.OFF, 0);
+    }
+}
@@ -0,0 +1,164 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DutyCycleTest {
+
+    private static final long SLOT = SlotClock.DEFAULT_PERIOD_MS;
+
+    private static final class FakeClock implements DutyCycle.Clock {
+        long now;
+
+        @Override
+        public long now_millis() {
+            return now;
+        }
+    }
+
+    private static final class FakeScheduler implements DutyCycle.Scheduler {
+        final List<Long> scheduled = new ArrayList<>();
+        int cancels;
+
+        @Override
+        public void schedule_at(long at_millis) {
+            scheduled.add(at_millis);
+        }
+
+        @Override
+        public void cancel() {
+            cancels++;
+        }
+
+        long last_at() {
+            return scheduled.get(scheduled.size() - 1);
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final DutyCycle duty_cycle = new DutyCycle(new SlotClock(), clock);
+
+    @Test
+    public void aligned_updates_on_multiples_of_the_hold() {
+        DutyCycle.Policy policy = DutyCycle.aligned(4);
+        assertEquals(4, policy.next_update(0));
+        assertEquals(4, policy.next_update(3));
+        assertEquals(8, policy.next_update(4));
+        assertEquals(8, policy.next_update(7));
+        assertEquals(0, policy.next_update(-1));
+        assertEquals(0, policy.next_update(-4));
+        assertEquals(-4, policy.next_update(-5));
+    }
+
+    @Test
+    public void every_slot_is_aligned_by_one() {
+        DutyCycle.Policy policy = DutyCycle.every_slot();
+        for (long slot = -3; slot < 3; slot++) {
+            assertEquals(slot + 1, policy.next_update(slot));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aligned_needs_a_positive_hold() {
+        DutyCycle.aligned(0);
+    }
+
+    @Test
+    public void start_aims_at_the_next_aligned_slot_start() {
+        clock.now = 10 * SLOT + 50;
+        duty_cycle.start(scheduler, DutyCycle.aligned(4));
+        assertEquals(12 * SLOT, scheduler.last_at());
+        assertEquals(12 * SLOT, duty_cycle.next_wakeup_millis());
+
+        // exactly on a boundary the next one is a full hold away
+        clock.now = 12 * SLOT;
+        duty_cycle.start(scheduler, DutyCycle.aligned(4));
+        assertEquals(16 * SLOT, scheduler.last_at());
+    }
+
+    @Test
+    public void wakeup_reschedules_before_the_task_runs() {
+        clock.now = 0;
+        duty_cycle.start(scheduler, DutyCycle.aligned(2));
+        Runnable failing_task = () -> {
+            duty_cycle.on_wakeup();
+            throw new IllegalStateException("advertiser gone");
+        };
+        for (int i = 0; i < 3; i++) {
+            clock.now = scheduler.last_at();
+            try {
+                failing_task.run();
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+        }
+        // the cycle kept going through every failure
+        assertEquals(4, scheduler.scheduled.size());
+        assertEquals(8 * SLOT, scheduler.last_at());
+        assertEquals(3, duty_cycle.wakeups());
+        assertTrue(duty_cycle.is_running());
+    }
+
+    @Test
+    public void missed_wakeups_catch_up_to_now() {
+        clock.now = 0;
+        duty_cycle.start(scheduler, DutyCycle.aligned(4));
+        assertEquals(4 * SLOT, scheduler.last_at());
+
+        // the wakeup comes 15 slots late (busy looper, frozen process): the current slot is returned so the
+        // ticker catches up, and the next wakeup is the next boundary after now, not a missed one
+        clock.now = 19 * SLOT + 150;
+        assertEquals(19, duty_cycle.on_wakeup());
+        assertEquals(15 * SLOT + 150, duty_cycle.last_lateness_millis());
+        assertEquals(20 * SLOT, scheduler.last_at());
+
+        clock.now = 20 * SLOT + 3;
+        assertEquals(20, duty_cycle.on_wakeup());
+        assertEquals(3, duty_cycle.last_lateness_millis());
+        assertEquals(24 * SLOT, scheduler.last_at());
+    }
+
+    @Test
+    public void early_wakeup_aims_at_the_same_boundary_again() {
+        clock.now = 0;
+        duty_cycle.start(scheduler, DutyCycle.aligned(4));
+        clock.now = 4 * SLOT - 10;
+        assertEquals(3, duty_cycle.on_wakeup());
+        assertEquals(-10, duty_cycle.last_lateness_millis());
+        assertEquals(4 * SLOT, scheduler.last_at());
+    }
+
+    @Test
+    public void switching_schedulers_cancels_the_old_one() {
+        FakeScheduler other = new FakeScheduler();
+        duty_cycle.start(scheduler, DutyCycle.every_slot());
+        duty_cycle.start(scheduler, DutyCycle.aligned(4)); // same scheduler, replaced in place
+        assertEquals(0, scheduler.cancels);
+
+        duty_cycle.start(other, DutyCycle.every_slot());
+        assertEquals(1, scheduler.cancels);
+        assertEquals(1, other.scheduled.size());
+    }
+
+    @Test
+    public void stop_cancels_and_wakeups_after_it_schedule_nothing() {
+        duty_cycle.start(scheduler, DutyCycle.every_slot());
+        duty_cycle.stop();
+        assertFalse(duty_cycle.is_running());
+        assertEquals(1, scheduler.cancels);
+        assertEquals(-1, duty_cycle.next_wakeup_millis());
+
+        // a message that was already queued still arrives once
+        clock.now = 5 * SLOT;
+        assertEquals(5, duty_cycle.on_wakeup());
+        assertEquals(1, scheduler.scheduled.size());
+    }
+}
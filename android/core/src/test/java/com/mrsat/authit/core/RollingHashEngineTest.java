@@ -0,0 +1,197 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * RollingHashEngine against the String code it replaced, byte for byte. Phones still on the old
+ * chain and the linux client have to keep agreeing with it, so any drift is a lockout.
+ */
+public class RollingHashEngineTest {
+
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // minute, hour, day, month and year edges, leap days in leap and century years
+    private static final String[] BOUNDARIES = {
+            "1970-01-01T00:00", "1999-12-31T23:59", "2000-02-28T23:59", "2000-02-29T00:00",
+            "2000-02-29T23:59", "2000-03-01T00:00", "2023-02-28T23:59", "2023-03-01T00:00",
+            "2024-02-28T23:59", "2024-02-29T12:30", "2024-03-01T00:00", "2024-06-30T23:59",
+            "2024-07-01T00:00", "2024-12-31T23:59", "2025-01-01T00:00", "2038-01-19T03:14",
+            "2100-02-28T23:59", "2100-03-01T00:00", "2400-02-29T23:59", "9999-12-31T23:58",
+    };
+
+    private static final String[] SECRETS = {
+            "", "a", "short", "exactly twenty chars", "a secret longer than the twenty char prefix",
+            "p\u00e4ssw\u00f6rd \u00fcber", "\u5bc6\u7801\u5bc6\u7801", repeat('x', 200),
+    };
+
+    @Test
+    public void encode_stamp_matches_formatter_at_boundaries() {
+        byte[] out = new byte[RollingHashEngine.STAMP_LENGTH];
+        for (String boundary : BOUNDARIES) {
+            for (int delta = -2; delta <= 2; delta++) {
+                ZonedDateTime at = LocalDateTime.parse(boundary).atZone(ZoneOffset.UTC).plusMinutes(delta);
+                if (at.getYear() > 9999) continue;
+                RollingHashEngine.encode_stamp(at.toEpochSecond() / 60, out, 0);
+                assertEquals(at.format(STAMP), new String(out, StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    @Test
+    public void encode_stamp_matches_formatter_across_the_range() {
+        Random random = new Random(1);
+        byte[] out = new byte[RollingHashEngine.STAMP_LENGTH];
+        for (int i = 0; i < 100_000; i++) {
+            long minute = (long) (random.nextDouble() * 4_102_444_800L / 60); // 1970 .. 2100
+            RollingHashEngine.encode_stamp(minute, out, 0);
+            assertEquals(legacy_stamp(minute * 60_000L), new String(out, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void chain_matches_legacy_at_boundaries() throws Exception {
+        for (String secret : SECRETS) {
+            RollingHashEngine engine = new RollingHashEngine(secret);
+            String legacy = secret;
+            for (String boundary : BOUNDARIES) {
+                long millis = LocalDateTime.parse(boundary).toEpochSecond(ZoneOffset.UTC) * 1000L;
+                // a few rolls either side of the edge, including the last and first millisecond
+                for (long at : new long[] { millis - 60_001, millis - 1, millis, millis + 59_999, millis + 60_000 }) {
+                    engine.roll(at);
+                    legacy = legacy_roll_hash(legacy, secret, at);
+                    assert_same_state(engine, legacy);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void chain_matches_legacy_for_random_seeds_and_instants() throws Exception {
+        Random random = new Random(42);
+        for (int seed = 0; seed < 200; seed++) {
+            String secret = random_secret(random);
+            RollingHashEngine engine = new RollingHashEngine(secret);
+            String legacy = secret;
+            long at = (long) (random.nextDouble() * 4_102_444_800_000L);
+            for (int step = 0; step < 50; step++) {
+                // mostly ticks within a minute, sometimes long jumps (screen off, clock changes)
+                at += random.nextInt(4) == 0 ? random.nextInt(86_400_000) : random.nextInt(1_000);
+                engine.roll(at);
+                legacy = legacy_roll_hash(legacy, secret, at);
+                assert_same_state(engine, legacy);
+            }
+        }
+    }
+
+    @Test
+    public void reset_goes_back_to_the_secret() throws Exception {
+        RollingHashEngine engine = new RollingHashEngine("a secret longer than the twenty char prefix");
+        String first = null;
+        for (int round = 0; round < 2; round++) {
+            engine.reset();
+            assertEquals("a secret longer than the twenty char prefix", engine.current_hash());
+            engine.roll(1_700_000_000_000L);
+            if (first == null) first = engine.current_hash();
+            assertEquals(first, engine.current_hash());
+        }
+    }
+
+    @Test
+    public void seek_continues_from_an_advertised_prefix() throws Exception {
+        String secret = "seek secret";
+        RollingHashEngine phone = new RollingHashEngine(secret);
+        RollingHashEngine verifier = new RollingHashEngine(secret);
+        long at = 1_700_000_000_000L;
+        phone.roll(at);
+        for (int step = 0; step < 20; step++) {
+            at += 200;
+            byte[] advertised = legacy_advertise_payload(phone.current_hash());
+            verifier.seek(advertised, 0);
+            phone.roll(at);
+            verifier.roll(at);
+            assertEquals(phone.current_hash(), verifier.current_hash());
+        }
+    }
+
+    @Test
+    public void sha512_hex_matches_legacy() throws Exception {
+        for (String secret : SECRETS) {
+            assertEquals(legacy_sha512(secret), RollingHashEngine.sha512_hex(secret));
+        }
+    }
+
+    private static void assert_same_state(RollingHashEngine engine, String legacy) {
+        assertEquals(legacy, engine.current_hash());
+        byte[] payload = legacy_advertise_payload(legacy);
+        assertEquals(new String(payload, StandardCharsets.UTF_8), engine.prefix());
+        byte[] copied = new byte[RollingHashEngine.PREFIX_LENGTH];
+        assertEquals(payload.length, engine.copy_prefix(copied, 0));
+        assertArrayEquals(payload, copied);
+        assertTrue(engine.prefix_equals(payload));
+    }
+
+    private static String random_secret(Random random) {
+        int length = random.nextInt(48);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // mostly printable ASCII, some Latin-1 and CJK so UTF-8 lengths differ from char counts
+            int kind = random.nextInt(10);
+            if (kind < 8) sb.append((char) (0x20 + random.nextInt(0x5f)));
+            else if (kind < 9) sb.append((char) (0xa0 + random.nextInt(0x60)));
+            else sb.append((char) (0x4e00 + random.nextInt(0x5000)));
+        }
+        return sb.toString();
+    }
+
+    // The tick path as it was in MainActivity, with the clock passed in instead of read.
+
+    private static String legacy_sha512(String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-512");
+            byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : hash) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1)
+                    hexString.append('0');
+                hexString.append(hex);
+            }
+            return hexString.toString();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    private static String legacy_stamp(long epoch_millis) {
+        return ZonedDateTime.ofInstant(java.time.Instant.ofEpochMilli(epoch_millis), ZoneOffset.UTC).format(STAMP);
+    }
+
+    private static String legacy_roll_hash(String current_hash, String password, long epoch_millis) {
+        String hashPrefixOld = current_hash.substring(0, Math.min(20, current_hash.length()));
+        String padding = repeat('0', 108);
+        return legacy_sha512(hashPrefixOld + padding + password + legacy_stamp(epoch_millis));
+    }
+
+    private static byte[] legacy_advertise_payload(String current_hash) {
+        String hashPrefix = current_hash.substring(0, Math.min(20, current_hash.length()));
+        return hashPrefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) sb.append(c);
+        return sb.toString();
+    }
+}
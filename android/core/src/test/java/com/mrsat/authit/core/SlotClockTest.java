@@ -0,0 +1,77 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SlotClockTest {
+
+    private final SlotClock clock = new SlotClock();
+
+    @Test
+    public void slots_are_200_ms_from_the_epoch() {
+        assertEquals(200, clock.period_ms());
+        assertEquals(0, clock.slot_at(0));
+        assertEquals(0, clock.slot_at(199));
+        assertEquals(1, clock.slot_at(200));
+        assertEquals(299, clock.slot_at(59_999));
+        assertEquals(300, clock.slot_at(60_000)); // a UTC minute is 300 slots
+        assertEquals(8_500_000_000L, clock.slot_at(1_700_000_000_000L));
+        assertEquals(1_700_000_000_000L, clock.slot_start(8_500_000_000L));
+    }
+
+    @Test
+    public void slots_before_the_epoch_round_down() {
+        assertEquals(-1, clock.slot_at(-1));
+        assertEquals(-1, clock.slot_at(-200));
+        assertEquals(-2, clock.slot_at(-201));
+        assertEquals(-200, clock.slot_start(-1));
+        assertEquals(-400, clock.slot_start(-2));
+    }
+
+    @Test
+    public void slot_start_and_slot_at_agree() {
+        for (long slot = -1_000; slot <= 1_000; slot++) {
+            long start = clock.slot_start(slot);
+            assertEquals(slot, clock.slot_at(start));
+            assertEquals(slot, clock.slot_at(start + 199));
+            assertEquals(slot - 1, clock.slot_at(start - 1));
+        }
+    }
+
+    @Test
+    public void slots_past_uint32_keep_counting() {
+        // the v2 wire format only carries the low 32 bits, the clock itself never wraps
+        long slot = 0x1_0000_0000L;
+        assertEquals(slot, clock.slot_at(clock.slot_start(slot)));
+        assertEquals(slot - 1, clock.slot_at(clock.slot_start(slot) - 1));
+    }
+
+    @Test
+    public void delay_to_next_is_in_zero_to_period() {
+        assertEquals(200, clock.delay_to_next(0));
+        assertEquals(1, clock.delay_to_next(199));
+        assertEquals(200, clock.delay_to_next(200));
+        assertEquals(1, clock.delay_to_next(-1));
+        assertEquals(200, clock.delay_to_next(-200));
+        assertEquals(150, clock.delay_to_next(1_700_000_000_050L));
+    }
+
+    @Test
+    public void other_periods() {
+        SlotClock second = new SlotClock(1_000);
+        assertEquals(1, second.slot_at(1_000));
+        assertEquals(-1, second.slot_at(-1));
+        assertEquals(999, second.delay_to_next(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_zero_period() {
+        new SlotClock(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_negative_period() {
+        new SlotClock(-200);
+    }
+}
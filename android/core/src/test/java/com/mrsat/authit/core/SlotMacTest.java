@@ -0,0 +1,81 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class SlotMacTest {
+
+    private static final long[] SLOTS = {
+            0, 1, 2, 255, 256, 0xffff_ffffL, 0x1_0000_0000L,
+            8_500_000_000L, // 2023
+            Long.MAX_VALUE, Long.MIN_VALUE, -1 // u64 0xff..ff
+    };
+
+    private static byte[] reference(String secret, long slot) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA512");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+        return mac.doFinal(ByteBuffer.allocate(8).putLong(slot).array());
+    }
+
+    private static String random_secret(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // mostly hex like the stored hash, sometimes anything up to U+07FF (two UTF-8 bytes)
+            sb.append(random.nextInt(8) == 0 ? (char) (0x20 + random.nextInt(0x7e0))
+                    : "0123456789abcdef".charAt(random.nextInt(16)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void matches_hmac_sha512_at_edge_slots() throws Exception {
+        String secret = RollingHashEngine.sha512_hex("slot mac secret");
+        SlotMac mac = new SlotMac(secret);
+        for (long slot : SLOTS) {
+            assertArrayEquals("slot " + Long.toUnsignedString(slot), reference(secret, slot), mac.compute(slot));
+        }
+    }
+
+    @Test
+    public void matches_hmac_sha512_for_random_keys_and_slots() throws Exception {
+        Random random = new Random(7);
+        for (int k = 0; k < 200; k++) {
+            // around the block size: short keys are padded, keys over 128 bytes are hashed first
+            int length = random.nextInt(4) == 0 ? 1 + random.nextInt(300) : 120 + random.nextInt(16);
+            String secret = random_secret(random, length);
+            SlotMac mac = new SlotMac(secret);
+            for (long slot : SLOTS) {
+                assertArrayEquals(reference(secret, slot), mac.compute(slot));
+            }
+            for (int i = 0; i < 20; i++) {
+                long slot = random.nextLong();
+                assertArrayEquals(reference(secret, slot), mac.compute(slot));
+            }
+        }
+    }
+
+    @Test
+    public void key_length_edges() throws Exception {
+        for (int length : new int[] { 1, 64, 127, 128, 129, 256 }) {
+            String secret = random_secret(new Random(length), length).replaceAll("[^0-9a-f]", "a");
+            SlotMac mac = new SlotMac(secret);
+            assertArrayEquals("key length " + length, reference(secret, 0), mac.compute(0));
+            assertArrayEquals("key length " + length, reference(secret, -1), mac.compute(-1));
+        }
+    }
+
+    @Test
+    public void output_buffer_is_reused() throws Exception {
+        SlotMac mac = new SlotMac("reuse");
+        assertSame(mac.compute(1), mac.compute(2));
+    }
+}
@@ -0,0 +1,189 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SlotTickerTest {
+
+    private static final long SLOT = SlotClock.DEFAULT_PERIOD_MS;
+    private static final long BASE = 8_500_000_000L; // slot of 2023-11-14 22:13:20 UTC
+
+    private static final class Recorder implements SlotTicker.Listener {
+        final List<Long> slots = new ArrayList<>();
+
+        @Override
+        public void on_slot(long slot, long slot_start_millis) {
+            assertEquals(slot * SLOT, slot_start_millis);
+            slots.add(slot);
+        }
+
+        long[] take() {
+            long[] out = new long[slots.size()];
+            for (int i = 0; i < out.length; i++) out[i] = slots.get(i);
+            slots.clear();
+            return out;
+        }
+    }
+
+    private final Recorder recorder = new Recorder();
+
+    @Test
+    public void first_tick_runs_the_current_slot_only() {
+        SlotTicker ticker = new SlotTicker(new SlotClock());
+        long delay = ticker.tick(BASE * SLOT + 50, recorder);
+        assertArrayEquals(new long[] { BASE }, recorder.take());
+        assertEquals(BASE, ticker.current_slot());
+        assertEquals(150, delay);
+    }
+
+    @Test
+    public void early_wakeup_runs_nothing() {
+        SlotTicker ticker = new SlotTicker(new SlotClock());
+        ticker.tick(BASE * SLOT, recorder);
+        recorder.take();
+        assertEquals(1, ticker.tick(BASE * SLOT + 199, recorder));
+        assertEquals(0, recorder.take().length);
+        assertEquals(BASE, ticker.current_slot());
+    }
+
+    @Test
+    public void late_wakeup_replays_missed_slots_in_order() {
+        SlotTicker ticker = new SlotTicker(new SlotClock());
+        ticker.tick(BASE * SLOT, recorder);
+        recorder.take();
+        ticker.tick((BASE + 4) * SLOT + 10, recorder);
+        assertArrayEquals(new long[] { BASE + 1, BASE + 2, BASE + 3, BASE + 4 }, recorder.take());
+        assertEquals(0, ticker.skipped_slots());
+    }
+
+    @Test
+    public void catch_up_is_limited() {
+        SlotTicker ticker = new SlotTicker(new SlotClock(), 5);
+        ticker.tick(BASE * SLOT, recorder);
+        recorder.take();
+
+        // five missed slots still fit
+        ticker.tick((BASE + 5) * SLOT, recorder);
+        assertArrayEquals(new long[] { BASE + 1, BASE + 2, BASE + 3, BASE + 4, BASE + 5 }, recorder.take());
+        assertEquals(0, ticker.skipped_slots());
+
+        // six don't, skip to the current one
+        ticker.tick((BASE + 11) * SLOT, recorder);
+        assertArrayEquals(new long[] { BASE + 11 }, recorder.take());
+        assertEquals(5, ticker.skipped_slots());
+        assertEquals(BASE + 11, ticker.current_slot());
+    }
+
+    @Test
+    public void default_catch_up_is_one_minute() {
+        SlotTicker ticker = new SlotTicker(new SlotClock());
+        ticker.tick(BASE * SLOT, recorder);
+        recorder.take();
+        ticker.tick((BASE + 300) * SLOT, recorder);
+        assertEquals(300, recorder.take().length);
+        ticker.tick((BASE + 601) * SLOT, recorder);
+        assertArrayEquals(new long[] { BASE + 601 }, recorder.take());
+        assertEquals(300, ticker.skipped_slots());
+    }
+
+    @Test
+    public void clock_going_back_restarts_from_the_current_slot() {
+        SlotTicker ticker = new SlotTicker(new SlotClock());
+        ticker.tick(BASE * SLOT, recorder);
+        recorder.take();
+        ticker.tick((BASE - 10) * SLOT, recorder);
+        assertArrayEquals(new long[] { BASE - 10 }, recorder.take());
+        ticker.tick((BASE - 9) * SLOT, recorder);
+        assertArrayEquals(new long[] { BASE - 9 }, recorder.take());
+        assertEquals(0, ticker.skipped_slots());
+    }
+
+    @Test
+    public void clear_starts_over_at_the_next_tick() {
+        SlotTicker ticker = new SlotTicker(new SlotClock());
+        ticker.tick(BASE * SLOT, recorder);
+        ticker.clear();
+        recorder.take();
+        ticker.tick((BASE + 50) * SLOT, recorder);
+        assertArrayEquals(new long[] { BASE + 50 }, recorder.take());
+        assertEquals(0, ticker.skipped_slots());
+    }
+
+    // what AuthBroadcastService does: a slot missing from the ring starts a batch to the minute end
+    private static final class RingDriver implements SlotTicker.Listener {
+        final SlotClock clock = new SlotClock();
+        final TokenRing ring = new TokenRing(300, TokenFormat.MAX_LENGTH);
+        final RollingHashEngine engine;
+        final TokenRing.Source source;
+        int fills;
+
+        RingDriver(String secret) throws Exception {
+            engine = new RollingHashEngine(secret);
+            source = (slot, slot_start_millis, dst) -> {
+                engine.roll(slot_start_millis);
+                return TokenFormat.encode(TokenFormat.V2, engine, slot, dst);
+            };
+        }
+
+        @Override
+        public void on_slot(long slot, long slot_start_millis) {
+            if (ring.contains(slot)) return;
+            fills++;
+            ring.fill_to_minute_end(slot, clock, source);
+        }
+    }
+
+    @Test
+    public void driving_the_ring_matches_one_roll_per_slot() throws Exception {
+        RingDriver driver = new RingDriver("ticker secret");
+        SlotTicker ticker = new SlotTicker(driver.clock);
+        RollingHashEngine reference = new RollingHashEngine("ticker secret");
+        byte[] expected = new byte[TokenFormat.MAX_LENGTH];
+        byte[] sent = new byte[TokenFormat.MAX_LENGTH];
+
+        long first = 8_500_000_200L + 280; // 20 slots before a minute ends
+        long now = first * SLOT + 30;
+        long rolled = first - 1;
+        Random random = new Random(3);
+        while (now < (first + 700) * SLOT) {
+            ticker.tick(now, driver);
+            long slot = ticker.current_slot();
+            while (rolled < slot) reference.roll(++rolled * SLOT);
+            TokenFormat.encode(TokenFormat.V2, reference, slot, expected);
+            assertEquals(TokenFormat.V2_LENGTH, driver.ring.copy(slot, sent));
+            assertArrayEquals(expected, sent);
+            // late, early and coalesced wakeups
+            now += random.nextInt(4) == 0 ? random.nextInt(2_000) : random.nextInt(250);
+        }
+        // one batch per minute entered, never one per slot
+        assertEquals(4, driver.fills);
+    }
+
+    @Test
+    public void a_skipped_gap_restarts_the_ring_at_the_current_slot() throws Exception {
+        RingDriver driver = new RingDriver("ticker secret");
+        SlotTicker ticker = new SlotTicker(driver.clock);
+        long first = 8_500_000_200L;
+        ticker.tick(first * SLOT, driver);
+        ticker.tick((first + 1_000) * SLOT, driver);
+        assertEquals(2, driver.fills);
+        assertEquals(999, ticker.skipped_slots());
+        assertTrue(driver.ring.contains(first + 1_000));
+        assertEquals(first + 1_200, driver.ring.end_slot());
+    }
+
+    @Test
+    public void works_before_the_epoch() {
+        SlotTicker ticker = new SlotTicker(new SlotClock());
+        ticker.tick(-401, recorder);
+        ticker.tick(-1, recorder);
+        assertArrayEquals(new long[] { -3, -2, -1 }, recorder.take());
+    }
+}
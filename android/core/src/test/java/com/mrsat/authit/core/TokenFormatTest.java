@@ -0,0 +1,110 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class TokenFormatTest {
+
+    private static final String SECRET = "token format secret";
+    private static final long AT = 1_700_000_000_000L;
+    private static final long SLOT = AT / SlotClock.DEFAULT_PERIOD_MS; // 0x1_FAA3_B500
+
+    @Test
+    public void lengths() {
+        assertEquals(17, TokenFormat.V2_LENGTH);
+        assertEquals(20, TokenFormat.MAX_LENGTH);
+    }
+
+    @Test
+    public void v1_is_the_hex_prefix() throws Exception {
+        RollingHashEngine engine = new RollingHashEngine(SECRET);
+        engine.roll(AT);
+        byte[] dst = new byte[TokenFormat.MAX_LENGTH];
+        assertEquals(20, TokenFormat.encode(TokenFormat.V1, engine, SLOT, dst));
+        assertArrayEquals(engine.current_hash().substring(0, 20).getBytes(StandardCharsets.US_ASCII), dst);
+    }
+
+    @Test
+    public void v2_is_version_slot_and_raw_hash() throws Exception {
+        RollingHashEngine engine = new RollingHashEngine(SECRET);
+        engine.roll(AT);
+        byte[] dst = new byte[TokenFormat.MAX_LENGTH];
+        assertEquals(17, TokenFormat.encode(TokenFormat.V2, engine, SLOT, dst));
+
+        byte[] expected = new byte[17];
+        expected[0] = 0x02;
+        // low 32 bits of 0x1_FAA3_B500
+        expected[1] = (byte) 0xfa;
+        expected[2] = (byte) 0xa3;
+        expected[3] = (byte) 0xb5;
+        expected[4] = 0x00;
+        byte[] hash = hex(engine.current_hash());
+        System.arraycopy(hash, 0, expected, 5, 12);
+        assertArrayEquals(expected, Arrays.copyOf(dst, 17));
+    }
+
+    @Test
+    public void slot_is_big_endian_low_32_bits() {
+        assert_slot(0, 0x00, 0x00, 0x00, 0x00);
+        assert_slot(1, 0x00, 0x00, 0x00, 0x01);
+        assert_slot(0x01020304L, 0x01, 0x02, 0x03, 0x04);
+        assert_slot(0xffff_ffffL, 0xff, 0xff, 0xff, 0xff);
+        assert_slot(0x1_0000_0000L, 0x00, 0x00, 0x00, 0x00); // rollover
+        assert_slot(0x1_0000_0001L, 0x00, 0x00, 0x00, 0x01);
+        assert_slot(-1, 0xff, 0xff, 0xff, 0xff);
+    }
+
+    @Test
+    public void v3_is_version_slot_and_hmac() throws Exception {
+        byte[] dst = new byte[TokenFormat.MAX_LENGTH];
+        assertEquals(17, TokenFormat.encode_v3(new SlotMac(SECRET), SLOT, dst));
+
+        Mac mac = Mac.getInstance("HmacSHA512");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+        byte[] full = mac.doFinal(new byte[] { 0, 0, 0, 0x01, (byte) 0xfa, (byte) 0xa3, (byte) 0xb5, 0x00 });
+        byte[] expected = new byte[17];
+        expected[0] = 0x03;
+        expected[1] = (byte) 0xfa;
+        expected[2] = (byte) 0xa3;
+        expected[3] = (byte) 0xb5;
+        expected[4] = 0x00;
+        System.arraycopy(full, 0, expected, 5, 12);
+        assertArrayEquals(expected, Arrays.copyOf(dst, 17));
+    }
+
+    @Test
+    public void versions() {
+        assertTrue(TokenFormat.is_supported(1));
+        assertTrue(TokenFormat.is_supported(2));
+        assertTrue(TokenFormat.is_supported(3));
+        assertFalse(TokenFormat.is_supported(0));
+        assertFalse(TokenFormat.is_supported(4));
+        assertTrue(TokenFormat.uses_chain(TokenFormat.V1));
+        assertTrue(TokenFormat.uses_chain(TokenFormat.V2));
+        assertFalse(TokenFormat.uses_chain(TokenFormat.V3));
+    }
+
+    private static void assert_slot(long slot, int b0, int b1, int b2, int b3) {
+        byte[] dst = new byte[6];
+        TokenFormat.write_slot(slot, dst, 1);
+        assertArrayEquals(new byte[] { 0, (byte) b0, (byte) b1, (byte) b2, (byte) b3, 0 }, dst);
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,143 @@
+package com.mrsat.authit.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenRingTest {
+
+    private static final long SLOT = SlotClock.DEFAULT_PERIOD_MS;
+    private static final long MINUTE = 8_500_000_200L; // first slot of a UTC minute
+
+    private static final class CountingSource implements TokenRing.Source {
+        int calls;
+
+        @Override
+        public int encode(long slot, long slot_start_millis, byte[] dst) {
+            assertEquals(slot * SLOT, slot_start_millis);
+            calls++;
+            return payload_of(slot, dst);
+        }
+    }
+
+    private final SlotClock clock = new SlotClock();
+    private final CountingSource source = new CountingSource();
+
+    // 1 to 4 bytes, so entries of different lengths share the ring
+    private static int payload_of(long slot, byte[] dst) {
+        int length = (int) Math.floorMod(slot, 4L) + 1;
+        for (int i = 0; i < length; i++) dst[i] = (byte) (slot >>> (8 * i));
+        return length;
+    }
+
+    private static void assert_holds(TokenRing ring, long slot) {
+        byte[] expected = new byte[4];
+        int expected_length = payload_of(slot, expected);
+        byte[] copied = new byte[4];
+        assertTrue(ring.contains(slot));
+        assertEquals(expected_length, ring.copy(slot, copied));
+        for (int i = 0; i < expected_length; i++) assertEquals(expected[i], copied[i]);
+    }
+
+    @Test
+    public void empty_ring_holds_nothing() {
+        TokenRing ring = new TokenRing(8, 4);
+        assertFalse(ring.contains(0));
+        assertEquals(-1, ring.copy(0, new byte[4]));
+    }
+
+    @Test
+    public void fill_holds_the_range_once() {
+        TokenRing ring = new TokenRing(8, 4);
+        assertEquals(5, ring.fill(100, 105, clock, source));
+        assertEquals(5, source.calls);
+        assertEquals(105, ring.end_slot());
+        for (long slot = 100; slot < 105; slot++) assert_holds(ring, slot);
+        assertFalse(ring.contains(99));
+        assertFalse(ring.contains(105));
+        assertEquals(-1, ring.copy(105, new byte[4]));
+    }
+
+    @Test
+    public void fill_is_cut_to_the_capacity() {
+        TokenRing ring = new TokenRing(4, 4);
+        assertEquals(4, ring.fill(100, 110, clock, source));
+        assertEquals(104, ring.end_slot());
+        assertFalse(ring.contains(104));
+        assertEquals(0, ring.fill(110, 100, clock, source));
+        assertFalse(ring.contains(110));
+    }
+
+    @Test
+    public void wraps_around_the_storage() {
+        TokenRing ring = new TokenRing(4, 4);
+        // 6..9 lands on indexes 2, 3, 0, 1
+        ring.fill(6, 10, clock, source);
+        for (long slot = 6; slot < 10; slot++) assert_holds(ring, slot);
+        // the next batch reuses the same entries
+        ring.fill(10, 14, clock, source);
+        for (long slot = 10; slot < 14; slot++) assert_holds(ring, slot);
+        for (long slot = 6; slot < 10; slot++) assertFalse(ring.contains(slot));
+    }
+
+    @Test
+    public void wraps_around_negative_slots() {
+        TokenRing ring = new TokenRing(3, 4);
+        ring.fill(-2, 1, clock, source);
+        for (long slot = -2; slot < 1; slot++) assert_holds(ring, slot);
+    }
+
+    @Test
+    public void fill_to_minute_end_stops_at_the_minute() {
+        TokenRing ring = new TokenRing(300, 4);
+        assertEquals(300, ring.fill_to_minute_end(MINUTE, clock, source));
+        assertEquals(MINUTE + 300, ring.end_slot());
+
+        assertEquals(5, ring.fill_to_minute_end(MINUTE + 295, clock, source));
+        assertEquals(MINUTE + 300, ring.end_slot());
+        assert_holds(ring, MINUTE + 299);
+        assertFalse(ring.contains(MINUTE + 294));
+
+        assertEquals(1, ring.fill_to_minute_end(MINUTE - 1, clock, source));
+        assertEquals(MINUTE, ring.end_slot());
+    }
+
+    @Test
+    public void clear_empties_the_ring() {
+        TokenRing ring = new TokenRing(4, 4);
+        ring.fill(0, 4, clock, source);
+        ring.clear();
+        for (long slot = 0; slot < 4; slot++) assertFalse(ring.contains(slot));
+        assertEquals(0, ring.end_slot());
+    }
+
+    @Test
+    public void ring_matches_one_roll_per_slot() throws Exception {
+        // filling ahead advances the chain exactly like a roll at each slot
+        RollingHashEngine filled = new RollingHashEngine("ring secret");
+        RollingHashEngine ticked = new RollingHashEngine("ring secret");
+        TokenRing ring = new TokenRing(300, TokenFormat.MAX_LENGTH);
+        TokenRing.Source chain = (slot, slot_start_millis, dst) -> {
+            filled.roll(slot_start_millis);
+            return TokenFormat.encode(TokenFormat.V2, filled, slot, dst);
+        };
+        long from = MINUTE + 250;
+        ring.fill_to_minute_end(from, clock, chain);
+        byte[] copied = new byte[TokenFormat.MAX_LENGTH];
+        byte[] expected = new byte[TokenFormat.MAX_LENGTH];
+        for (long slot = from; slot < MINUTE + 300; slot++) {
+            ticked.roll(clock.slot_start(slot));
+            assertEquals(TokenFormat.V2_LENGTH, ring.copy(slot, copied));
+            TokenFormat.encode(TokenFormat.V2, ticked, slot, expected);
+            assertArrayEquals(expected, copied);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_empty_capacity() {
+        new TokenRing(0, 4);
+    }
+}
@@ -0,0 +1,60 @@
+package com.mrsat.authit.verifier;
+
+/**
+ * One Auth-It advert as the verifier sees it: when it was heard (local wall clock), how loud,
+ * and the service data. Sources fill a caller-owned instance, nothing is allocated per advert.
+ */
+public final class Advertisement {
+
+    public static final int MAX_DATA_LENGTH = 255; // one length byte in the capture format
+
+    private final byte[] data = new byte[MAX_DATA_LENGTH];
+    private long time_millis;
+    private int rssi;
+    private int length;
+
+    public void set(long time_millis, int rssi, byte[] src, int offset, int length) {
+        check_length(length);
+        System.arraycopy(src, offset, data, 0, length);
+        set(time_millis, rssi, length);
+    }
+
+    /**
+     * Same, for a source that already wrote the service data into {@link #data()}.
+     */
+    public void set(long time_millis, int rssi, int length) {
+        check_length(length);
+        this.time_millis = time_millis;
+        this.rssi = rssi;
+        this.length = length;
+    }
+
+    public long time_millis() {
+        return time_millis;
+    }
+
+    public int rssi() {
+        return rssi;
+    }
+
+    /**
+     * Service data in the first {@link #length()} bytes. The array is reused by the next fill.
+     */
+    public byte[] data() {
+        return data;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public Advertisement copy() {
+        Advertisement copy = new Advertisement();
+        copy.set(time_millis, rssi, data, 0, length);
+        return copy;
+    }
+
+    private static void check_length(int length) {
+        if (length < 0 || length > MAX_DATA_LENGTH) throw new IllegalArgumentException("bad length " + length);
+    }
+}
@@ -0,0 +1,18 @@
+package com.mrsat.authit.verifier;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the verifier's adverts come from: a scanner ({@link LiveSource}), fake phones
+ * ({@link SyntheticSource}) or a capture file ({@link ReplaySource}). Adverts come out in the
+ * order they were heard.
+ */
+public interface AdvertisementSource extends Closeable {
+
+    /**
+     * Fills {@code into} with the next advert, false once the source is exhausted or closed.
+     * Live sources block until something is heard.
+     */
+    boolean next(Advertisement into) throws IOException;
+}
@@ -0,0 +1,43 @@
+package com.mrsat.authit.verifier;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The "AITC" capture file: an 8 byte header, then one record per advert, append-only.
+ *
+ * <pre>
+ * header  "AITC" | version (u8) | 3 zero bytes
+ * record  time (i64, epoch millis, local clock) | rssi (i8) | length (u8) | service data
+ * </pre>
+ *
+ * All big endian. A v1 token costs 30 bytes, an hour of a busy office (a few phones, several
+ * adverts per 200 ms slot each) is in the hundreds of megabytes. A writer that died mid-record
+ * leaves a torn last record, readers stop before it and {@link CaptureWriter} cuts it off.
+ * linux/tools/capture.py writes the same format from a real scanner.
+ */
+public final class CaptureFormat {
+
+    public static final byte[] MAGIC = "AITC".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 8;
+    public static final int RECORD_HEADER_LENGTH = 8 + 1 + 1;
+
+    private CaptureFormat() {
+    }
+
+    static void write_header(ByteBuffer dst) {
+        dst.put(MAGIC).put((byte) VERSION).put((byte) 0).put((byte) 0).put((byte) 0);
+    }
+
+    static void check_header(ByteBuffer src) throws IOException {
+        if (src.remaining() < HEADER_LENGTH) throw new IOException("not an AITC capture: too short");
+        for (byte b : MAGIC) {
+            if (src.get() != b) throw new IOException("not an AITC capture: bad magic");
+        }
+        int version = src.get() & 0xff;
+        if (version != VERSION) throw new IOException("unsupported AITC version " + version);
+        src.position(src.position() + 3);
+    }
+}
@@ -0,0 +1,86 @@
+package com.mrsat.authit.verifier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends adverts to a {@link CaptureFormat} file, creating it if needed. Records are buffered
+ * and written in blocks, call {@link #flush} to make them visible to a reader.
+ *
+ * An existing file is checked first and a torn record left by a crashed writer is cut off,
+ * otherwise everything appended after it would be read at the wrong offsets.
+ */
+public final class CaptureWriter implements Closeable {
+
+    private static final int BUFFER_LENGTH = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+    private long records = 0;
+
+    public CaptureWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                CaptureFormat.write_header(buffer);
+            } else {
+                long end;
+                try (ReplaySource existing = new ReplaySource(path)) {
+                    Advertisement skip = new Advertisement();
+                    while (existing.next(skip)) { }
+                    end = existing.valid_length();
+                }
+                channel.truncate(end);
+            }
+            channel.position(channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void append(Advertisement advert) throws IOException {
+        append(advert.time_millis(), advert.rssi(), advert.data(), 0, advert.length());
+    }
+
+    public void append(long time_millis, int rssi, byte[] data, int offset, int length) throws IOException {
+        if (length < 0 || length > Advertisement.MAX_DATA_LENGTH) {
+            throw new IllegalArgumentException("bad length " + length);
+        }
+        if (buffer.remaining() < CaptureFormat.RECORD_HEADER_LENGTH + length) drain();
+        buffer.putLong(time_millis)
+                .put((byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi)))
+                .put((byte) length)
+                .put(data, offset, length);
+        records++;
+    }
+
+    public long records() {
+        return records;
+    }
+
+    public void flush() throws IOException {
+        drain();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
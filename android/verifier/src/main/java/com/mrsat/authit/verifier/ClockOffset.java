@@ -0,0 +1,97 @@
+package com.mrsat.authit.verifier;
+
+import com.mrsat.authit.core.SlotClock;
+
+/**
+ * Phone clock minus local clock, same estimate as ClockOffset in linux/main.py but in millis.
+ * Every accepted token tells which minute (v1) or slot (v2, v3) the phone was in, each match
+ * clamps the estimate into it. Keep one instance across verifiers to carry it between runs,
+ * together with the last v3 slot accepted.
+ */
+public final class ClockOffset {
+
+    public static final long ROLL_INTERVAL_MILLIS = SlotClock.DEFAULT_PERIOD_MS;
+    public static final long SKEW_TOLERANCE_MILLIS = 1_000; // residual skew tolerated after the correction
+    public static final int KEYED_WINDOW_SLOTS = 8; // v3 slots further than this from the phone clock are refused
+    public static final long KEYED_MAX_STEP_MILLIS = 2 * ROLL_INTERVAL_MILLIS; // per v3 match
+    public static final long NO_SLOT = Long.MIN_VALUE;
+    static final long MILLIS_PER_MINUTE = 60_000L;
+
+    private long offset_millis;
+    private long last_keyed_slot = -1;
+
+    public ClockOffset(long offset_millis) {
+        this.offset_millis = offset_millis;
+    }
+
+    public ClockOffset() {
+        this(0);
+    }
+
+    public long offset_millis() {
+        return offset_millis;
+    }
+
+    /**
+     * Last v3 slot accepted, nothing at or before it may pass again.
+     */
+    public long last_keyed_slot() {
+        return last_keyed_slot;
+    }
+
+    /**
+     * Epoch minutes the phone clock may be in for the next {@code size} rolls, two of them near
+     * a minute boundary.
+     */
+    public long[] candidate_minutes(long now_millis, int size) {
+        long phone_now = now_millis + offset_millis;
+        long minute = Math.floorDiv(phone_now, MILLIS_PER_MINUTE);
+        long into_minute = phone_now - minute * MILLIS_PER_MINUTE;
+        long margin = size * ROLL_INTERVAL_MILLIS + SKEW_TOLERANCE_MILLIS;
+        if (into_minute < margin) return new long[] { minute - 1, minute };
+        if (into_minute > MILLIS_PER_MINUTE - margin) return new long[] { minute, minute + 1 };
+        return new long[] { minute };
+    }
+
+    public boolean near_rollover(long now_millis, int size) {
+        return candidate_minutes(now_millis, size).length > 1;
+    }
+
+    public void observe_minute(long stamped_minute, long now_millis) {
+        long low = stamped_minute * MILLIS_PER_MINUTE - now_millis;
+        offset_millis = Math.min(Math.max(offset_millis, low), low + MILLIS_PER_MINUTE);
+    }
+
+    public void observe_slot(long slot, long now_millis) {
+        // a slot is only sent once it started, it can linger on air a little after it ended
+        long low = slot * ROLL_INTERVAL_MILLIS - now_millis;
+        offset_millis = Math.min(Math.max(offset_millis, low), low + ROLL_INTERVAL_MILLIS + SKEW_TOLERANCE_MILLIS);
+    }
+
+    /**
+     * An accepted v3 slot, the estimate moves by at most KEYED_MAX_STEP_MILLIS per match.
+     */
+    public void observe_keyed(long slot, long now_millis) {
+        long before = offset_millis;
+        observe_slot(slot, now_millis);
+        offset_millis = Math.min(Math.max(offset_millis, before - KEYED_MAX_STEP_MILLIS), before + KEYED_MAX_STEP_MILLIS);
+        last_keyed_slot = slot;
+    }
+
+    /**
+     * Full slot number for a 32-bit counter, the one closest to the phone's current time.
+     */
+    public long unwrap_slot(long counter, long now_millis) {
+        long base = Math.floorDiv(now_millis + offset_millis, ROLL_INTERVAL_MILLIS);
+        return base + Math.floorMod(counter - base + (1L << 31), 1L << 32) - (1L << 31);
+    }
+
+    /**
+     * Slot of a v3 counter if it is within KEYED_WINDOW_SLOTS of the phone's clock, else NO_SLOT.
+     */
+    public long keyed_slot(long counter, long now_millis) {
+        long slot = unwrap_slot(counter, now_millis);
+        long phone_slot = Math.floorDiv(now_millis + offset_millis, ROLL_INTERVAL_MILLIS);
+        return Math.abs(slot - phone_slot) > KEYED_WINDOW_SLOTS ? NO_SLOT : slot;
+    }
+}
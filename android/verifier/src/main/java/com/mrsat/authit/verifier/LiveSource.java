@@ -0,0 +1,124 @@
+package com.mrsat.authit.verifier;
+
+import com.mrsat.authit.core.DutyCycle;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adverts pushed by a scanner callback, handed to the verifier thread through a bounded queue.
+ * The callback never blocks: when the verifier falls behind new adverts are dropped and counted,
+ * the phone sends every token several times anyway.
+ *
+ * A scanner that reports raw records (every advert in range, not only ours) goes through
+ * {@link #offer_scan_record}, which filters and dedupes them with a {@link RawAdvertFilter} so
+ * only new Auth-It payloads are copied and queued.
+ */
+public final class LiveSource implements AdvertisementSource {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final long POLL_MILLIS = 100; // how fast next() notices close()
+
+    private final ArrayBlockingQueue<Advertisement> queue;
+    private final DutyCycle.Clock clock;
+    private final AtomicLong dropped = new AtomicLong();
+    private final RawAdvertFilter filter = new RawAdvertFilter();
+    private long filtered = 0; // guarded by filter
+    private long duplicates = 0; // guarded by filter
+    private volatile boolean closed = false;
+
+    public LiveSource(int capacity, DutyCycle.Clock clock) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.clock = clock;
+    }
+
+    public LiveSource() {
+        this(DEFAULT_CAPACITY, DutyCycle.Clock.SYSTEM);
+    }
+
+    /**
+     * Called from the scan callback with the Auth-It service data, stamped with the current time.
+     * Returns false if the advert was dropped.
+     */
+    public boolean offer(int rssi, byte[] data, int offset, int length) {
+        if (closed) return false;
+        Advertisement advert = new Advertisement();
+        advert.set(clock.now_millis(), rssi, data, offset, length);
+        if (queue.offer(advert)) return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Called from the scan callback with a whole advertising payload, ours or not. Returns false
+     * if it wasn't an Auth-It advert, was a repeat, or was dropped.
+     */
+    public boolean offer_scan_record(int rssi, byte[] record, int offset, int length) {
+        if (closed) return false;
+        int data_offset;
+        int data_length;
+        synchronized (filter) {
+            if (!filter.find(record, offset, length)) {
+                filtered++;
+                return false;
+            }
+            data_offset = filter.data_offset();
+            data_length = filter.data_length();
+            if (filter.repeated(record, data_offset, data_length)) {
+                duplicates++;
+                return false;
+            }
+        }
+        return offer(rssi, record, data_offset, data_length);
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Records {@link #offer_scan_record} turned away as not Auth-It.
+     */
+    public long filtered() {
+        synchronized (filter) {
+            return filtered;
+        }
+    }
+
+    /**
+     * Auth-It payloads {@link #offer_scan_record} turned away as repeats.
+     */
+    public long duplicates() {
+        synchronized (filter) {
+            return duplicates;
+        }
+    }
+
+    @Override
+    public boolean next(Advertisement into) throws IOException {
+        try {
+            while (true) {
+                Advertisement advert = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (advert != null) {
+                    into.set(advert.time_millis(), advert.rssi(), advert.data(), 0, advert.length());
+                    return true;
+                }
+                if (closed) return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for an advert");
+        }
+    }
+
+    /**
+     * Stops accepting adverts, next() returns false once the queue is drained.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,89 @@
+package com.mrsat.authit.verifier;
+
+/**
+ * Finds the Auth-It service data in a raw advertising payload (the AD structures of an advert or
+ * scan response, as Android's ScanRecord.getBytes() or an HCI report hands them) without parsing
+ * the rest or allocating: a walk over the length bytes and a compare of the type and UUID bytes.
+ * Everything that isn't ours is turned away here, before it is copied or queued.
+ *
+ * Repeats of the same payload are dropped too: the last RECENT_PAYLOADS hashes are kept in a ring.
+ *
+ * Not thread-safe.
+ */
+public final class RawAdvertFilter {
+
+    public static final int AD_SERVICE_DATA_16 = 0x16; // length | 0x16 | uuid lo | uuid hi | data
+    public static final int AUTH_SERVICE_UUID = 0xfff0; // same as linux/main.py
+    static final int RECENT_PAYLOADS = 256; // same as linux/ingest.py
+
+    private final byte uuid_lo;
+    private final byte uuid_hi;
+    private final long[] recent = new long[RECENT_PAYLOADS];
+    private int recent_next = 0;
+    private int recent_count = 0;
+    private int data_offset;
+    private int data_length;
+
+    public RawAdvertFilter(int service_uuid16) {
+        this.uuid_lo = (byte) service_uuid16;
+        this.uuid_hi = (byte) (service_uuid16 >>> 8);
+    }
+
+    public RawAdvertFilter() {
+        this(AUTH_SERVICE_UUID);
+    }
+
+    /**
+     * True if the record carries service data for our UUID, which is then at
+     * {@link #data_offset()} / {@link #data_length()}. Stops at a zero length byte (padding) or a
+     * structure running past the end.
+     */
+    public boolean find(byte[] record, int offset, int length) {
+        int at = offset;
+        int end = offset + length;
+        while (at < end) {
+            int field = record[at] & 0xff;
+            if (field == 0 || at + 1 + field > end) return false;
+            if (field >= 3 && (record[at + 1] & 0xff) == AD_SERVICE_DATA_16
+                    && record[at + 2] == uuid_lo && record[at + 3] == uuid_hi) {
+                data_offset = at + 4;
+                data_length = field - 3;
+                return true;
+            }
+            at += 1 + field;
+        }
+        return false;
+    }
+
+    public int data_offset() {
+        return data_offset;
+    }
+
+    public int data_length() {
+        return data_length;
+    }
+
+    /**
+     * True if the payload was among the last RECENT_PAYLOADS, otherwise remembers it.
+     */
+    public boolean repeated(byte[] data, int offset, int length) {
+        long hash = hash(data, offset, length);
+        for (int i = 0; i < recent_count; i++) {
+            if (recent[i] == hash) return true;
+        }
+        recent[recent_next] = hash;
+        recent_next = (recent_next + 1) % RECENT_PAYLOADS;
+        if (recent_count < RECENT_PAYLOADS) recent_count++;
+        return false;
+    }
+
+    // 64-bit FNV-1a, a collision would drop one advert and the phone sends it again
+    private static long hash(byte[] data, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= data[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h ^ length;
+    }
+}
@@ -0,0 +1,97 @@
+package com.mrsat.authit.verifier;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a {@link CaptureFormat} file through a read-only memory map, as fast as the caller
+ * consumes it; timestamps are handed out as recorded, not waited for.
+ *
+ * A mapping can't exceed 2 GB, so the file is mapped in windows of MAP_WINDOW bytes and the next
+ * one is mapped where a record would cross the end of the current one.
+ */
+public final class ReplaySource implements AdvertisementSource {
+
+    static final long MAP_WINDOW = 1L << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long window_start;
+    private long position = CaptureFormat.HEADER_LENGTH;
+    private long records = 0;
+    private boolean truncated = false;
+
+    public ReplaySource(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            map(0, CaptureFormat.HEADER_LENGTH);
+            CaptureFormat.check_header(window);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean next(Advertisement into) throws IOException {
+        if (!ensure(CaptureFormat.RECORD_HEADER_LENGTH)) return false;
+        int at = (int) (position - window_start);
+        long time_millis = window.getLong(at);
+        int rssi = window.get(at + 8);
+        int length = window.get(at + 9) & 0xff;
+        if (!ensure(CaptureFormat.RECORD_HEADER_LENGTH + length)) return false;
+        at = (int) (position - window_start);
+        window.position(at + CaptureFormat.RECORD_HEADER_LENGTH);
+        window.get(into.data(), 0, length);
+        into.set(time_millis, rssi, length);
+        position += CaptureFormat.RECORD_HEADER_LENGTH + length;
+        records++;
+        return true;
+    }
+
+    public long records() {
+        return records;
+    }
+
+    /**
+     * End of the last complete record read so far, where an appending writer has to continue.
+     */
+    public long valid_length() {
+        return position;
+    }
+
+    /**
+     * True once the end was reached in the middle of a record.
+     */
+    public boolean truncated() {
+        return truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    // makes the next n bytes readable from the window, false at the end of the file
+    private boolean ensure(int n) throws IOException {
+        if (size - position < n) {
+            truncated = position != size;
+            return false;
+        }
+        if (position + n > window_start + window.capacity()) map(position, n);
+        return true;
+    }
+
+    private void map(long from, int at_least) throws IOException {
+        window_start = from;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(Math.max(MAP_WINDOW, at_least), size - from));
+        window.order(ByteOrder.BIG_ENDIAN);
+    }
+}
@@ -0,0 +1,129 @@
+package com.mrsat.authit.verifier;
+
+import com.mrsat.authit.core.DutyCycle;
+import com.mrsat.authit.core.Metrics;
+import com.mrsat.authit.core.RollingHashEngine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line front end of the verifier library.
+ *
+ * <pre>
+ * replay CAPTURE HASH [attempt_every_s]   feed a capture to a verifier for HASH at full CPU speed
+ * synth CAPTURE MINUTES PHONES FORMAT [seed]   append fake office traffic to CAPTURE
+ * </pre>
+ *
+ * replay runs authentications like linux/main.py would, one every {@code attempt_every_s} seconds
+ * of capture time with a fresh verifier and a clock offset kept across them, each giving up after
+ * SCAN_TIMEOUT_MILLIS. It reports time to auth from the capture timestamps and match throughput
+ * from the CPU time spent.
+ */
+public final class ReplayTool {
+
+    static final long SCAN_TIMEOUT_MILLIS = 10_000; // same as linux/main.py
+    static final long DEFAULT_ATTEMPT_EVERY_MILLIS = 5_000;
+    static final int SYNTH_REPEATS = 4;
+
+    private ReplayTool() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && args[0].equals("replay")) {
+            long every = args.length > 3 ? (long) (Double.parseDouble(args[3]) * 1000) : DEFAULT_ATTEMPT_EVERY_MILLIS;
+            System.out.print(replay(Paths.get(args[1]), args[2], every));
+        } else if (args.length >= 5 && args[0].equals("synth")) {
+            long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+            synth(Paths.get(args[1]), Long.parseLong(args[2]) * 60_000, Integer.parseInt(args[3]),
+                    Integer.parseInt(args[4]), seed);
+        } else {
+            System.err.println("usage: replay CAPTURE HASH [attempt_every_s]");
+            System.err.println("       synth CAPTURE MINUTES PHONES FORMAT [seed]");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Secret of synthetic phone {@code i}, phone 0 is the one to verify.
+     */
+    public static String synthetic_secret(int i) throws NoSuchAlgorithmException {
+        return RollingHashEngine.sha512_hex("synthetic-" + i);
+    }
+
+    static void synth(Path capture, long duration_millis, int phones, int format, long seed)
+            throws IOException, NoSuchAlgorithmException {
+        String[] secrets = new String[phones];
+        for (int i = 0; i < phones; i++) secrets[i] = synthetic_secret(i);
+        Advertisement advert = new Advertisement();
+        try (SyntheticSource source = new SyntheticSource(secrets, format, System.currentTimeMillis(),
+                duration_millis, SYNTH_REPEATS, seed);
+             CaptureWriter writer = new CaptureWriter(capture)) {
+            while (source.next(advert)) writer.append(advert);
+            System.out.println(writer.records() + " adverts appended to " + capture);
+        }
+        System.out.println("phone 0 hash: " + secrets[0]);
+    }
+
+    static String replay(Path capture, String password_hash, long attempt_every_millis)
+            throws IOException, NoSuchAlgorithmException {
+        Metrics metrics = new Metrics(DutyCycle.Clock.SYSTEM);
+        Metrics.Histogram time_to_auth = metrics.histogram("time_to_auth_ms", Metrics.MILLIS);
+        Metrics.Counter adverts = metrics.counter("adverts");
+        Metrics.Counter fed = metrics.counter("adverts_verified");
+        Metrics.Counter matches = metrics.counter("auth_ok");
+        Metrics.Counter timeouts = metrics.counter("auth_timeout");
+        Map<TokenVerifier.Reject, Metrics.Counter> rejects = new EnumMap<>(TokenVerifier.Reject.class);
+        for (TokenVerifier.Reject reason : TokenVerifier.Reject.values()) {
+            rejects.put(reason, metrics.counter("reject_" + reason.name().toLowerCase(Locale.US)));
+        }
+
+        ClockOffset offset = new ClockOffset();
+        TokenVerifier verifier = null;
+        long attempt_start = 0;
+        long next_start = Long.MIN_VALUE;
+        Advertisement advert = new Advertisement();
+        boolean truncated;
+        long start_nanos = System.nanoTime();
+        try (ReplaySource source = new ReplaySource(capture)) {
+            while (source.next(advert)) {
+                adverts.inc();
+                long now = advert.time_millis();
+                if (verifier == null) {
+                    if (now < next_start) continue;
+                    verifier = new TokenVerifier(password_hash, TokenVerifier.LOOKAHEAD_WINDOW, offset);
+                    attempt_start = next_start == Long.MIN_VALUE ? now : next_start;
+                } else if (now - attempt_start > SCAN_TIMEOUT_MILLIS) {
+                    timeouts.inc();
+                    verifier = null;
+                    next_start = attempt_start + SCAN_TIMEOUT_MILLIS + attempt_every_millis;
+                    continue;
+                }
+                fed.inc();
+                if (verifier.feed(advert)) {
+                    matches.inc();
+                    time_to_auth.record(now - attempt_start);
+                    verifier = null;
+                    next_start = now + attempt_every_millis;
+                } else {
+                    rejects.get(verifier.reject_reason()).inc();
+                }
+            }
+            truncated = source.truncated();
+        }
+        long elapsed_nanos = System.nanoTime() - start_nanos;
+
+        StringBuilder sb = new StringBuilder(metrics.report());
+        sb.append(String.format(Locale.US, "%nreplayed %d adverts in %.1f ms: %.0f adverts/s, %.0f ns per advert%n",
+                adverts.get(), elapsed_nanos / 1e6, adverts.get() / Math.max(1e-9, elapsed_nanos / 1e9),
+                (double) elapsed_nanos / Math.max(1, adverts.get())));
+        sb.append(String.format(Locale.US, "clock offset %d ms%n", offset.offset_millis()));
+        if (truncated) sb.append("capture ends with a torn record, ignored\n");
+        return sb.toString();
+    }
+}
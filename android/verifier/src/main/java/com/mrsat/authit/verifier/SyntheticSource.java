@@ -0,0 +1,106 @@
+package com.mrsat.authit.verifier;
+
+import com.mrsat.authit.core.RollingHashEngine;
+import com.mrsat.authit.core.SlotMac;
+import com.mrsat.authit.core.TokenFormat;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Fake phones broadcasting real tokens on a virtual clock, no radio and no waiting.
+ *
+ * Every phone rolls once per 200 ms slot of its own clock (off from the verifier's by up to
+ * MAX_SKEW_MILLIS) and is heard {@code repeats} times per slot, like a phone advertising at low
+ * latency. Phones are heard in a fixed order within each repeat; their RSSI wobbles around a
+ * per-phone level, phone 0 is the user's at the desk and the others are spread over the office. Everything comes from {@code seed}, the same arguments give the same stream.
+ */
+public final class SyntheticSource implements AdvertisementSource {
+
+    public static final long MAX_SKEW_MILLIS = 2_000;
+    private static final int NEAR_RSSI = -55;
+    private static final int RSSI_JITTER = 4;
+
+    private final long end_millis;
+    private final int format;
+    private final long step_millis;
+    private final RollingHashEngine[] engines;
+    private final SlotMac[] macs;
+    private final long[] skew_millis;
+    private final int[] rssi_levels;
+    private final long[] slots;
+    private final byte[][] payloads;
+    private final int[] lengths;
+    private final Random random;
+    private long now_millis;
+    private int phone = 0;
+    private boolean closed = false;
+
+    /**
+     * @param secrets one stored password hash per phone
+     * @param format TokenFormat.V1, V2 or V3, for every phone
+     */
+    public SyntheticSource(String[] secrets, int format, long start_millis, long duration_millis, int repeats, long seed)
+            throws NoSuchAlgorithmException {
+        if (!TokenFormat.is_supported(format)) throw new IllegalArgumentException("unknown format " + format);
+        if (repeats < 1) throw new IllegalArgumentException("repeats must be >= 1");
+        int n = secrets.length;
+        this.end_millis = start_millis + duration_millis;
+        this.format = format;
+        this.step_millis = Math.max(1, ClockOffset.ROLL_INTERVAL_MILLIS / repeats);
+        this.engines = new RollingHashEngine[n];
+        this.macs = new SlotMac[n];
+        this.skew_millis = new long[n];
+        this.rssi_levels = new int[n];
+        this.slots = new long[n];
+        this.payloads = new byte[n][TokenFormat.MAX_LENGTH];
+        this.lengths = new int[n];
+        this.random = new Random(seed);
+        this.now_millis = start_millis;
+        for (int i = 0; i < n; i++) {
+            if (TokenFormat.uses_chain(format)) engines[i] = new RollingHashEngine(secrets[i]);
+            else macs[i] = new SlotMac(secrets[i]);
+            skew_millis[i] = (long) ((random.nextDouble() * 2 - 1) * MAX_SKEW_MILLIS);
+            rssi_levels[i] = i == 0 ? NEAR_RSSI : -95 + random.nextInt(45);
+            slots[i] = Long.MIN_VALUE;
+        }
+    }
+
+    @Override
+    public boolean next(Advertisement into) {
+        if (closed || engines.length == 0) return false;
+        if (phone == engines.length) {
+            phone = 0;
+            now_millis += step_millis;
+        }
+        if (now_millis >= end_millis) return false;
+        int i = phone++;
+        long phone_now = now_millis + skew_millis[i];
+        long slot = Math.floorDiv(phone_now, ClockOffset.ROLL_INTERVAL_MILLIS);
+        if (slot != slots[i]) {
+            encode(i, slot);
+        }
+        int rssi = rssi_levels[i] + random.nextInt(2 * RSSI_JITTER + 1) - RSSI_JITTER;
+        into.set(now_millis, rssi, payloads[i], 0, lengths[i]);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // the phone rolls once per slot, on every slot since the last one it encoded
+    private void encode(int i, long slot) {
+        if (macs[i] != null) {
+            lengths[i] = TokenFormat.encode_v3(macs[i], slot, payloads[i]);
+        } else {
+            long from = slots[i] == Long.MIN_VALUE ? slot : slots[i] + 1;
+            for (long s = from; s <= slot; s++) {
+                engines[i].roll(s * ClockOffset.ROLL_INTERVAL_MILLIS);
+            }
+            lengths[i] = TokenFormat.encode(format, engines[i], slot, payloads[i]);
+        }
+        slots[i] = slot;
+    }
+}
@@ -0,0 +1,221 @@
+package com.mrsat.authit.verifier;
+
+import com.mrsat.authit.core.RollingHashEngine;
+import com.mrsat.authit.core.TokenFormat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Matching state for one secret, the JVM twin of the verifiers in linux/: the tokens expected
+ * after the ones seen, with the same windows, clock offset and refusal reasons.
+ *
+ * Unknown tokens are anchored like main.py and authitd do it: every one opens a window of its own
+ * (bounded by MAX_WINDOWS and WINDOW_TTL_MILLIS), so other phones in range can't push ours out
+ * between two of its adverts. A match in range drops the other windows, one out of range only
+ * opens its own.
+ * A v1 payload has to be exactly the 20 hex characters the phone sends.
+ *
+ * Not thread-safe, feed it from one thread.
+ */
+public final class TokenVerifier {
+
+    public static final int RSSI_THRESHOLD = -87; // same as linux/main.py
+    public static final int LOOKAHEAD_WINDOW = 5;
+    public static final int MAX_WINDOWS = 64; // same bound as linux/main.py
+    public static final long WINDOW_TTL_MILLIS = LOOKAHEAD_WINDOW * ClockOffset.ROLL_INTERVAL_MILLIS
+            + ClockOffset.SKEW_TOLERANCE_MILLIS + 1_000;
+    static final int RECENT_TOKENS = 256;
+
+    public enum Reject {
+        RSSI, // token fine, phone too far
+        REPEAT, // same advert again
+        UNANCHORED, // nothing to compare with yet, the token only anchors the window
+        STALE, // not in the expected window / v3 slot already used
+        ROLLOVER, // not in the window while the phone clock is near a minute boundary
+        MAC, // v3 MAC wrong or slot too far from the phone clock
+        DECODE // not a token at all
+    }
+
+    private static final class Expected {
+        final long stamped; // minute for v1, slot for v2
+        final long expires_millis;
+
+        Expected(long stamped, long expires_millis) {
+            this.stamped = stamped;
+            this.expires_millis = expires_millis;
+        }
+    }
+
+    private static final class Window {
+        final long expires_millis;
+        final String[] keys;
+
+        Window(long expires_millis, String[] keys) {
+            this.expires_millis = expires_millis;
+            this.keys = keys;
+        }
+    }
+
+    private final int lookahead;
+    private final int rssi_threshold;
+    private final ClockOffset clock_offset;
+    private final TokenWindows windows;
+    private final byte[] key_hex = new byte[TokenWindows.KEY_HEX_LENGTH];
+    private final Map<String, Expected> expected = new HashMap<>();
+    private final ArrayDeque<Window> anchored = new ArrayDeque<>(); // in expiry order
+    private final Map<String, Long> scratch = new HashMap<>();
+    private final Map<String, Boolean> recent = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_TOKENS;
+        }
+    };
+    private Reject reject = null;
+
+    public TokenVerifier(String password_hash, int lookahead, int rssi_threshold, ClockOffset clock_offset)
+            throws NoSuchAlgorithmException {
+        this.lookahead = lookahead;
+        this.rssi_threshold = rssi_threshold;
+        this.clock_offset = clock_offset;
+        this.windows = new TokenWindows(password_hash);
+    }
+
+    public TokenVerifier(String password_hash, int lookahead, ClockOffset clock_offset)
+            throws NoSuchAlgorithmException {
+        this(password_hash, lookahead, RSSI_THRESHOLD, clock_offset);
+    }
+
+    public TokenVerifier(String password_hash) throws NoSuchAlgorithmException {
+        this(password_hash, LOOKAHEAD_WINDOW, new ClockOffset());
+    }
+
+    public boolean feed(Advertisement advert) {
+        return feed(advert.data(), advert.length(), advert.rssi(), advert.time_millis());
+    }
+
+    /**
+     * True when the service data is one of the expected tokens and close enough. After a false,
+     * {@link #reject_reason} says why.
+     */
+    public boolean feed(byte[] data, int length, int rssi, long now_millis) {
+        reject = null;
+        boolean binary = length == TokenFormat.V2_LENGTH
+                && (data[0] == TokenFormat.V2_VERSION_BYTE || data[0] == TokenFormat.V3_VERSION_BYTE);
+        String key;
+        long counter = 0;
+        if (binary) {
+            counter = ((data[1] & 0xffL) << 24) | ((data[2] & 0xff) << 16) | ((data[3] & 0xff) << 8) | (data[4] & 0xff);
+            TokenWindows.to_hex(data, 1 + TokenFormat.SLOT_LENGTH, TokenFormat.V2_MAC_LENGTH, key_hex);
+            key = new String(key_hex, StandardCharsets.US_ASCII);
+        } else {
+            key = new String(data, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        if (recent.containsKey(key)) {
+            reject = Reject.REPEAT;
+            return false;
+        }
+        if (!binary && !is_v1_token(data, length)) {
+            reject = Reject.DECODE;
+            return false;
+        }
+        recent.put(key, Boolean.TRUE);
+
+        if (binary && data[0] == TokenFormat.V3_VERSION_BYTE) {
+            // stands on its own, no window: one MAC per advert and the first one seen can pass
+            if (rssi < rssi_threshold) {
+                reject = Reject.RSSI;
+                return false;
+            }
+            long slot = clock_offset.keyed_slot(counter, now_millis);
+            if (slot == ClockOffset.NO_SLOT || !windows.keyed_matches(slot, data, 1 + TokenFormat.SLOT_LENGTH)) {
+                reject = Reject.MAC;
+                return false;
+            }
+            if (slot <= clock_offset.last_keyed_slot()) {
+                reject = Reject.STALE;
+                return false;
+            }
+            clock_offset.observe_keyed(slot, now_millis);
+            return true;
+        }
+
+        Expected hit = expected.get(key);
+        if (hit == null || hit.expires_millis <= now_millis) {
+            if (anchored.isEmpty()) reject = Reject.UNANCHORED;
+            else if (clock_offset.near_rollover(now_millis, lookahead)) reject = Reject.ROLLOVER;
+            else reject = Reject.STALE;
+            // can be any phone's, give it a window of its own
+            anchor(binary, data, counter, now_millis, false);
+            return false;
+        }
+        if (rssi < rssi_threshold) {
+            reject = Reject.RSSI;
+            // our chain but too far, follow it without dropping the other windows
+            anchor(binary, data, counter, now_millis, false);
+            return false;
+        }
+        if (binary) clock_offset.observe_slot(hit.stamped, now_millis);
+        else clock_offset.observe_minute(hit.stamped, now_millis);
+        // our phone moved on, the other windows are stale
+        anchor(binary, data, counter, now_millis, true);
+        return true;
+    }
+
+    public Reject reject_reason() {
+        return reject;
+    }
+
+    public ClockOffset clock_offset() {
+        return clock_offset;
+    }
+
+    /**
+     * Windows currently open, at most MAX_WINDOWS.
+     */
+    public int anchored_windows() {
+        return anchored.size();
+    }
+
+    private void anchor(boolean binary, byte[] data, long counter, long now_millis, boolean replace) {
+        if (replace) {
+            while (!anchored.isEmpty()) drop(anchored.pollFirst());
+        }
+        while (!anchored.isEmpty()
+                && (anchored.peekFirst().expires_millis <= now_millis || anchored.size() >= MAX_WINDOWS)) {
+            drop(anchored.pollFirst());
+        }
+        scratch.clear();
+        if (binary) {
+            windows.slot_window(key_hex, clock_offset.unwrap_slot(counter, now_millis), lookahead, scratch);
+        } else {
+            windows.chain_window(data, 0, clock_offset.candidate_minutes(now_millis, lookahead), lookahead, scratch);
+        }
+        long expires_millis = now_millis + WINDOW_TTL_MILLIS;
+        for (Map.Entry<String, Long> e : scratch.entrySet()) {
+            expected.put(e.getKey(), new Expected(e.getValue(), expires_millis));
+        }
+        anchored.addLast(new Window(expires_millis, scratch.keySet().toArray(new String[0])));
+    }
+
+    private void drop(Window window) {
+        for (String key : window.keys) {
+            Expected e = expected.get(key);
+            // a later window may have put the same key back
+            if (e != null && e.expires_millis == window.expires_millis) expected.remove(key);
+        }
+    }
+
+    private static boolean is_v1_token(byte[] data, int length) {
+        if (length != RollingHashEngine.PREFIX_LENGTH) return false;
+        for (int i = 0; i < length; i++) {
+            byte b = data[i];
+            if ((b < '0' || b > '9') && (b < 'a' || b > 'f')) return false;
+        }
+        return true;
+    }
+}
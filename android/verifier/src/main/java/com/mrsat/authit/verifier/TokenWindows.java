@@ -0,0 +1,96 @@
+package com.mrsat.authit.verifier;
+
+import com.mrsat.authit.core.RollingHashEngine;
+import com.mrsat.authit.core.SlotMac;
+import com.mrsat.authit.core.TokenFormat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * The tokens a phone can send next, computed with the same {@link RollingHashEngine} and
+ * {@link SlotMac} the phone uses. Keys are the token_window / slot_window keys of linux/main.py:
+ * the 20 advertised hex characters for v1, the hex of the 12 MAC bytes for v2.
+ *
+ * Not thread-safe, one instance per verifier.
+ */
+final class TokenWindows {
+
+    static final int KEY_HEX_LENGTH = TokenFormat.V2_MAC_LENGTH * 2;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final RollingHashEngine engine;
+    private final SlotMac mac;
+    private final byte[] head = new byte[RollingHashEngine.PREFIX_LENGTH];
+    private final byte[] key = new byte[KEY_HEX_LENGTH];
+
+    TokenWindows(String password_hash) throws NoSuchAlgorithmException {
+        this.engine = new RollingHashEngine(password_hash);
+        this.mac = new SlotMac(password_hash);
+    }
+
+    /**
+     * v1: the tokens of the {@code size} rolls after {@code token} for every candidate minute,
+     * mapped to their minute, including chains that roll over from one minute to the next.
+     */
+    void chain_window(byte[] token, int offset, long[] minutes, int size, Map<String, Long> into) {
+        for (int i = 0; i < minutes.length; i++) {
+            long minute_millis = minutes[i] * ClockOffset.MILLIS_PER_MINUTE;
+            engine.seek(token, offset);
+            for (int n = 0; n < size; n++) {
+                engine.roll(minute_millis);
+                into.putIfAbsent(engine.prefix(), minutes[i]);
+            }
+            if (i == 0) continue;
+            // rolled over after `change` tokens, the head is shared with the previous minute's chain
+            long previous_millis = minutes[i - 1] * ClockOffset.MILLIS_PER_MINUTE;
+            System.arraycopy(token, offset, head, 0, head.length);
+            for (int change = 1; change < size; change++) {
+                engine.seek(head, 0);
+                engine.roll(previous_millis);
+                engine.copy_prefix(head, 0);
+                for (int n = change; n < size; n++) {
+                    engine.roll(minute_millis);
+                    into.putIfAbsent(engine.prefix(), minutes[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * v2: the keys of the {@code size} slots after {@code slot}, mapped to their slot. The counter
+     * gives the minute of every step, no rollover guessing.
+     */
+    void slot_window(byte[] key_hex, long slot, int size, Map<String, Long> into) {
+        engine.seek(key_hex, 0);
+        for (int step = 1; step <= size; step++) {
+            engine.roll((slot + step) * ClockOffset.ROLL_INTERVAL_MILLIS);
+            into.putIfAbsent(hex(engine.raw_hash(), TokenFormat.V2_MAC_LENGTH), slot + step);
+        }
+    }
+
+    /**
+     * v3: true when the 12 bytes at {@code offset} are the MAC of {@code slot}, compared in
+     * constant time.
+     */
+    boolean keyed_matches(long slot, byte[] data, int offset) {
+        byte[] expected = mac.compute(slot);
+        int diff = 0;
+        for (int i = 0; i < TokenFormat.V2_MAC_LENGTH; i++) diff |= expected[i] ^ data[offset + i];
+        return diff == 0;
+    }
+
+    private String hex(byte[] bytes, int length) {
+        to_hex(bytes, 0, length, key);
+        return new String(key, 0, length * 2, StandardCharsets.US_ASCII);
+    }
+
+    static void to_hex(byte[] src, int offset, int length, byte[] dst) {
+        for (int i = 0; i < length; i++) {
+            int v = src[offset + i] & 0xff;
+            dst[i * 2] = HEX[v >>> 4];
+            dst[i * 2 + 1] = HEX[v & 0x0f];
+        }
+    }
+}
@@ -0,0 +1,512 @@
+import argparse
+import asyncio
+import os
+import pwd
+import sys
+import time
+from collections import OrderedDict, deque
+from typing import Deque, Dict, List, Optional, Tuple
+
+from beacon import BeaconEmitter, BlueZBeaconRadio
+from ingest import AdvertIngest, Batch
+from main import (
+    AUTH_SERVICE_UUID,
+    HEX_DIGITS,
+    LOOKAHEAD_WINDOW,
+    MAX_WINDOWS,
+    PASSWORD_ENV_FILE,
+    RSSI_THRESHOLD,
+    SCAN_TIMEOUT_SECONDS,
+    TOKEN_V3,
+    WINDOW_TTL_SECONDS,
+    ClockOffset,
+    parse_token,
+    read_password_hash,
+)
+from scanning import ALL_ADAPTERS, SCAN_MODES, resolve_adapters, start_scanners, stop_scanners
+from telemetry import VerifierTelemetry
+
+# Long running verifier. Keeps one scanner warm and answers pam_authit over a unix socket,
+# so a sudo costs one token hop instead of interpreter start + bleak import + scanner warm-up.
+#
+# Protocol, one request per connection, ASCII lines:
+#   PING                        -> PONG
+#   AUTH <user> [timeout_ms]    -> OK | FAIL <reason> | NOUSER
+#   PRESENT <user>              -> YES | NO
+#   METRICS                     -> Prometheus text (telemetry.py), until the connection closes
+# NOUSER means the user has no secret the daemon can read, pam_authit then falls back to
+# running main.py itself (which can also enroll the user).
+#
+# Every enrolled user on the host is loaded and served by the same scan stream. Expected tokens
+# of all users live in one TokenIndex, so each advert is resolved to its owner with one lookup.
+#
+# Concurrent AUTH requests for one user (several terminals, polkit + sudo) join a single flight:
+# they all wait on the same future and get the same result, each with its own timeout.
+#
+# pam_authit's grace cache lives in <socket dir>/grace as "<user>@<tty>" files. pam_authit only
+# honours an entry when PRESENT says the user's phone was heard within PRESENCE_TIMEOUT_SECONDS, so
+# without the daemon there is no grace at all; the daemon also deletes a user's entries once their
+# phone has not been seen for that long. A phone in silent burst mode goes quiet a few seconds after
+# the beacon stops, so for it the grace window ends with that silence and the next request takes a
+# normal beacon round (a short burst) instead of the full grace= period. Grace never outlives the
+# last advert heard.
+#
+# Latency is measured per flight (first advert and match after it opened, adverts heard while
+# open), results per request. --metrics-file also writes the metrics for node_exporter's textfile
+# collector every METRICS_WRITE_SECONDS.
+#
+# With --beacon the daemon advertises an "auth requested" beacon (beacon.py) while any AUTH request
+# is open, for phones that only advertise on request.
+
+SOCKET_PATH = "/run/authit/authitd.sock"
+REQUEST_READ_TIMEOUT_SECONDS = 2.0
+MAX_REQUEST_TIMEOUT_SECONDS = 60.0
+SCANNER_RETRY_SECONDS = 5.0
+LISTEN_BACKLOG = 512 # a burst of sudo calls must not get EAGAIN on connect
+LOAD_LOCK_STRIPES = 16 # user lookups can block on NSS, they run off the loop one stripe at a time
+USER_RESCAN_SECONDS = 30.0
+INDEX_TTL_SECONDS = WINDOW_TTL_SECONDS
+MAX_WINDOWS_PER_USER = MAX_WINDOWS # unknown tokens are anchored for every user, bound what that can cost
+PRESENCE_TIMEOUT_SECONDS = 3.0 # a phone rolls every 200 ms, a few seconds of silence means it left
+PRESENCE_CHECK_SECONDS = 1.0
+METRICS_WRITE_SECONDS = 15.0
+
+
+class FlightStats:
+    def __init__(self, started: float) -> None:
+        self.started = started # monotonic
+        self.first_advert = False
+        self.packets = 0
+
+
+class UserState:
+    def __init__(self, username: str, password_hash: str, mtime: float) -> None:
+        self.username = username
+        self.password_hash = password_hash
+        self.mtime = mtime
+        # the daemon runs as root, the offset stays in memory instead of the user's config dir
+        self.clock_offset = ClockOffset()
+        self.windows: Deque[Tuple[float, Dict[str, int]]] = deque()
+        self.flight: Optional[asyncio.Future] = None
+        self.flight_waiters = 0
+        self.flight_stats: Optional[FlightStats] = None
+        self.last_seen = 0.0
+
+
+class TokenIndex:
+    """Expected token -> {user: (stamped minute or slot, expiry)} for every enrolled user."""
+
+    def __init__(self, ttl: float = INDEX_TTL_SECONDS) -> None:
+        self.ttl = ttl
+        self.entries: Dict[str, Dict[str, Tuple[int, float]]] = {}
+
+    def add(self, user: UserState, window: Dict[str, int], now: float, replace: bool) -> None:
+        if replace:
+            # the user's own phone just moved on, older windows are stale
+            self.remove_user(user)
+        # windows are appended in expiry order, drop the expired ones and then the oldest if over the cap
+        while user.windows and (user.windows[0][0] <= now or len(user.windows) >= MAX_WINDOWS_PER_USER):
+            self._drop(user.username, user.windows.popleft()[1])
+
+        expires_at = now + self.ttl
+        for token, minute in window.items():
+            self.entries.setdefault(token, {})[user.username] = (minute, expires_at)
+        user.windows.append((expires_at, window))
+
+    def owners(self, token: str, now: float) -> List[Tuple[str, int]]:
+        found = self.entries.get(token)
+        if not found:
+            return []
+        return [(name, minute) for name, (minute, expires_at) in found.items() if expires_at > now]
+
+    def remove_user(self, user: UserState) -> None:
+        while user.windows:
+            self._drop(user.username, user.windows.popleft()[1])
+
+    def purge(self, now: float) -> None:
+        for token in [t for t, users in self.entries.items() if all(e <= now for _, e in users.values())]:
+            del self.entries[token]
+
+    def _drop(self, username: str, window: Dict[str, int]) -> None:
+        for token in window:
+            users = self.entries.get(token)
+            if users is not None:
+                users.pop(username, None)
+                if not users:
+                    del self.entries[token]
+
+
+class AuthDaemon:
+    def __init__(
+        self,
+        socket_path: str = SOCKET_PATH,
+        beacon: Optional[BeaconEmitter] = None,
+        metrics_file: Optional[str] = None,
+        scan_adapters: str = ALL_ADAPTERS,
+        scan_mode: str = "passive",
+    ) -> None:
+        self.socket_path = socket_path
+        self.beacon = beacon
+        self.metrics_file = metrics_file
+        self.scan_adapters = scan_adapters # resolved on every (re)start, a dongle plugged in later is picked up
+        self.scan_mode = scan_mode # best mode to try, see scanning.py
+        self.telemetry = VerifierTelemetry("authitd")
+        self.open_flights: Dict[str, FlightStats] = {}
+        self.grace_dir = os.path.join(os.path.dirname(socket_path), "grace")
+        self.users: Dict[str, UserState] = {}
+        self.index = TokenIndex()
+        # filters, dedupes and batches the scanner's adverts before they reach _process_batch
+        self.ingest = AdvertIngest(
+            AUTH_SERVICE_UUID,
+            self._process_batch,
+            on_advert=self._count_advert,
+            on_duplicate=lambda: self.telemetry.reject("repeat"),
+            on_pass=lambda adapter: self.telemetry.adapter_adverts.inc(adapter or "default"),
+        )
+        self.keyed_recent: "OrderedDict[str, None]" = OrderedDict()
+        self.load_locks = [asyncio.Lock() for _ in range(LOAD_LOCK_STRIPES)]
+
+    # Blocking part of loading a user, runs in the executor. Returns (password hash, mtime).
+    def _read_secret(self, username: str, home: Optional[str] = None) -> Optional[Tuple[str, float]]:
+        if home is None:
+            try:
+                home = pwd.getpwnam(username).pw_dir
+            except KeyError:
+                return None
+        env_path = os.path.join(home, ".config", "authit", PASSWORD_ENV_FILE)
+        user = self.users.get(username)
+        try:
+            mtime = os.stat(env_path).st_mtime
+            if user is not None and user.mtime == mtime:
+                return user.password_hash, mtime
+            password_hash = read_password_hash(env_path)
+        except OSError:
+            return None
+        return (password_hash, mtime) if password_hash else None
+
+    def _read_all_secrets(self) -> Dict[str, Tuple[str, float]]:
+        secrets = {}
+        for entry in pwd.getpwall():
+            secret = self._read_secret(entry.pw_name, entry.pw_dir)
+            if secret is not None:
+                secrets[entry.pw_name] = secret
+        return secrets
+
+    def _install_user(self, username: str, secret: Optional[Tuple[str, float]]) -> Optional[UserState]:
+        user = self.users.get(username)
+        if user is not None and secret is not None and user.mtime == secret[1]:
+            return user
+
+        if user is not None:
+            self.index.remove_user(user)
+            del self.users[username]
+        if secret is None:
+            if user is not None and user.flight is not None and not user.flight.done():
+                user.flight.set_result(False)
+                self._close_flight(username, matched=False)
+            return None
+
+        fresh = UserState(username, secret[0], secret[1])
+        if user is not None:
+            fresh.flight, fresh.flight_waiters = user.flight, user.flight_waiters
+            fresh.flight_stats = user.flight_stats
+            fresh.last_seen = user.last_seen
+            fresh.clock_offset.last_keyed_slot = user.clock_offset.last_keyed_slot
+        self.users[username] = fresh
+        return fresh
+
+    async def _load_user(self, username: str) -> Optional[UserState]:
+        # requests for one user share a stripe, so a burst does one lookup; other users don't wait
+        async with self.load_locks[hash(username) % LOAD_LOCK_STRIPES]:
+            secret = await asyncio.get_running_loop().run_in_executor(None, self._read_secret, username)
+            return self._install_user(username, secret)
+
+    async def _load_all_users(self) -> None:
+        secrets = await asyncio.get_running_loop().run_in_executor(None, self._read_all_secrets)
+        for username in set(self.users) | set(secrets):
+            self._install_user(username, secrets.get(username))
+
+    def _process_batch(self, batch: Batch) -> None:
+        now = time.time()
+        for data, rssi in batch:
+            try:
+                self._process_auth_data(data, rssi, now)
+            except Exception as e:
+                # one bad advert must not take the rest of the batch down, count it instead
+                self.telemetry.errors.inc(type(e).__name__)
+                self.telemetry.reject("decode")
+
+    def _count_advert(self) -> None:
+        self.telemetry.adverts.inc()
+        if not self.open_flights:
+            return
+        now = time.monotonic()
+        for stats in self.open_flights.values():
+            stats.packets += 1
+            if not stats.first_advert:
+                stats.first_advert = True
+                self.telemetry.first_advert.observe(now - stats.started)
+
+    def _close_flight(self, username: str, matched: bool) -> None:
+        stats = self.open_flights.pop(username, None)
+        if stats is None:
+            return
+        if matched:
+            self.telemetry.match.observe(time.monotonic() - stats.started)
+        self.telemetry.packets.observe(stats.packets)
+
+    def _process_auth_data(self, data: bytes, rssi: int, now: Optional[float] = None) -> None:
+        """One advert that got through the ingest filter, repeats are already dropped."""
+        version, token, counter = parse_token(data)
+        if version == 1 and (not token or not HEX_DIGITS.issuperset(token)):
+            self.telemetry.reject("decode")
+            return
+
+        now = time.time() if now is None else now
+        if version == TOKEN_V3:
+            owners = self._keyed_owner(token, counter, now)
+            if not owners:
+                self.telemetry.reject("mac" if owners is None else "stale")
+                return
+        else:
+            owners = self.index.owners(token, now)
+        if not owners:
+            self.telemetry.reject(self._unknown_token_reason(now))
+            # nobody expects this token yet, it can be any user's phone: anchor everyone on it
+            for user in self.users.values():
+                self._anchor(user, version, token, counter, now, replace=False)
+            return
+
+        for username, stamped in owners:
+            user = self.users.get(username)
+            if user is None:
+                continue
+            if rssi < RSSI_THRESHOLD:
+                # a phone out of range must not move the offset or use up a v3 slot
+                self.telemetry.reject("rssi")
+                if version != TOKEN_V3:
+                    # our chain but too far, follow it without dropping the other windows
+                    self._anchor(user, version, token, counter, now, replace=False)
+                continue
+            if version == TOKEN_V3:
+                user.clock_offset.observe_keyed(stamped, now)
+                self.keyed_recent[username] = None
+                self.keyed_recent.move_to_end(username, last=False)
+            else:
+                user.clock_offset.observe_match(stamped, version, now)
+                self._anchor(user, version, token, counter, now, replace=True)
+            user.last_seen = now
+            if user.flight is not None:
+                if not user.flight.done():
+                    user.flight.set_result(True)
+                    self._close_flight(username, matched=True)
+                    print(f"[Auth] {username} authenticated ({user.flight_waiters} waiting).", flush=True)
+                user.flight = None
+
+    def _unknown_token_reason(self, now: float) -> str:
+        anchored = [u for u in self.users.values() if u.windows]
+        if not anchored:
+            return "unanchored"
+        if any(u.clock_offset.near_rollover(now, LOOKAHEAD_WINDOW) for u in anchored):
+            return "rollover"
+        return "stale"
+
+    def _keyed_owner(self, token: str, counter: int, now: float) -> Optional[List[Tuple[str, int]]]:
+        """[(user, slot)], [] when the owner's slot was already used, None when no MAC matches."""
+        # a v3 token is checked on its own with one MAC per candidate, users whose phone matched
+        # recently go first so the owner is usually the first or second try
+        recent = [u for u in self.keyed_recent if u in self.users]
+        for username in recent + [u for u in self.users if u not in self.keyed_recent]:
+            user = self.users[username]
+            slot = user.clock_offset.keyed_match(token, counter, user.password_hash, now)
+            if slot is not None:
+                return [(username, slot)] if slot > user.clock_offset.last_keyed_slot else []
+        return None
+
+    def _anchor(
+        self, user: UserState, version: int, token: str, counter: Optional[int], now: float, replace: bool
+    ) -> None:
+        window = user.clock_offset.expected_after(version, token, counter, user.password_hash, now, LOOKAHEAD_WINDOW)
+        self.index.add(user, window, now, replace)
+
+    async def authenticate(self, username: str, timeout: float) -> str:
+        deadline = time.monotonic() + timeout
+        user = await self._load_user(username)
+        if user is None:
+            self.telemetry.results.inc("nouser")
+            return "NOUSER"
+
+        # join the in-flight wait or open one; it resolves on the next valid token seen after
+        # it was opened, never on one from before
+        if user.flight is None or user.flight.done():
+            user.flight = asyncio.get_running_loop().create_future()
+            user.flight_stats = FlightStats(time.monotonic())
+            self.open_flights[username] = user.flight_stats
+        flight = user.flight
+        user.flight_waiters += 1
+        if self.beacon is not None:
+            self.beacon.request_started()
+        try:
+            # shield: one waiter timing out must not cancel the flight for the others
+            ok = await asyncio.wait_for(asyncio.shield(flight), timeout=max(0.0, deadline - time.monotonic()))
+        except asyncio.TimeoutError:
+            self.telemetry.results.inc("timeout")
+            return "FAIL timeout"
+        finally:
+            if self.beacon is not None:
+                self.beacon.request_finished()
+            user = self.users.get(username, user)
+            user.flight_waiters -= 1
+            if user.flight_waiters == 0 and user.flight is flight:
+                user.flight = None
+                if not flight.done():
+                    self._close_flight(username, matched=False) # every waiter gave up
+        if not ok:
+            self.telemetry.results.inc("unenrolled")
+            return "FAIL unenrolled"
+        self.telemetry.results.inc("ok")
+        return "OK"
+
+    async def _handle_client(self, reader: asyncio.StreamReader, writer: asyncio.StreamWriter) -> None:
+        try:
+            line = await asyncio.wait_for(reader.readline(), timeout=REQUEST_READ_TIMEOUT_SECONDS)
+            parts = line.decode("ascii", errors="replace").split()
+            if parts == ["PING"]:
+                reply = "PONG"
+            elif parts == ["METRICS"]:
+                reply = self.telemetry.render().rstrip("\n")
+            elif len(parts) in (2, 3) and parts[0] == "AUTH":
+                timeout = SCAN_TIMEOUT_SECONDS
+                if len(parts) == 3:
+                    timeout = min(int(parts[2]) / 1000.0, MAX_REQUEST_TIMEOUT_SECONDS)
+                reply = await self.authenticate(parts[1], timeout)
+            elif len(parts) == 2 and parts[0] == "PRESENT":
+                reply = "YES" if self.present(parts[1], time.time()) else "NO"
+            else:
+                reply = "FAIL bad-request"
+            writer.write(f"{reply}\n".encode())
+            await writer.drain()
+        except (asyncio.TimeoutError, ValueError, ConnectionError):
+            pass
+        finally:
+            writer.close()
+
+    async def _maintain(self) -> None:
+        while True:
+            await self._load_all_users()
+            self.index.purge(time.time())
+            await asyncio.sleep(USER_RESCAN_SECONDS)
+
+    def present(self, username: str, now: float) -> bool:
+        """Whether the user's phone was heard close enough within PRESENCE_TIMEOUT_SECONDS."""
+        user = self.users.get(username)
+        return user is not None and now - user.last_seen <= PRESENCE_TIMEOUT_SECONDS
+
+    def _expire_grace(self, now: float) -> None:
+        try:
+            entries = os.listdir(self.grace_dir)
+        except FileNotFoundError:
+            return
+        for entry in entries:
+            user = self.users.get(entry.split("@", 1)[0])
+            # entries of users the daemon doesn't serve are never honoured, PRESENT says NO for them
+            if user is not None and not self.present(user.username, now):
+                try:
+                    os.remove(os.path.join(self.grace_dir, entry))
+                    print(f"[Info] {user.username}'s phone is gone, dropped grace entry {entry}.", flush=True)
+                except FileNotFoundError:
+                    pass
+
+    async def _write_metrics(self) -> None:
+        while True:
+            await asyncio.sleep(METRICS_WRITE_SECONDS)
+            try:
+                await asyncio.get_running_loop().run_in_executor(
+                    None, self.telemetry.registry.write_textfile, self.metrics_file
+                )
+            except OSError as e:
+                print(f"[Error] Cannot write metrics: {e}", flush=True)
+
+    async def _watch_presence(self) -> None:
+        while True:
+            self._expire_grace(time.time())
+            await asyncio.sleep(PRESENCE_CHECK_SECONDS)
+
+    async def _scan_forever(self) -> None:
+        while True:
+            scanners = []
+            try:
+                scanners = await start_scanners(
+                    self.ingest.callback_for,
+                    AUTH_SERVICE_UUID,
+                    resolve_adapters(self.scan_adapters),
+                    self.scan_mode,
+                )
+                for _, _, mode in scanners:
+                    self.telemetry.scanner_starts.inc(mode)
+                # copies from the other adapters: a far one waits briefly for a louder one
+                self.ingest.hold_below = RSSI_THRESHOLD if len(scanners) > 1 else None
+                await asyncio.Event().wait()
+            except Exception as e:
+                print(f"[Error] Scanner failed: {e}", flush=True)
+            finally:
+                for e in await stop_scanners(scanners):
+                    self.telemetry.errors.inc(type(e).__name__)
+                    print(f"[Error] Scanner did not stop cleanly: {e}", flush=True)
+            await asyncio.sleep(SCANNER_RETRY_SECONDS)
+
+    async def run(self) -> None:
+        os.makedirs(os.path.dirname(self.socket_path), mode=0o700, exist_ok=True)
+        if os.path.exists(self.socket_path):
+            os.remove(self.socket_path)
+
+        old_umask = os.umask(0o177)
+        try:
+            server = await asyncio.start_unix_server(
+                self._handle_client, path=self.socket_path, backlog=LISTEN_BACKLOG
+            )
+        finally:
+            os.umask(old_umask)
+        print(f"[Info] Listening on {self.socket_path}", flush=True)
+
+        tasks = [server.serve_forever(), self._maintain(), self._watch_presence(), self._scan_forever()]
+        if self.metrics_file:
+            tasks.append(self._write_metrics())
+        async with server:
+            await asyncio.gather(*tasks)
+
+
+def main() -> None:
+    parser = argparse.ArgumentParser(description="Auth-It verifier daemon")
+    parser.add_argument("--socket", default=SOCKET_PATH)
+    parser.add_argument(
+        "--beacon", action="store_true", help="advertise an auth-requested beacon for phones that advertise on request"
+    )
+    parser.add_argument("--adapter", default="hci0", help="adapter the beacon is advertised on")
+    parser.add_argument(
+        "--scan-adapters",
+        default=ALL_ADAPTERS,
+        help='adapters to scan on at once, "hci0,hci1" or "all" (every controller found)',
+    )
+    parser.add_argument(
+        "--scan-mode",
+        choices=SCAN_MODES,
+        default="passive",
+        help="best scan mode to try, falls back to the next ones when the adapter can't do it",
+    )
+    parser.add_argument("--metrics-file", help="also write the metrics (Prometheus text) to this file")
+    args = parser.parse_args()
+
+    if os.geteuid() != 0:
+        print("[Error] authitd must run as root.")
+        sys.exit(1)
+
+    try:
+        beacon = BeaconEmitter(BlueZBeaconRadio(args.adapter)) if args.beacon else None
+        asyncio.run(AuthDaemon(args.socket, beacon, args.metrics_file, args.scan_adapters, args.scan_mode).run())
+    except KeyboardInterrupt:
+        pass
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,136 @@
+import asyncio
+from typing import Optional
+
+# "Auth requested" beacon. While at least one authentication is open authitd advertises service
+# data on BEACON_SERVICE_UUID, phones set to advertise on request listen for it with a low duty
+# scan and only put their tokens on air at low latency while they hear it.
+#
+# The radio is a small interface so the emitter can run against a fake one; BlueZBeaconRadio
+# registers a broadcast advertisement with BlueZ over D-Bus (dbus_fast, which bleak already
+# depends on).
+
+BEACON_SERVICE_UUID = "0000fff1-0000-1000-8000-00805f9b34fb"
+BEACON_VERSION = 0x01
+BLUEZ_SERVICE = "org.bluez"
+ADVERTISEMENT_PATH = "/org/authit/beacon0"
+
+
+class BeaconRadio:
+    """Puts one advertisement on air or takes it off. Both calls are idempotent."""
+
+    async def start(self, service_uuid: str, service_data: bytes) -> None:
+        raise NotImplementedError
+
+    async def stop(self) -> None:
+        raise NotImplementedError
+
+
+class BlueZBeaconRadio(BeaconRadio):
+    def __init__(self, adapter: str = "hci0") -> None:
+        self.adapter_path = f"/org/bluez/{adapter}"
+        self.bus = None
+        self.manager = None
+        self.registered = False
+
+    async def start(self, service_uuid: str, service_data: bytes) -> None:
+        if self.registered:
+            return
+        from dbus_fast import BusType
+        from dbus_fast.aio import MessageBus
+
+        if self.bus is None:
+            self.bus = await MessageBus(bus_type=BusType.SYSTEM).connect()
+            introspection = await self.bus.introspect(BLUEZ_SERVICE, self.adapter_path)
+            adapter = self.bus.get_proxy_object(BLUEZ_SERVICE, self.adapter_path, introspection)
+            self.manager = adapter.get_interface("org.bluez.LEAdvertisingManager1")
+        self.bus.export(ADVERTISEMENT_PATH, _advertisement(service_uuid, service_data))
+        try:
+            await self.manager.call_register_advertisement(ADVERTISEMENT_PATH, {})
+        except Exception:
+            self.bus.unexport(ADVERTISEMENT_PATH)
+            raise
+        self.registered = True
+
+    async def stop(self) -> None:
+        if not self.registered:
+            return
+        self.registered = False
+        try:
+            await self.manager.call_unregister_advertisement(ADVERTISEMENT_PATH)
+        finally:
+            self.bus.unexport(ADVERTISEMENT_PATH)
+
+
+# Built on first use so the module also imports where dbus_fast isn't installed (fake radios).
+def _advertisement(service_uuid: str, service_data: bytes):
+    from dbus_fast import Variant
+    from dbus_fast.service import PropertyAccess, ServiceInterface, dbus_property, method
+
+    class Advertisement(ServiceInterface):
+        def __init__(self) -> None:
+            super().__init__("org.bluez.LEAdvertisement1")
+
+        @method()
+        def Release(self):  # called by BlueZ when it drops the advertisement
+            pass
+
+        @dbus_property(access=PropertyAccess.READ)
+        def Type(self) -> "s":
+            return "broadcast"
+
+        @dbus_property(access=PropertyAccess.READ)
+        def ServiceUUIDs(self) -> "as":
+            return [service_uuid]
+
+        @dbus_property(access=PropertyAccess.READ)
+        def ServiceData(self) -> "a{sv}":
+            return {service_uuid: Variant("ay", service_data)}
+
+    return Advertisement()
+
+
+class BeaconEmitter:
+    """Keeps the beacon on air while at least one request is open.
+
+    request_started / request_finished never block, the radio is driven by one task that keeps
+    going until the radio matches the number of open requests. A radio error is logged and
+    retried with the next request, authentication itself never waits on the beacon.
+    """
+
+    def __init__(self, radio: BeaconRadio) -> None:
+        self.radio = radio
+        self.open_requests = 0
+        self.on_air = False
+        self.task: Optional[asyncio.Task] = None
+
+    def request_started(self) -> None:
+        self.open_requests += 1
+        self._kick()
+
+    def request_finished(self) -> None:
+        self.open_requests = max(0, self.open_requests - 1)
+        self._kick()
+
+    async def close(self) -> None:
+        self.open_requests = 0
+        if self.task is not None:
+            await self.task
+        if self.on_air:
+            await self._sync()
+
+    def _kick(self) -> None:
+        if self.task is None or self.task.done():
+            self.task = asyncio.get_running_loop().create_task(self._sync())
+
+    async def _sync(self) -> None:
+        while (self.open_requests > 0) != self.on_air:
+            try:
+                if self.open_requests > 0:
+                    await self.radio.start(BEACON_SERVICE_UUID, bytes([BEACON_VERSION]))
+                    self.on_air = True
+                else:
+                    await self.radio.stop()
+                    self.on_air = False
+            except Exception as e:
+                print(f"[Error] Beacon failed: {e}", flush=True)
+                return
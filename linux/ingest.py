@@ -0,0 +1,180 @@
+import asyncio
+from collections import OrderedDict, deque
+from typing import Callable, Deque, List, Optional, Set, Tuple
+
+from bleak.backends.device import BLEDevice
+from bleak.backends.scanner import AdvertisementData
+
+# Front of the scan pipeline, shared by main.py and authitd. The detection callback runs for every
+# advert in range (hundreds of beacons in an open-plan office), so it does as little as possible:
+#   1. filter: one exact dict lookup on the Auth-It service UUID. bleak never exposes the raw
+#      advertising PDU on BlueZ: bluetoothd parses it and sends properties over D-Bus, and bleak
+#      hands over service data as a dict keyed by the normalized 128-bit UUID string. So this is
+#      a lookup on that parsed key, not a check on raw bytes. It replaces the lowering and
+#      substring scan per key, and everything else is dropped before any more Python work.
+#      Matching on the raw bytes happens where they exist: in the passive scan's or_pattern
+#      (scanning.py, run by bluetoothd or the controller) and in the JVM verifier's
+#      RawAdvertFilter on scan records.
+#   2. dedupe: the phone repeats every token several times per roll. A service data value seen in
+#      the last RECENT_PAYLOADS Auth-It adverts is dropped by comparing its bytes, before any
+#      token parsing.
+#   3. merge: with several adapters (scanning.start_scanners) every advert arrives once per adapter
+#      that heard it. A copy at or above `hold_below` dBm is passed on at once, the first adapter to
+#      hear a token close enough wins. A weaker one is held for up to MERGE_SECONDS in case another
+#      adapter hears it louder, then passed on with the best RSSI. Held adverts leave in the order
+#      they were first heard. One phone's adverts are ~100 ms apart, longer than the hold, so each
+#      phone's tokens stay in order; across phones a far advert can trail a near one heard after
+#      it by up to MERGE_SECONDS, which the verifiers don't mind, they anchor every token on its own.
+#   4. batch: what is left is queued and handed to the matcher once per event loop iteration
+#      (or every BATCH_SIZE adverts), adverts D-Bus delivers in one burst are matched together.
+
+BASE_UUID_SUFFIX = "-0000-1000-8000-00805f9b34fb" # Bluetooth base UUID, for 16-bit service UUIDs
+RECENT_PAYLOADS = 256
+BATCH_SIZE = 64
+MERGE_SECONDS = 0.03 # copies from other adapters arrive within a few ms, well under one 200 ms roll
+
+Batch = List[Tuple[bytes, int]] # (service data, rssi)
+
+
+def service_uuid_128(uuid16: str) -> str:
+    return f"0000{uuid16.lower()}{BASE_UUID_SUFFIX}"
+
+
+class RecentPayloads:
+    """Fixed-size set of the last `size` payloads, oldest evicted first."""
+
+    def __init__(self, size: int = RECENT_PAYLOADS) -> None:
+        self.size = size
+        self.order: Deque[bytes] = deque()
+        self.members: Set[bytes] = set()
+
+    def seen(self, payload: bytes) -> bool:
+        """True if `payload` is in the set, otherwise adds it."""
+        if payload in self.members:
+            return True
+        self.members.add(payload)
+        self.order.append(payload)
+        if len(self.order) > self.size:
+            self.members.discard(self.order.popleft())
+        return False
+
+
+class HeldAdvert:
+    __slots__ = ("rssi", "source", "first_seen")
+
+    def __init__(self, rssi: int, source: Optional[str], first_seen: float) -> None:
+        self.rssi = rssi
+        self.source = source # adapter that heard the best copy so far
+        self.first_seen = first_seen
+
+
+class AdvertIngest:
+    def __init__(
+        self,
+        service_uuid16: str,
+        sink: Callable[[Batch], None],
+        on_advert: Optional[Callable[[], None]] = None,
+        on_duplicate: Optional[Callable[[], None]] = None,
+        on_pass: Optional[Callable[[Optional[str]], None]] = None,
+        recent_size: int = RECENT_PAYLOADS,
+        batch_size: int = BATCH_SIZE,
+        hold_below: Optional[int] = None,
+        merge_seconds: float = MERGE_SECONDS,
+    ) -> None:
+        self.key = service_uuid_128(service_uuid16)
+        self.sink = sink
+        self.on_advert = on_advert # every Auth-It advert, repeats included
+        self.on_duplicate = on_duplicate
+        self.on_pass = on_pass # every advert passed on, with the adapter that won it
+        self.recent = RecentPayloads(recent_size)
+        self.batch_size = batch_size
+        self.hold_below = hold_below # None: nothing is held, the first copy is passed on
+        self.merge_seconds = merge_seconds
+        self.held: "OrderedDict[bytes, HeldAdvert]" = OrderedDict() # in first heard order
+        self.merge_timer: Optional[asyncio.TimerHandle] = None
+        self.pending: Batch = []
+        self.flush_scheduled = False
+        self.seen = 0
+        self.filtered = 0
+        self.duplicates = 0
+        self.batches = 0
+        self.upgraded = 0 # held adverts another adapter heard louder
+
+    def callback_for(self, source: Optional[str]) -> Callable[[BLEDevice, AdvertisementData], None]:
+        """Detection callback for the scanner of one adapter."""
+        return lambda device, adv: self.detection_callback(device, adv, source)
+
+    def detection_callback(self, _: BLEDevice, adv: AdvertisementData, source: Optional[str] = None) -> None:
+        self.seen += 1
+        data = adv.service_data.get(self.key) if adv.service_data else None
+        if data is None:
+            self.filtered += 1
+            return
+        self.push(bytes(data), adv.rssi, source)
+
+    def push(self, data: bytes, rssi: int, source: Optional[str] = None) -> None:
+        if self.on_advert is not None:
+            self.on_advert()
+        held = self.held.get(data)
+        if held is not None:
+            self._duplicate()
+            if rssi > held.rssi:
+                held.rssi, held.source = rssi, source
+                self.upgraded += 1
+                if self.hold_below is None or rssi >= self.hold_below:
+                    del self.held[data]
+                    self._queue(data, rssi, source)
+            return
+        if self.recent.seen(data):
+            self._duplicate()
+            return
+        if self.hold_below is None or rssi >= self.hold_below or not self._hold(data, rssi, source):
+            self._queue(data, rssi, source)
+
+    def _duplicate(self) -> None:
+        self.duplicates += 1
+        if self.on_duplicate is not None:
+            self.on_duplicate()
+
+    def _hold(self, data: bytes, rssi: int, source: Optional[str]) -> bool:
+        try:
+            loop = asyncio.get_running_loop()
+        except RuntimeError:
+            return False # no loop to wake us up again, nothing can be held
+        self.held[data] = HeldAdvert(rssi, source, loop.time())
+        if self.merge_timer is None:
+            self.merge_timer = loop.call_later(self.merge_seconds, self._release_expired)
+        return True
+
+    def _release_expired(self) -> None:
+        self.merge_timer = None
+        loop = asyncio.get_running_loop()
+        now = loop.time()
+        while self.held:
+            data, held = next(iter(self.held.items()))
+            if now - held.first_seen < self.merge_seconds:
+                self.merge_timer = loop.call_at(held.first_seen + self.merge_seconds, self._release_expired)
+                return
+            del self.held[data]
+            self._queue(data, held.rssi, held.source)
+
+    def _queue(self, data: bytes, rssi: int, source: Optional[str]) -> None:
+        if self.on_pass is not None:
+            self.on_pass(source)
+        self.pending.append((data, rssi))
+        if len(self.pending) >= self.batch_size:
+            self.flush()
+        elif not self.flush_scheduled:
+            try:
+                asyncio.get_running_loop().call_soon(self.flush)
+                self.flush_scheduled = True
+            except RuntimeError:
+                self.flush() # no loop (called from a plain thread or a tool), hand it over right away
+
+    def flush(self) -> None:
+        self.flush_scheduled = False
+        if not self.pending:
+            return
+        batch, self.pending = self.pending, []
+        self.batches += 1
+        self.sink(batch)
@@ -1,14 +1,22 @@
 import asyncio
 import hashlib
+import hmac
+import math
 import os
 import sys
+import time
 from datetime import datetime, timezone
-from typing import Optional
+from collections import deque
+from functools import lru_cache
+from typing import Deque, Dict, Optional, Tuple
 
-from bleak import BleakScanner
 from bleak.backends.device import BLEDevice
 from bleak.backends.scanner import AdvertisementData
 
+from ingest import AdvertIngest, Batch
+from scanning import ALL_ADAPTERS, resolve_adapters, start_scanners, stop_scanners
+from telemetry import VerifierTelemetry
+
 AUTH_SERVICE_UUID = "fff0" # will be dynamic in future versions
 PASSWORD_ENV_FILE = ".env"
 CONFIG_DIR = os.path.expanduser("~/.config/authit")
@@ -16,14 +24,352 @@ RSSI_THRESHOLD = -87 # low threshold for rssi to consider device "close enough"
 HASH_PADDING_LENGTH = 128 
 PREDICTION_LENGTH = 20 # Can go up to 26 (because ble size) but i got issues with some android devices
 SCAN_TIMEOUT_SECONDS = 10.0
+LOOKAHEAD_WINDOW = 5 # how many upcoming tokens are accepted after the last one seen, covers lost adverts
+TOKEN_CACHE_SIZE = 1024
+ROLL_INTERVAL_SECONDS = 0.2
+CLOCK_SKEW_TOLERANCE_SECONDS = 1.0 # residual skew we still tolerate after the offset correction
+CLOCK_OFFSET_FILE = "clock_offset"
+WINDOW_TTL_SECONDS = LOOKAHEAD_WINDOW * ROLL_INTERVAL_SECONDS + CLOCK_SKEW_TOLERANCE_SECONDS + 1.0
+MAX_WINDOWS = 64 # every unknown token opens a window, bound what other phones in range can cost
+TOKEN_V2 = 0x02 # binary token: version | slot counter (uint32 BE) | 12 raw hash bytes
+TOKEN_V2_LENGTH = 17
+TOKEN_V2_MAC_LENGTH = 12
+SLOT_MILLIS = 200 # phone slots are ROLL_INTERVAL_SECONDS wide and counted from the epoch
+TOKEN_V3 = 0x03 # v2 layout, but the 12 bytes are HMAC-SHA-512(hash, slot) instead of the chain
+KEYED_WINDOW_SLOTS = 8 # v3 slots further than this from the phone clock estimate are refused
+KEYED_MAX_STEP_SECONDS = 2 * ROLL_INTERVAL_SECONDS # how far one v3 match may move the clock offset
+METRICS_FILE = "metrics.prom" # Prometheus text, totals over every run (see telemetry.py)
+HEX_DIGITS = frozenset("0123456789abcdef")
+
+
+@lru_cache(maxsize=8)
+def minute_material(password_hash: str, epoch_minute: int) -> bytes:
+    """Secret + "yyyy-MM-dd HH:mm" tail of the hash input, built once per minute."""
+    stamp = datetime.fromtimestamp(epoch_minute * 60, timezone.utc).strftime("%Y-%m-%d %H:%M")
+    return f"{password_hash}{stamp}".encode()
+
+
+@lru_cache(maxsize=TOKEN_CACHE_SIZE)
+def next_token(token: str, material: bytes, length: int = PREDICTION_LENGTH) -> str:
+    padded_hash = token + "0" * (HASH_PADDING_LENGTH - len(token))
+    return hashlib.sha512(padded_hash.encode() + material).hexdigest()[:length]
+
+
+def parse_token(data: bytes) -> Tuple[int, str, Optional[int]]:
+    """
+    (version, key, slot counter) of an advert. v1 is the hex prefix sent as text and has no counter,
+    v2 and v3 are binary and their key is the hex of the MAC bytes. A v1 payload is all hex digits,
+    so a leading 0x02 or 0x03 byte can only be binary.
+    """
+    if len(data) == TOKEN_V2_LENGTH and data[0] in (TOKEN_V2, TOKEN_V3):
+        return data[0], data[5:].hex(), int.from_bytes(data[1:5], "big")
+    return 1, data.decode("utf-8", errors="ignore"), None
+
+
+class SlotMac:
+    """
+    v3 token: HMAC-SHA-512 of the 8 byte slot, keyed with the stored hash. The ipad/opad blocks are
+    hashed once, each slot copies those two states and hashes the counter and the inner digest.
+    """
+
+    BLOCK_SIZE = 128
+
+    def __init__(self, password_hash: str) -> None:
+        key = password_hash.encode()
+        if len(key) > self.BLOCK_SIZE:
+            key = hashlib.sha512(key).digest()
+        key = key.ljust(self.BLOCK_SIZE, b"\0")
+        self.inner = hashlib.sha512(bytes(b ^ 0x36 for b in key))
+        self.outer = hashlib.sha512(bytes(b ^ 0x5C for b in key))
+
+    def key(self, slot: int) -> str:
+        inner = self.inner.copy()
+        inner.update(slot.to_bytes(8, "big"))
+        outer = self.outer.copy()
+        outer.update(inner.digest())
+        return outer.hexdigest()[: TOKEN_V2_MAC_LENGTH * 2]
+
+
+@lru_cache(maxsize=64)
+def slot_mac(password_hash: str) -> SlotMac:
+    return SlotMac(password_hash)
+
+
+def unwrap_slot(counter: int, phone_time: float) -> int:
+    """Full slot number for a 32-bit counter, the one closest to `phone_time`."""
+    base = int(phone_time * 1000) // SLOT_MILLIS
+    return base + ((counter - base + 2**31) % 2**32) - 2**31
+
+
+def slot_minute(slot: int) -> int:
+    return slot * SLOT_MILLIS // 60000
+
+
+@lru_cache(maxsize=TOKEN_CACHE_SIZE)
+def slot_window(key: str, password_hash: str, slot: int, size: int) -> Dict[str, int]:
+    """
+    v2 counterpart of token_window: the keys the phone sends in the `size` slots after `slot`,
+    mapped to their slot. The counter gives the minute of every step, no rollover guessing.
+    """
+    window: Dict[str, int] = {}
+    current = key[:PREDICTION_LENGTH]
+    for step in range(1, size + 1):
+        material = minute_material(password_hash, slot_minute(slot + step))
+        digest = next_token(current, material, len(key))
+        window.setdefault(digest, slot + step)
+        current = digest[:PREDICTION_LENGTH]
+    return window
+
+
+@lru_cache(maxsize=TOKEN_CACHE_SIZE)
+def token_window(token: str, password_hash: str, minutes: Tuple[int, ...], size: int) -> Dict[str, int]:
+    """
+    The tokens the phone can broadcast in its next `size` rolls after `token`, mapped to the
+    minute they are stamped with. `minutes` are consecutive epoch minutes the phone clock may be
+    in; chains that roll over from one to the next part way through are included.
+    """
+    window: Dict[str, int] = {}
+    for i, minute in enumerate(minutes):
+        material = minute_material(password_hash, minute)
+        current = token
+        for _ in range(size):
+            current = next_token(current, material)
+            window.setdefault(current, minute)
+        if i == 0:
+            continue
+        # rolled over after `switch` tokens, the prefix is shared with the previous minute's chain
+        previous = minute_material(password_hash, minutes[i - 1])
+        head = token
+        for switch in range(1, size):
+            head = next_token(head, previous)
+            current = head
+            for _ in range(switch, size):
+                current = next_token(current, material)
+                window.setdefault(current, minute)
+    return window
+
+
+class ClockOffset:
+    """
+    Phone clock minus local clock, in seconds. Every accepted token tells us which minute (v1) or
+    slot (v2) the phone was in, each match clamps the estimate into it. Kept across runs together
+    with the last v3 slot accepted, so a recorded v3 advert can't pass again in a later run.
+    """
+
+    def __init__(self, path: Optional[str] = None) -> None:
+        self.path = path
+        self.value = 0.0
+        self.last_keyed_slot = -1
+        if path and os.path.exists(path):
+            try:
+                with open(path, "r") as f:
+                    fields = f.read().split()
+                self.value = float(fields[0])
+                if len(fields) > 1:
+                    self.last_keyed_slot = int(fields[1])
+            except (OSError, ValueError, IndexError):
+                self.value = 0.0
+                self.last_keyed_slot = -1
+
+    def candidate_minutes(self, now: float, size: int) -> Tuple[int, ...]:
+        phone_now = now + self.value
+        minute = math.floor(phone_now / 60)
+        into_minute = phone_now - minute * 60
+        margin = size * ROLL_INTERVAL_SECONDS + CLOCK_SKEW_TOLERANCE_SECONDS
+        if into_minute < margin:
+            return (minute - 1, minute)
+        if into_minute > 60 - margin:
+            return (minute, minute + 1)
+        return (minute,)
+
+    def near_rollover(self, now: float, size: int) -> bool:
+        """True while the phone may be on either side of a minute boundary."""
+        return len(self.candidate_minutes(now, size)) > 1
+
+    def observe(self, stamped_minute: int, local_time: float) -> None:
+        low = stamped_minute * 60 - local_time
+        self.value = min(max(self.value, low), low + 60)
+
+    def observe_slot(self, slot: int, local_time: float) -> None:
+        # a slot is only sent once it started, it can linger on air a little after it ended
+        low = slot * SLOT_MILLIS / 1000.0 - local_time
+        self.value = min(max(self.value, low), low + ROLL_INTERVAL_SECONDS + CLOCK_SKEW_TOLERANCE_SECONDS)
+
+    def observe_keyed(self, slot: int, local_time: float) -> None:
+        """An accepted v3 slot, the estimate moves by at most KEYED_MAX_STEP_SECONDS per match."""
+        before = self.value
+        self.observe_slot(slot, local_time)
+        self.value = min(max(self.value, before - KEYED_MAX_STEP_SECONDS), before + KEYED_MAX_STEP_SECONDS)
+        self.last_keyed_slot = slot
+
+    def observe_match(self, stamped: int, version: int, local_time: float) -> None:
+        """`stamped` is a slot for v2/v3 matches and a minute for v1 ones."""
+        if version == 1:
+            self.observe(stamped, local_time)
+        else:
+            self.observe_slot(stamped, local_time)
+
+    def expected_after(
+        self, version: int, key: str, counter: Optional[int], password_hash: str, now: float, size: int
+    ) -> Dict[str, int]:
+        """Window of chain keys (v1, v2) expected after `key`, in the same format it came in."""
+        if version == 1:
+            return token_window(key, password_hash, self.candidate_minutes(now, size), size)
+        return slot_window(key, password_hash, unwrap_slot(counter, now + self.value), size)
+
+    def keyed_match(self, key: str, counter: int, password_hash: str, now: float) -> Optional[int]:
+        """
+        Slot of a v3 token if its MAC is right and the slot is within KEYED_WINDOW_SLOTS of the
+        phone's clock. Whether it was already used is up to the caller, see last_keyed_slot.
+        """
+        phone_now = now + self.value
+        slot = unwrap_slot(counter, phone_now)
+        if abs(slot - int(phone_now * 1000) // SLOT_MILLIS) > KEYED_WINDOW_SLOTS:
+            return None
+        return slot if hmac.compare_digest(slot_mac(password_hash).key(slot), key) else None
+
+    def save(self) -> None:
+        if not self.path:
+            return
+        try:
+            with open(self.path, "w") as f:
+                f.write(f"{self.value:.3f}\n{self.last_keyed_slot}\n")
+        except OSError:
+            pass
+
+
+class TokenVerifier:
+    """
+    Matching state for one secret: the windows of tokens expected after the ones seen.
+    Every unknown token opens a window of its own (bounded by MAX_WINDOWS and WINDOW_TTL_SECONDS),
+    like authitd does, so other phones in range can't push ours out between two of its adverts.
+    An accepted match drops the other windows and re-anchors on the token.
+    After every refused advert `reject_reason` says why, one of telemetry.REJECT_REASONS.
+    """
+
+    def __init__(
+        self,
+        password_hash: str,
+        lookahead: int = LOOKAHEAD_WINDOW,
+        clock_offset: Optional[ClockOffset] = None,
+    ) -> None:
+        self.password_hash = password_hash
+        self.lookahead = max(1, lookahead)
+        self.clock_offset = clock_offset or ClockOffset()
+        self.last_received_hash: Optional[str] = None
+        self.expected_tokens: Dict[str, Tuple[int, float]] = {} # token -> (stamped minute or slot, expiry)
+        self.windows: Deque[Tuple[float, Dict[str, int]]] = deque() # (expiry, window), in expiry order
+        self.reject_reason: Optional[str] = None
+
+    def feed(self, data: bytes, rssi: int, now: Optional[float] = None) -> bool:
+        """Returns True when `data` is one of the expected tokens and close enough."""
+        self.reject_reason = None
+        version, received_hash, counter = parse_token(data)
+        if received_hash == self.last_received_hash:
+            self.reject_reason = "repeat"
+            return False
+        if version == 1 and (not received_hash or not HEX_DIGITS.issuperset(received_hash)):
+            self.reject_reason = "decode"
+            return False
+
+        self.last_received_hash = received_hash
+        now = time.time() if now is None else now
+
+        if version == TOKEN_V3:
+            # stands on its own, no window: one MAC per advert and the first one seen can pass
+            if rssi < RSSI_THRESHOLD:
+                self.reject_reason = "rssi"
+                return False
+            slot = self.clock_offset.keyed_match(received_hash, counter, self.password_hash, now)
+            if slot is None or slot <= self.clock_offset.last_keyed_slot:
+                self.reject_reason = "mac" if slot is None else "stale"
+                return False
+            self.clock_offset.observe_keyed(slot, now)
+            return True
+
+        hit = self.expected_tokens.get(received_hash)
+        if hit is None or hit[1] <= now:
+            if rssi < RSSI_THRESHOLD:
+                self.reject_reason = "rssi"
+            elif not self.windows:
+                self.reject_reason = "unanchored"
+            elif self.clock_offset.near_rollover(now, self.lookahead):
+                self.reject_reason = "rollover"
+            else:
+                self.reject_reason = "stale"
+            # can be any phone's, give it a window of its own
+            self._anchor(version, received_hash, counter, now, replace=False)
+            return False
+        if rssi < RSSI_THRESHOLD:
+            # our chain but too far, follow it without dropping the other windows
+            self.reject_reason = "rssi"
+            self._anchor(version, received_hash, counter, now, replace=False)
+            return False
+
+        self.clock_offset.observe_match(hit[0], version, now)
+        # our phone moved on, the other windows are stale
+        self._anchor(version, received_hash, counter, now, replace=True)
+        return True
+
+    def _anchor(self, version: int, token: str, counter: Optional[int], now: float, replace: bool) -> None:
+        if replace:
+            self.windows.clear()
+            self.expected_tokens.clear()
+        while self.windows and (self.windows[0][0] <= now or len(self.windows) >= MAX_WINDOWS):
+            self._drop(*self.windows.popleft())
+
+        window = self.clock_offset.expected_after(version, token, counter, self.password_hash, now, self.lookahead)
+        expires_at = now + WINDOW_TTL_SECONDS
+        for key, stamped in window.items():
+            self.expected_tokens[key] = (stamped, expires_at)
+        self.windows.append((expires_at, window))
+
+    def _drop(self, expires_at: float, window: Dict[str, int]) -> None:
+        for key in window:
+            # a later window may have put the same key back
+            entry = self.expected_tokens.get(key)
+            if entry is not None and entry[1] == expires_at:
+                del self.expected_tokens[key]
+
+
+def read_env_value(env_path: str, key: str) -> Optional[str]:
+    """KEY= value of an .env file, None if missing or empty."""
+    with open(env_path, "r") as f:
+        for line in f:
+            if line.startswith(f"{key}="):
+                return line.strip().split("=", 1)[1] or None
+    return None
+
+
+def read_password_hash(env_path: str) -> Optional[str]:
+    return read_env_value(env_path, "HASH")
 
 
 class AuthClient:
-    def __init__(self) -> None:
+    def __init__(self, lookahead: int = LOOKAHEAD_WINDOW) -> None:
         self.password_hash: str = self._get_password()
-        self.last_received_hash: Optional[str] = None
-        self.next_prediction: Optional[str] = None
+        self.clock_offset = ClockOffset(os.path.join(CONFIG_DIR, CLOCK_OFFSET_FILE))
+        self.verifier = TokenVerifier(self.password_hash, lookahead, self.clock_offset)
         self.authentication_successful = asyncio.Event()
+        self.telemetry = VerifierTelemetry("main")
+        self.started = time.monotonic()
+        self.packets = 0
+        self.first_advert_seen = False
+        self.ingest = AdvertIngest(
+            AUTH_SERVICE_UUID,
+            self._process_batch,
+            on_advert=self._count_advert,
+            on_duplicate=lambda: self.telemetry.reject("repeat"),
+            on_pass=lambda adapter: self.telemetry.adapter_adverts.inc(adapter or "default"),
+        )
+        self.adapters = resolve_adapters(self._get_adapters())
+
+    def _get_adapters(self) -> str:
+        """ADAPTERS= line of the .env file ("hci0,hci1"), every adapter found when there is none."""
+        try:
+            return read_env_value(os.path.join(CONFIG_DIR, PASSWORD_ENV_FILE), "ADAPTERS") or ALL_ADAPTERS
+        except OSError:
+            return ALL_ADAPTERS
 
     def _get_password(self) -> str:
         if not os.path.exists(CONFIG_DIR):
@@ -71,44 +417,54 @@ class AuthClient:
         
         return hashed_password
 
-    def _detection_callback(self, _: BLEDevice, adv: AdvertisementData) -> None:
+    def _detection_callback(self, _: BLEDevice, adv: AdvertisementData, adapter: Optional[str] = None) -> None:
         if self.authentication_successful.is_set():
             return
 
-        if adv.service_data:
-            for uuid, data in adv.service_data.items():
-                if AUTH_SERVICE_UUID in str(uuid).lower():
-                    self._process_auth_data(data, adv.rssi)
+        self.ingest.detection_callback(_, adv, adapter)
 
-    def _process_auth_data(self, data: bytes, rssi: int) -> None:
-        try:
-            received_hash = data.decode("utf-8", errors="ignore")
-            if received_hash == self.last_received_hash:
-                return
+    def _callback_for(self, adapter: Optional[str]):
+        return lambda device, adv: self._detection_callback(device, adv, adapter)
 
-            self.last_received_hash = received_hash
-            is_authenticated = False
+    def _count_advert(self) -> None:
+        self.packets += 1
+        self.telemetry.adverts.inc()
+        if not self.first_advert_seen:
+            self.first_advert_seen = True
+            self.telemetry.first_advert.observe(time.monotonic() - self.started)
 
-            if rssi >= RSSI_THRESHOLD:
-                if self.next_prediction and received_hash == self.next_prediction:
-                    print(f"\n[Auth] Received valid hash: {received_hash}")
-                    is_authenticated = True
+    def _process_batch(self, batch: Batch) -> None:
+        for data, rssi in batch:
+            if self.authentication_successful.is_set():
+                return
+            self._process_auth_data(data, rssi)
 
-            if is_authenticated:
-                self.authentication_successful.set()
-            else:
-            
-                padded_hash = received_hash + "0" * (
-                    HASH_PADDING_LENGTH - len(received_hash)
-                )
-                current_date = datetime.now(timezone.utc).strftime("%Y-%m-%d %H:%M")
-                payload = f"{padded_hash}{self.password_hash}{current_date}".encode()
-            
-                self.next_prediction = hashlib.sha512(payload).hexdigest()[
-                    :PREDICTION_LENGTH
-                ]
-        except Exception:
-            pass
+    def _process_auth_data(self, data: bytes, rssi: int) -> None:
+        try:
+            accepted = self.verifier.feed(data, rssi)
+        except Exception as e:
+            # a malformed advert must not end the scan, but it shouldn't vanish either
+            self.telemetry.errors.inc(type(e).__name__)
+            self.telemetry.reject("decode")
+            return
+        if not accepted:
+            self.telemetry.reject(self.verifier.reject_reason)
+            return
+        self.telemetry.match.observe(time.monotonic() - self.started)
+        print(f"\n[Auth] Received valid hash: {self.verifier.last_received_hash}")
+        self.clock_offset.save()
+        self.authentication_successful.set()
+
+    def save_metrics(self, result: str) -> None:
+        """Adds this run to METRICS_FILE. Two runs at once can lose one update, good enough for trends."""
+        self.telemetry.packets.observe(self.packets)
+        self.telemetry.results.inc(result)
+        path = os.path.join(CONFIG_DIR, METRICS_FILE)
+        try:
+            self.telemetry.registry.load_textfile(path)
+            self.telemetry.registry.write_textfile(path)
+        except OSError as e:
+            print(f"\n[Error] Cannot write metrics: {e}")
 
     async def _animate_wait(self) -> None:
         dots = 1
@@ -135,10 +491,13 @@ class AuthClient:
             ⠇⠸ ⠣⠼ ⠘⠤ ⠇⠸ ⠉⠉ ⠇ ⠘⠤                                 
 """
         )
-        scanner = BleakScanner(
-            detection_callback=self._detection_callback, scanning_mode="active"
-        )
-        await scanner.start()
+        self.started = time.monotonic()
+        scanners = await start_scanners(self._callback_for, AUTH_SERVICE_UUID, self.adapters)
+        for _, _, mode in scanners:
+            self.telemetry.scanner_starts.inc(mode)
+        if len(scanners) > 1:
+            # copies from the other adapters: a far one waits briefly for a louder one
+            self.ingest.hold_below = RSSI_THRESHOLD
 
         animation_task = asyncio.create_task(self._animate_wait())
 
@@ -148,16 +507,18 @@ class AuthClient:
             )
         finally:
             animation_task.cancel()
-            await scanner.stop()
+            await stop_scanners(scanners)
 
 
 async def main() -> None:
     client = AuthClient()
     try:
         await client.run()
+        client.save_metrics("ok")
         print("\n[Success] Authentication completed.")
         sys.exit(0)
     except asyncio.TimeoutError:
+        client.save_metrics("timeout")
         print("\n[Error] Timeout: No valid Auth-It devices found.")
         sys.exit(1)
 
@@ -0,0 +1,189 @@
+import asyncio
+import os
+from typing import Any, Awaitable, Callable, Dict, List, NamedTuple, Optional, Tuple
+
+from bleak import BleakScanner
+
+# Scanner setup shared by main.py and authitd. The phone's advert is non-connectable with an empty
+# scan response, so active scanning only costs air time and wakeups: every device in range gets a
+# scan request and every advert reaches bluetoothd and us. The modes are tried in order:
+#   passive   BlueZ advertisement monitor with an or_pattern on our service data (AD type 0x16,
+#             UUID little endian). No scan requests, and only matching adverts are forwarded to
+#             user space; where the controller supports pattern offload (MSFT / AOSP extensions)
+#             the filter runs in the controller and the host isn't even woken for the others.
+#             Needs BlueZ >= 5.56 with experimental features and kernel >= 5.10.
+#   filtered  active discovery with a BlueZ discovery filter: LE only, duplicates reported (the
+#             token changes but the address may not), the rest is dropped by ingest.py.
+#   active    plain active scan, what other bleak backends and very old BlueZ support.
+# The adapter is probed over D-Bus first so passive isn't attempted where the monitor manager
+# doesn't exist; a mode that fails to start falls through to the next one. The scanner factory and
+# the probe are parameters, so the whole chain runs against a fake adapter (tests/test_scanning.py).
+#
+# A host with several controllers (built-in plus USB dongles) scans on all of them at once,
+# start_scanners sets each one up as above, concurrently, and ingest.py merges their adverts.
+
+BLUEZ_SERVICE = "org.bluez"
+MONITOR_MANAGER_INTERFACE = "org.bluez.AdvertisementMonitorManager1"
+SCAN_MODES = ["passive", "filtered", "active"]
+ALL_ADAPTERS = "all"
+SYSFS_BLUETOOTH = "/sys/class/bluetooth"
+DISCOVERY_FILTER = {"Transport": "le", "DuplicateData": True}
+
+ScannerFactory = Callable[..., Any] # BleakScanner or a fake with the same start()/stop()
+
+
+class MonitorSupport(NamedTuple):
+    manager: bool # adapter has an AdvertisementMonitorManager1
+    or_patterns: bool # and it takes or_patterns monitors
+    offload: bool # controller filters the patterns itself
+
+
+NO_MONITOR = MonitorSupport(False, False, False)
+
+MonitorProbe = Callable[[Optional[str]], Awaitable[MonitorSupport]]
+
+
+async def probe_monitor_support(adapter: Optional[str], bus: Any = None) -> MonitorSupport:
+    """What the adapter's advertisement monitor manager offers, NO_MONITOR if anything fails."""
+    own_bus = bus is None
+    try:
+        if own_bus:
+            from dbus_fast import BusType
+            from dbus_fast.aio import MessageBus
+
+            bus = await MessageBus(bus_type=BusType.SYSTEM).connect()
+        path = f"/org/bluez/{adapter or 'hci0'}"
+        introspection = await bus.introspect(BLUEZ_SERVICE, path)
+        manager = bus.get_proxy_object(BLUEZ_SERVICE, path, introspection).get_interface(MONITOR_MANAGER_INTERFACE)
+        types = await manager.get_supported_monitor_types()
+        features = await manager.get_supported_features()
+        return MonitorSupport(True, "or_patterns" in types, "controller-patterns" in features)
+    except Exception:
+        return NO_MONITOR
+    finally:
+        if own_bus and bus is not None:
+            bus.disconnect()
+
+
+def service_data_pattern(service_uuid16: str) -> bytes:
+    """The bytes after the AD type of a 16-bit service data structure: the UUID, little endian."""
+    return int(service_uuid16, 16).to_bytes(2, "little")
+
+
+def scanner_kwargs(mode: str, service_uuid16: str, adapter: Optional[str]) -> Dict[str, Any]:
+    kwargs: Dict[str, Any] = {}
+    if adapter:
+        kwargs["adapter"] = adapter
+    if mode == "passive":
+        # imported here so the module also loads where bleak has no BlueZ backend
+        from bleak.assigned_numbers import AdvertisementDataType
+        from bleak.backends.bluezdbus.advertisement_monitor import OrPattern
+
+        pattern = OrPattern(0, AdvertisementDataType.SERVICE_DATA_UUID16, service_data_pattern(service_uuid16))
+        kwargs.update(scanning_mode="passive", bluez={"or_patterns": [pattern]})
+    elif mode == "filtered":
+        kwargs.update(scanning_mode="active", bluez={"filters": dict(DISCOVERY_FILTER)})
+    else:
+        kwargs.update(scanning_mode="active")
+    return kwargs
+
+
+def scan_plan(preferred: str, support: MonitorSupport) -> List[str]:
+    """Modes to try, best first, starting at `preferred` and skipping passive without a monitor."""
+    modes = SCAN_MODES[SCAN_MODES.index(preferred):]
+    if not support.or_patterns:
+        modes = [m for m in modes if m != "passive"]
+    return modes or ["active"]
+
+
+def describe(mode: str, support: MonitorSupport) -> str:
+    if mode == "passive":
+        return "passive, filtered in the controller" if support.offload else "passive, filtered by bluetoothd"
+    return {"filtered": "active, LE discovery filter", "active": "active, unfiltered"}[mode]
+
+
+async def start_scanner(
+    detection_callback: Callable,
+    service_uuid16: str,
+    adapter: Optional[str] = None,
+    preferred: str = "passive",
+    scanner_factory: ScannerFactory = BleakScanner,
+    probe: MonitorProbe = probe_monitor_support,
+) -> Tuple[Any, str]:
+    """
+    Starts the best scan the adapter supports, returns (scanner, mode). Raises the last start
+    error if no mode works.
+    """
+    support = await probe(adapter)
+    error: Optional[Exception] = None
+    for mode in scan_plan(preferred, support):
+        try:
+            scanner = scanner_factory(
+                detection_callback=detection_callback, **scanner_kwargs(mode, service_uuid16, adapter)
+            )
+            await scanner.start()
+        except Exception as e:
+            print(f"[Info] {mode} scan unavailable on {adapter or 'default adapter'}: {e}", flush=True)
+            error = e
+            continue
+        print(f"[Info] Scanning {adapter or 'default adapter'}: {describe(mode, support)}.", flush=True)
+        return scanner, mode
+    assert error is not None
+    raise error
+
+
+def list_adapters(sysfs: str = SYSFS_BLUETOOTH) -> List[str]:
+    """Controllers the kernel knows, hci0 first. Connections (hci0:12) are skipped."""
+    try:
+        names = [n for n in os.listdir(sysfs) if n.startswith("hci") and n[3:].isdigit()]
+    except OSError:
+        return []
+    return sorted(names, key=lambda n: int(n[3:]))
+
+
+def resolve_adapters(spec: Optional[str]) -> List[Optional[str]]:
+    """
+    "hci0,hci1" or "all". All is every controller found, or [None] (bleak's default adapter)
+    where none can be listed.
+    """
+    if not spec or spec.strip() == ALL_ADAPTERS:
+        return list_adapters() or [None]
+    return [a.strip() for a in spec.split(",") if a.strip()]
+
+
+async def start_scanners(
+    callback_for: Callable[[Optional[str]], Callable],
+    service_uuid16: str,
+    adapters: List[Optional[str]],
+    preferred: str = "passive",
+    scanner_factory: ScannerFactory = BleakScanner,
+    probe: MonitorProbe = probe_monitor_support,
+) -> List[Tuple[Optional[str], Any, str]]:
+    """
+    One scanner per adapter, all started at once, [(adapter, scanner, mode)] for those that
+    started. An adapter that fails is left out; raises the first error if none started.
+    """
+    results = await asyncio.gather(
+        *(
+            start_scanner(callback_for(a), service_uuid16, a, preferred, scanner_factory, probe)
+            for a in adapters
+        ),
+        return_exceptions=True,
+    )
+    started = []
+    errors = []
+    for adapter, result in zip(adapters, results):
+        if isinstance(result, BaseException):
+            print(f"[Error] No scan on {adapter or 'default adapter'}: {result}", flush=True)
+            errors.append(result)
+        else:
+            started.append((adapter, result[0], result[1]))
+    if not started:
+        raise errors[0]
+    return started
+
+
+async def stop_scanners(scanners: List[Tuple[Optional[str], Any, str]]) -> List[Exception]:
+    """Stops all of them, returns the errors instead of stopping at the first."""
+    results = await asyncio.gather(*(s.stop() for _, s, _ in scanners), return_exceptions=True)
+    return [r for r in results if isinstance(r, Exception)]
@@ -1,49 +1,236 @@
+#define _GNU_SOURCE
 #include <security/pam_modules.h>
-#include <security/pam_ext.h> 
+#include <security/pam_ext.h>
 #include <stdlib.h>
 #include <unistd.h>
 #include <sys/wait.h>
-#include <syslog.h> 
-#include <string.h> 
-#include <pwd.h>    
-#include <stdio.h>  
+#include <sys/socket.h>
+#include <sys/time.h>
+#include <sys/un.h>
+#include <sys/stat.h>
+#include <fcntl.h>
+#include <time.h>
+#include <syslog.h>
+#include <string.h>
+#include <errno.h>
+#include <pwd.h>
+#include <stdio.h>
 #define PYTHON_EXEC "/bin/python3"
 #define SCRIPT_PATH "/usr/local/lib/pam_authit/main.py"
+#define DAEMON_SOCKET_PATH "/run/authit/authitd.sock"
+#define DAEMON_TIMEOUT_MS 10000
+#define DAEMON_REPLY_SLACK_MS 2000
+#define DAEMON_PRESENT_TIMEOUT_MS 500
+#define GRACE_DIR_PARENT "/run/authit"
+#define GRACE_DIR "/run/authit/grace"
+#define GRACE_MAX_SECONDS 900
 
-PAM_EXTERN int pam_sm_authenticate(pam_handle_t *pamh, int flags, int argc, const char **argv) {
-    const char* username;
-    struct passwd *pwd;
-    pid_t pid;
-    int status;
+#define AUTH_OK 1
+#define AUTH_FAILED 0
+#define AUTH_UNAVAILABLE -1
 
-    if (pam_get_user(pamh, &username, NULL) != PAM_SUCCESS || !username) {
-        pam_syslog(pamh, LOG_ERR, "can't find any username.");
-        return PAM_AUTH_ERR;
+// Connect to authitd with send/receive timeouts, -1 if it isn't there or isn't root.
+static int daemon_connect(pam_handle_t *pamh, int timeout_ms) {
+    struct sockaddr_un addr;
+    struct ucred peer;
+    socklen_t peer_len = sizeof(peer);
+    struct timeval tv;
+    int fd;
+
+    fd = socket(AF_UNIX, SOCK_STREAM | SOCK_CLOEXEC, 0);
+    if (fd < 0) {
+        return -1;
     }
 
-    pwd = getpwnam(username);
-    if (pwd == NULL) {
-        pam_syslog(pamh, LOG_ERR, "could not find user details for '%s'.", username);
-        return PAM_AUTH_ERR;
+    memset(&addr, 0, sizeof(addr));
+    addr.sun_family = AF_UNIX;
+    strncpy(addr.sun_path, DAEMON_SOCKET_PATH, sizeof(addr.sun_path) - 1);
+    if (connect(fd, (struct sockaddr *)&addr, sizeof(addr)) != 0) {
+        close(fd);
+        return -1;
     }
 
-    if (strpbrk(username, ";&|<>`!$()\\") != NULL) {
-        pam_syslog(pamh, LOG_ERR, "username '%s' contains forbidden characters.", username);
-        return PAM_AUTH_ERR;
+    // only trust a daemon running as root
+    if (getsockopt(fd, SOL_SOCKET, SO_PEERCRED, &peer, &peer_len) != 0 || peer.uid != 0) {
+        pam_syslog(pamh, LOG_ERR, "authitd socket is not owned by a root process, ignoring it.");
+        close(fd);
+        return -1;
+    }
+
+    tv.tv_sec = timeout_ms / 1000;
+    tv.tv_usec = (timeout_ms % 1000) * 1000;
+    setsockopt(fd, SOL_SOCKET, SO_RCVTIMEO, &tv, sizeof(tv));
+    setsockopt(fd, SOL_SOCKET, SO_SNDTIMEO, &tv, sizeof(tv));
+    return fd;
+}
+
+// Ask authitd over its unix socket. AUTH_UNAVAILABLE means fall back to running the script.
+static int daemon_authenticate(pam_handle_t *pamh, const char *username) {
+    char request[320];
+    char reply[64];
+    size_t got = 0;
+    int fd;
+
+    fd = daemon_connect(pamh, DAEMON_TIMEOUT_MS + DAEMON_REPLY_SLACK_MS);
+    if (fd < 0) {
+        return AUTH_UNAVAILABLE;
+    }
+
+    int len = snprintf(request, sizeof(request), "AUTH %s %d\n", username, DAEMON_TIMEOUT_MS);
+    if (len < 0 || (size_t)len >= sizeof(request) || write(fd, request, len) != len) {
+        close(fd);
+        return AUTH_UNAVAILABLE;
+    }
+
+    while (got < sizeof(reply) - 1) {
+        ssize_t n = read(fd, reply + got, sizeof(reply) - 1 - got);
+        if (n > 0) {
+            got += n;
+            if (memchr(reply, '\n', got) != NULL) break;
+        } else if (n < 0 && errno == EINTR) {
+            continue;
+        } else if (n < 0 && (errno == EAGAIN || errno == EWOULDBLOCK)) {
+            close(fd);
+            pam_syslog(pamh, LOG_WARNING, "authitd did not answer in time for user '%s'.", username);
+            return AUTH_FAILED;
+        } else {
+            break;
+        }
     }
+    close(fd);
+    reply[got] = '\0';
+
+    if (strncmp(reply, "OK\n", 3) == 0) {
+        return AUTH_OK;
+    }
+    if (strncmp(reply, "NOUSER\n", 7) == 0 || got == 0) {
+        return AUTH_UNAVAILABLE;
+    }
+    reply[strcspn(reply, "\n")] = '\0';
+    pam_syslog(pamh, LOG_WARNING, "authitd refused user '%s': %s", username, reply);
+    return AUTH_FAILED;
+}
+
+// Whether authitd heard the user's phone in the last few seconds. Only a YES counts: without
+// the daemon nothing watches the phone, so a grace entry alone proves nothing about presence.
+static int daemon_present(pam_handle_t *pamh, const char *username) {
+    char request[320];
+    char reply[16];
+    ssize_t got;
+    int fd;
+
+    fd = daemon_connect(pamh, DAEMON_PRESENT_TIMEOUT_MS);
+    if (fd < 0) {
+        return 0;
+    }
+    int len = snprintf(request, sizeof(request), "PRESENT %s\n", username);
+    if (len < 0 || (size_t)len >= sizeof(request) || write(fd, request, len) != len) {
+        close(fd);
+        return 0;
+    }
+    do {
+        got = read(fd, reply, sizeof(reply) - 1);
+    } while (got < 0 && errno == EINTR);
+    close(fd);
+    return got >= 4 && strncmp(reply, "YES\n", 4) == 0;
+}
+
+// Grace cache, like sudo's timestamp: one empty file per user and TTY whose mtime is the last
+// successful proof. /run is tmpfs so it never outlives a reboot. An entry is only honoured while
+// authitd vouches that the phone is still around (daemon_present), and the daemon also deletes a
+// user's files as soon as their phone is no longer seen.
+static int grace_seconds(int argc, const char **argv) {
+    int seconds = 0;
+    for (int i = 0; i < argc; i++) {
+        if (strncmp(argv[i], "grace=", 6) == 0) {
+            seconds = atoi(argv[i] + 6);
+        }
+    }
+    if (seconds < 0) return 0;
+    return seconds > GRACE_MAX_SECONDS ? GRACE_MAX_SECONDS : seconds;
+}
+
+// Entry name "<user>@<tty>" with the tty's '/' flattened, e.g. "alice@pts_3".
+static int grace_entry_name(pam_handle_t *pamh, const char *username, char *name, size_t size) {
+    const void *item = NULL;
+    const char *tty;
+
+    if (pam_get_item(pamh, PAM_TTY, &item) != PAM_SUCCESS || item == NULL || *(const char *)item == '\0') {
+        return -1;
+    }
+    tty = item;
+    if (strncmp(tty, "/dev/", 5) == 0) tty += 5;
+    if (strchr(username, '/') != NULL || username[0] == '.') return -1;
+
+    int len = snprintf(name, size, "%s@%s", username, tty);
+    if (len < 0 || (size_t)len >= size) return -1;
+    for (char *c = name; *c; c++) {
+        if (*c == '/') *c = '_';
+    }
+    return 0;
+}
+
+// Open the grace directory, but only trust it if it is a root-owned directory nobody else can write.
+static int grace_dir_open(int create) {
+    struct stat st;
+    int fd;
+
+    if (create) {
+        mkdir(GRACE_DIR_PARENT, 0700);
+        mkdir(GRACE_DIR, 0700);
+    }
+    fd = open(GRACE_DIR, O_RDONLY | O_DIRECTORY | O_NOFOLLOW | O_CLOEXEC);
+    if (fd < 0) return -1;
+    if (fstat(fd, &st) != 0 || st.st_uid != 0 || (st.st_mode & (S_IWGRP | S_IWOTH)) != 0) {
+        close(fd);
+        return -1;
+    }
+    return fd;
+}
+
+static int grace_valid(const char *name, int seconds) {
+    struct stat st;
+    time_t now = time(NULL);
+    int dir = grace_dir_open(0);
+
+    if (dir < 0) return 0;
+    int found = fstatat(dir, name, &st, AT_SYMLINK_NOFOLLOW) == 0;
+    close(dir);
+
+    // a file from the future means the clock went back, don't trust it
+    return found && S_ISREG(st.st_mode) && st.st_uid == 0
+        && st.st_mtime <= now && now - st.st_mtime < seconds;
+}
+
+static void grace_record(pam_handle_t *pamh, const char *name) {
+    int dir = grace_dir_open(1);
+    if (dir < 0) return;
+
+    int fd = openat(dir, name, O_WRONLY | O_CREAT | O_NOFOLLOW | O_CLOEXEC, 0600);
+    if (fd < 0 || futimens(fd, NULL) != 0) {
+        pam_syslog(pamh, LOG_WARNING, "could not record grace entry '%s': %m", name);
+    }
+    if (fd >= 0) close(fd);
+    close(dir);
+}
+
+// Original path: run main.py as the user and wait for its exit status.
+static int script_authenticate(pam_handle_t *pamh, const char *username, struct passwd *pwd) {
+    pid_t pid;
+    int status;
 
     if (access(PYTHON_EXEC, X_OK) != 0) {
         pam_syslog(pamh, LOG_ERR, "python interpreter '%s' is not executable or does not exist.", PYTHON_EXEC);
-        return PAM_AUTH_ERR;
+        return AUTH_FAILED;
     }
 
     pid = fork();
     if (pid == -1) {
-        pam_syslog(pamh, LOG_ERR, "Failed to fork process: %m"); 
-        return PAM_AUTH_ERR;
+        pam_syslog(pamh, LOG_ERR, "Failed to fork process: %m");
+        return AUTH_FAILED;
     }
 
-    if (pid == 0) { 
+    if (pid == 0) {
         if (setgid(pwd->pw_gid) != 0) {
             pam_syslog(pamh, LOG_ERR, "could not set group ID for user %s", username);
             _exit(127);
@@ -54,10 +241,10 @@ PAM_EXTERN int pam_sm_authenticate(pam_handle_t *pamh, int flags, int argc, cons
         }
 
         char *const script_argv[] = { (char*)PYTHON_EXEC, (char*)SCRIPT_PATH, (char*)username, NULL };
-        
+
         char home_env[256];
         snprintf(home_env, sizeof(home_env), "HOME=%s", pwd->pw_dir);
-        
+
         char *const script_envp[] = {
             "PATH=/usr/bin:/bin",
             home_env,
@@ -65,24 +252,71 @@ PAM_EXTERN int pam_sm_authenticate(pam_handle_t *pamh, int flags, int argc, cons
         };
 
         execve(PYTHON_EXEC, script_argv, script_envp);
-        _exit(127); 
+        _exit(127);
     }
 
     if (waitpid(pid, &status, 0) == -1) {
         pam_syslog(pamh, LOG_ERR, "error waiting for the process: %m");
-        return PAM_AUTH_ERR;
+        return AUTH_FAILED;
     }
 
     if (WIFEXITED(status) && WEXITSTATUS(status) == 0) {
         pam_syslog(pamh, LOG_INFO, "script successfully authenticated user '%s'.", username);
-        return PAM_SUCCESS;
+        return AUTH_OK;
     } else {
         pam_syslog(pamh, LOG_WARNING, "script failed to auth user '%s' (exit status: %d).",
                    username, WEXITSTATUS(status));
+        return AUTH_FAILED;
+    }
+}
+
+PAM_EXTERN int pam_sm_authenticate(pam_handle_t *pamh, int flags, int argc, const char **argv) {
+    const char* username;
+    struct passwd *pwd;
+    int result;
+    int grace = grace_seconds(argc, argv);
+    char grace_name[256];
+
+    if (pam_get_user(pamh, &username, NULL) != PAM_SUCCESS || !username) {
+        pam_syslog(pamh, LOG_ERR, "can't find any username.");
+        return PAM_AUTH_ERR;
+    }
+
+    pwd = getpwnam(username);
+    if (pwd == NULL) {
+        pam_syslog(pamh, LOG_ERR, "could not find user details for '%s'.", username);
+        return PAM_AUTH_ERR;
+    }
+
+    if (strpbrk(username, ";&|<>`!$()\\ \t\n") != NULL) {
+        pam_syslog(pamh, LOG_ERR, "username '%s' contains forbidden characters.", username);
         return PAM_AUTH_ERR;
     }
+
+    if (grace > 0 && grace_entry_name(pamh, username, grace_name, sizeof(grace_name)) != 0) {
+        grace = 0;
+    }
+    if (grace > 0 && grace_valid(grace_name, grace) && daemon_present(pamh, username)) {
+        pam_syslog(pamh, LOG_INFO, "user '%s' is within the grace window, skipping scan.", username);
+        return PAM_SUCCESS;
+    }
+
+    result = daemon_authenticate(pamh, username);
+    if (result == AUTH_OK) {
+        pam_syslog(pamh, LOG_INFO, "authitd successfully authenticated user '%s'.", username);
+    } else if (result == AUTH_UNAVAILABLE) {
+        result = script_authenticate(pamh, username, pwd);
+    }
+
+    if (result != AUTH_OK) {
+        return PAM_AUTH_ERR;
+    }
+    if (grace > 0 && geteuid() == 0) {
+        grace_record(pamh, grace_name);
+    }
+    return PAM_SUCCESS;
 }
 
 PAM_EXTERN int pam_sm_setcred(pam_handle_t *pamh, int flags, int argc, const char **argv) {
     return PAM_SUCCESS;
-}
\ No newline at end of file
+}
@@ -0,0 +1,223 @@
+import os
+import tempfile
+from typing import Dict, List, Optional, Sequence, Tuple
+
+# Verifier telemetry in the Prometheus text format, standard library only.
+#
+# main.py runs once per authentication, so it merges its numbers into a text file after every run
+# (load the previous export, add, write it back). authitd keeps its registry in memory, answers
+# METRICS on its socket and can write the same kind of file. Point node_exporter's textfile
+# collector at the file, or cat it, to compare machines. Every series carries a `verifier` label
+# ("main" or "authitd") so both files can sit in one collector directory.
+
+SECONDS_BUCKETS = (0.05, 0.1, 0.2, 0.3, 0.5, 0.75, 1.0, 1.5, 2.0, 3.0, 5.0, 7.5, 10.0, 30.0)
+PACKET_BUCKETS = (1, 2, 3, 5, 10, 20, 50, 100, 200, 500, 1000)
+REJECT_REASONS = (
+    "rssi", # token fine, phone too far (below RSSI_THRESHOLD)
+    "repeat", # same advert again, the phone sends each token several times
+    "unanchored", # nothing to compare with yet, the token only anchors the window
+    "stale", # not in the expected window / v3 slot already used
+    "rollover", # not in the window while the phone clock is near a minute boundary
+    "mac", # v3 MAC wrong or slot too far from the phone clock
+    "decode", # not a token at all
+)
+
+
+def _format_labels(labels: Sequence[Tuple[str, str]]) -> str:
+    if not labels:
+        return ""
+    escaped = (v.replace("\\", "\\\\").replace('"', '\\"').replace("\n", "\\n") for _, v in labels)
+    return "{" + ",".join(f'{k}="{v}"' for (k, _), v in zip(labels, escaped)) + "}"
+
+
+def _format_value(value: float) -> str:
+    return str(int(value)) if float(value).is_integer() else repr(float(value))
+
+
+def _parse_sample(line: str) -> Optional[Tuple[str, Dict[str, str], float]]:
+    """(name, labels, value) of one exposition line we wrote ourselves, None for anything else."""
+    line = line.strip()
+    if not line or line.startswith("#"):
+        return None
+    series, _, value = line.rpartition(" ")
+    labels: Dict[str, str] = {}
+    name = series
+    if series.endswith("}") and "{" in series:
+        name, _, body = series[:-1].partition("{")
+        for pair in body.split('",'):
+            key, _, raw = pair.partition('="')
+            labels[key.strip(",")] = raw.rstrip('"')
+    try:
+        return name, labels, float(value)
+    except ValueError:
+        return None
+
+
+class Counter:
+    def __init__(self, name: str, help_text: str, label: Optional[str] = None) -> None:
+        self.name = name
+        self.help_text = help_text
+        self.label = label
+        self.values: Dict[str, float] = {}
+
+    def inc(self, label_value: str = "", amount: float = 1) -> None:
+        self.values[label_value] = self.values.get(label_value, 0) + amount
+
+    def get(self, label_value: str = "") -> float:
+        return self.values.get(label_value, 0)
+
+    def render(self, const: List[Tuple[str, str]]) -> List[str]:
+        lines = [f"# HELP {self.name} {self.help_text}", f"# TYPE {self.name} counter"]
+        for label_value, value in sorted(self.values.items()):
+            labels = const + ([(self.label, label_value)] if self.label else [])
+            lines.append(f"{self.name}{_format_labels(labels)} {_format_value(value)}")
+        return lines
+
+
+class Histogram:
+    def __init__(self, name: str, help_text: str, buckets: Sequence[float]) -> None:
+        self.name = name
+        self.help_text = help_text
+        self.bounds = tuple(buckets)
+        self.counts = [0] * (len(self.bounds) + 1) # per bucket, not cumulative; last one is +Inf
+        self.sum = 0.0
+
+    def observe(self, value: float) -> None:
+        for i, bound in enumerate(self.bounds):
+            if value <= bound:
+                self.counts[i] += 1
+                break
+        else:
+            self.counts[-1] += 1
+        self.sum += value
+
+    @property
+    def count(self) -> int:
+        return sum(self.counts)
+
+    def render(self, const: List[Tuple[str, str]]) -> List[str]:
+        lines = [f"# HELP {self.name} {self.help_text}", f"# TYPE {self.name} histogram"]
+        cumulative = 0
+        for bound, n in zip(self.bounds + (float("inf"),), self.counts):
+            cumulative += n
+            le = "+Inf" if bound == float("inf") else _format_value(bound)
+            lines.append(f"{self.name}_bucket{_format_labels(const + [('le', le)])} {cumulative}")
+        lines.append(f"{self.name}_sum{_format_labels(const)} {_format_value(self.sum)}")
+        lines.append(f"{self.name}_count{_format_labels(const)} {cumulative}")
+        return lines
+
+    def le_labels(self) -> List[str]:
+        return [_format_value(b) for b in self.bounds] + ["+Inf"]
+
+    def add_cumulative(self, by_le: Dict[str, float], total: float) -> None:
+        """Adds exported (cumulative) bucket counts back onto the per-bucket ones."""
+        previous = 0.0
+        for i, le in enumerate(self.le_labels()):
+            cumulative = by_le.get(le, previous)
+            self.counts[i] += int(cumulative - previous)
+            previous = cumulative
+        self.sum += total
+
+
+class Registry:
+    def __init__(self, verifier: str) -> None:
+        self.const = [("verifier", verifier)]
+        self.metrics: Dict[str, object] = {}
+
+    def counter(self, name: str, help_text: str, label: Optional[str] = None) -> Counter:
+        return self.metrics.setdefault(name, Counter(name, help_text, label))
+
+    def histogram(self, name: str, help_text: str, buckets: Sequence[float]) -> Histogram:
+        return self.metrics.setdefault(name, Histogram(name, help_text, buckets))
+
+    def render(self) -> str:
+        lines: List[str] = []
+        for metric in self.metrics.values():
+            lines.extend(metric.render(self.const))
+        return "\n".join(lines) + "\n"
+
+    def load_textfile(self, path: str) -> None:
+        """Adds the values of an earlier export of this registry, series we don't know are skipped."""
+        try:
+            with open(path, "r") as f:
+                lines = f.readlines()
+        except OSError:
+            return
+        buckets: Dict[str, Dict[str, float]] = {}
+        sums: Dict[str, float] = {}
+        for line in lines:
+            sample = _parse_sample(line)
+            if sample is None:
+                continue
+            name, labels, value = sample
+            if labels.get("verifier") != self.const[0][1]:
+                continue
+            metric = self.metrics.get(name)
+            if isinstance(metric, Counter):
+                metric.inc(labels.get(metric.label, "") if metric.label else "", value)
+            elif name.endswith("_bucket") and isinstance(self.metrics.get(name[:-7]), Histogram):
+                buckets.setdefault(name[:-7], {})[labels.get("le", "")] = value
+            elif name.endswith("_sum") and isinstance(self.metrics.get(name[:-4]), Histogram):
+                sums[name[:-4]] = value
+        for name, by_le in buckets.items():
+            self.metrics[name].add_cumulative(by_le, sums.get(name, 0.0))
+
+    def write_textfile(self, path: str) -> None:
+        """Written to a temporary file and renamed, a collector never reads half a file."""
+        directory = os.path.dirname(path) or "."
+        fd, tmp_path = tempfile.mkstemp(prefix=".metrics-", dir=directory)
+        try:
+            with os.fdopen(fd, "w") as f:
+                f.write(self.render())
+            os.chmod(tmp_path, 0o644)
+            os.replace(tmp_path, path)
+        except OSError:
+            try:
+                os.remove(tmp_path)
+            except OSError:
+                pass
+            raise
+
+
+class VerifierTelemetry:
+    """The series both verifiers record, so main.py and authitd export the same names."""
+
+    def __init__(self, verifier: str) -> None:
+        self.registry = Registry(verifier)
+        self.first_advert = self.registry.histogram(
+            "authit_time_to_first_advert_seconds",
+            "Time from the start of an authentication to the first Auth-It advert heard.",
+            SECONDS_BUCKETS,
+        )
+        self.match = self.registry.histogram(
+            "authit_time_to_match_seconds",
+            "Time from the start of an authentication to the accepted token.",
+            SECONDS_BUCKETS,
+        )
+        self.packets = self.registry.histogram(
+            "authit_packets_per_auth", "Auth-It adverts heard during one authentication.", PACKET_BUCKETS
+        )
+        self.adverts = self.registry.counter("authit_adverts_total", "Auth-It adverts heard.")
+        self.rejections = self.registry.counter(
+            "authit_rejections_total", "Adverts not accepted, by reason.", label="reason"
+        )
+        self.results = self.registry.counter(
+            "authit_auth_total", "Finished authentications, by result.", label="result"
+        )
+        self.errors = self.registry.counter(
+            "authit_errors_total", "Exceptions while processing an advert, by type.", label="type"
+        )
+        self.scanner_starts = self.registry.counter(
+            "authit_scanner_starts_total", "Scanners started, by scan mode (see scanning.py).", label="mode"
+        )
+        self.adapter_adverts = self.registry.counter(
+            "authit_adapter_adverts_total",
+            "Adverts passed on to the matcher, by the adapter that heard them first or loudest.",
+            label="adapter",
+        )
+
+    def reject(self, reason: str) -> None:
+        self.rejections.inc(reason)
+
+    def render(self) -> str:
+        return self.registry.render()
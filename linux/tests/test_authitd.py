@@ -0,0 +1,59 @@
+import os
+import sys
+import tempfile
+import unittest
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from authitd import AuthDaemon, UserState
+from main import KEYED_MAX_STEP_SECONDS, RSSI_THRESHOLD
+from test_verifier import BASE_SLOT, OURS, slot_time, v2_adverts, v3_advert
+
+# authitd's matching on one enrolled user, no socket or scanner. An advert from a phone out of
+# range must not move the user's clock offset or use up a v3 slot.
+
+NEAR = RSSI_THRESHOLD + 10
+FAR = RSSI_THRESHOLD - 10
+
+
+class MatchTest(unittest.TestCase):
+    def setUp(self) -> None:
+        directory = tempfile.TemporaryDirectory()
+        self.addCleanup(directory.cleanup)
+        self.daemon = AuthDaemon(socket_path=os.path.join(directory.name, "authitd.sock"))
+        self.user = UserState("alice", OURS, 0.0)
+        self.daemon.users["alice"] = self.user
+
+    def test_far_v3_changes_nothing(self) -> None:
+        slot = BASE_SLOT + 5 # ahead of the estimate, a match would move the offset
+        self.daemon._process_auth_data(v3_advert(OURS, slot), FAR, slot_time(BASE_SLOT))
+        self.assertEqual(self.user.clock_offset.last_keyed_slot, -1)
+        self.assertEqual(self.user.clock_offset.value, 0.0)
+        self.assertEqual(self.user.last_seen, 0.0)
+
+        # the same slot still passes once the phone comes close
+        self.daemon._process_auth_data(v3_advert(OURS, slot), NEAR, slot_time(BASE_SLOT))
+        self.assertEqual(self.user.clock_offset.last_keyed_slot, slot)
+        self.assertEqual(self.user.last_seen, slot_time(BASE_SLOT))
+        self.assertLessEqual(self.user.clock_offset.value, KEYED_MAX_STEP_SECONDS)
+
+    def test_used_v3_slot_is_refused(self) -> None:
+        advert = v3_advert(OURS, BASE_SLOT)
+        self.daemon._process_auth_data(advert, NEAR, slot_time(BASE_SLOT))
+        self.user.last_seen = 0.0
+        self.daemon._process_auth_data(advert, NEAR, slot_time(BASE_SLOT) + 0.1)
+        self.assertEqual(self.user.last_seen, 0.0)
+
+    def test_far_chain_match_keeps_the_offset(self) -> None:
+        ours = v2_adverts(OURS, BASE_SLOT, 3)
+        self.daemon._process_auth_data(ours[0], NEAR, slot_time(BASE_SLOT))
+        before = self.user.clock_offset.value
+        self.daemon._process_auth_data(ours[1], FAR, slot_time(BASE_SLOT + 1) + 1.5) # late, within the window TTL
+        self.assertEqual(self.user.clock_offset.value, before)
+        self.assertEqual(self.user.last_seen, 0.0)
+        self.daemon._process_auth_data(ours[2], NEAR, slot_time(BASE_SLOT + 2))
+        self.assertEqual(self.user.last_seen, slot_time(BASE_SLOT + 2))
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,111 @@
+import asyncio
+import contextlib
+import io
+import os
+import sys
+import unittest
+from typing import List, Optional
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from beacon import BEACON_SERVICE_UUID, BEACON_VERSION, BeaconEmitter, BeaconRadio
+
+
+class FakeBeaconRadio(BeaconRadio):
+    def __init__(self) -> None:
+        self.calls: List[str] = []
+        self.on_air = False
+        self.fail_next: Optional[Exception] = None
+        self.gate: Optional[asyncio.Event] = None # when set, start() waits for it
+
+    async def start(self, service_uuid: str, service_data: bytes) -> None:
+        assert service_uuid == BEACON_SERVICE_UUID and service_data == bytes([BEACON_VERSION])
+        if self.gate is not None:
+            await self.gate.wait()
+        self.calls.append("start")
+        if self.fail_next is not None:
+            error, self.fail_next = self.fail_next, None
+            raise error
+        self.on_air = True
+
+    async def stop(self) -> None:
+        self.calls.append("stop")
+        self.on_air = False
+
+
+async def settle() -> None:
+    for _ in range(5):
+        await asyncio.sleep(0)
+
+
+class BeaconEmitterTest(unittest.IsolatedAsyncioTestCase):
+    def setUp(self) -> None:
+        self.radio = FakeBeaconRadio()
+        self.emitter = BeaconEmitter(self.radio)
+
+    async def test_overlapping_requests_keep_one_beacon_on_air(self) -> None:
+        self.emitter.request_started()
+        await settle()
+        self.emitter.request_started()
+        await settle()
+        self.emitter.request_finished()
+        await settle()
+        self.assertTrue(self.radio.on_air)
+        self.emitter.request_finished()
+        await settle()
+        self.assertFalse(self.radio.on_air)
+        self.assertEqual(self.radio.calls, ["start", "stop"])
+
+    async def test_request_over_before_the_radio_ran_costs_nothing(self) -> None:
+        self.emitter.request_started()
+        self.emitter.request_finished()
+        await settle()
+        self.assertEqual(self.radio.calls, [])
+
+    async def test_requests_changing_during_a_start_are_caught_up(self) -> None:
+        self.radio.gate = asyncio.Event()
+        self.emitter.request_started()
+        await settle()
+        self.emitter.request_finished() # while start() is still waiting on BlueZ
+        self.radio.gate.set()
+        await settle()
+        self.assertEqual(self.radio.calls, ["start", "stop"])
+        self.assertFalse(self.radio.on_air)
+        self.assertFalse(self.emitter.on_air)
+
+    async def test_radio_error_is_retried_with_the_next_request(self) -> None:
+        self.radio.fail_next = RuntimeError("org.bluez.Error.Failed")
+        with contextlib.redirect_stdout(io.StringIO()) as out:
+            self.emitter.request_started()
+            await settle()
+        self.assertIn("[Error] Beacon failed", out.getvalue())
+        self.assertFalse(self.emitter.on_air)
+
+        self.emitter.request_started()
+        await settle()
+        self.assertEqual(self.radio.calls, ["start", "start"])
+        self.assertTrue(self.radio.on_air)
+
+    async def test_close_takes_the_beacon_off_air(self) -> None:
+        self.emitter.request_started()
+        self.emitter.request_started()
+        await settle()
+        await self.emitter.close()
+        self.assertFalse(self.radio.on_air)
+        self.assertEqual(self.emitter.open_requests, 0)
+        self.assertEqual(self.radio.calls, ["start", "stop"])
+
+    async def test_close_waits_for_a_start_in_progress(self) -> None:
+        self.radio.gate = asyncio.Event()
+        self.emitter.request_started()
+        await settle()
+        closing = asyncio.create_task(self.emitter.close())
+        await settle()
+        self.radio.gate.set()
+        await closing
+        self.assertFalse(self.radio.on_air)
+        self.assertEqual(self.radio.calls, ["start", "stop"])
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,160 @@
+import asyncio
+import os
+import sys
+import unittest
+from typing import Dict, List, NamedTuple, Optional
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from ingest import AdvertIngest, Batch, RecentPayloads, service_uuid_128
+from main import AUTH_SERVICE_UUID, RSSI_THRESHOLD
+
+KEY = service_uuid_128(AUTH_SERVICE_UUID)
+NEAR = RSSI_THRESHOLD + 10
+FAR = RSSI_THRESHOLD - 10
+MERGE = 0.02
+
+
+class FakeAdvert(NamedTuple):
+    """The two fields of bleak's AdvertisementData the callbacks read."""
+    service_data: Dict[str, bytes]
+    rssi: int
+
+
+def token(n: int) -> bytes:
+    return f"{n:020x}".encode()
+
+
+class Sink:
+    def __init__(self) -> None:
+        self.batches: List[Batch] = []
+
+    def __call__(self, batch: Batch) -> None:
+        self.batches.append(batch)
+
+    @property
+    def adverts(self) -> Batch:
+        return [advert for batch in self.batches for advert in batch]
+
+
+class FilterTest(unittest.TestCase):
+    def setUp(self) -> None:
+        self.sink = Sink()
+        self.ingest = AdvertIngest(AUTH_SERVICE_UUID, self.sink)
+
+    def test_only_our_service_data_passes(self) -> None:
+        self.ingest.detection_callback(None, FakeAdvert({}, NEAR))
+        self.ingest.detection_callback(None, FakeAdvert({service_uuid_128("feaa"): b"eddystone"}, NEAR))
+        self.ingest.detection_callback(None, FakeAdvert({KEY.upper(): token(1)}, NEAR)) # bleak normalizes, no lowering
+        self.ingest.detection_callback(None, FakeAdvert({service_uuid_128("feaa"): b"x", KEY: token(2)}, NEAR))
+        self.assertEqual(self.sink.adverts, [(token(2), NEAR)])
+        self.assertEqual((self.ingest.seen, self.ingest.filtered), (4, 3))
+
+    def test_repeats_are_dropped_before_parsing(self) -> None:
+        for _ in range(3):
+            self.ingest.push(token(1), NEAR)
+        self.ingest.push(token(2), NEAR)
+        self.assertEqual(self.sink.adverts, [(token(1), NEAR), (token(2), NEAR)])
+        self.assertEqual(self.ingest.duplicates, 2)
+
+    def test_recent_payloads_forget_the_oldest(self) -> None:
+        recent = RecentPayloads(2)
+        self.assertFalse(recent.seen(b"a"))
+        self.assertFalse(recent.seen(b"b"))
+        self.assertTrue(recent.seen(b"a"))
+        self.assertFalse(recent.seen(b"c")) # evicts a
+        self.assertFalse(recent.seen(b"a"))
+
+
+class BatchTest(unittest.IsolatedAsyncioTestCase):
+    async def test_adverts_of_one_iteration_go_out_together(self) -> None:
+        sink = Sink()
+        ingest = AdvertIngest(AUTH_SERVICE_UUID, sink, batch_size=4)
+        for n in range(6):
+            ingest.push(token(n), NEAR)
+        self.assertEqual([len(b) for b in sink.batches], [4]) # full batch right away
+        await asyncio.sleep(0)
+        self.assertEqual([len(b) for b in sink.batches], [4, 2])
+        self.assertEqual(ingest.batches, 2)
+
+
+class MergeTest(unittest.IsolatedAsyncioTestCase):
+    def setUp(self) -> None:
+        self.sink = Sink()
+        self.passed: List[Optional[str]] = []
+        self.ingest = AdvertIngest(
+            AUTH_SERVICE_UUID, self.sink, on_pass=self.passed.append, hold_below=RSSI_THRESHOLD, merge_seconds=MERGE
+        )
+
+    def hear(self, adapter: str, n: int, rssi: int) -> None:
+        self.ingest.callback_for(adapter)(None, FakeAdvert({KEY: token(n)}, rssi))
+
+    async def settle(self) -> None:
+        await asyncio.sleep(MERGE * 3)
+
+    async def test_copies_from_every_adapter_come_out_once(self) -> None:
+        for adapter in ("hci0", "hci1", "hci2"):
+            self.hear(adapter, 1, NEAR)
+            self.hear(adapter, 2, FAR)
+        await self.settle()
+        self.assertEqual(sorted(t for t, _ in self.sink.adverts), [token(1), token(2)])
+        self.assertEqual(self.ingest.duplicates, 4)
+
+    async def test_first_adapter_close_enough_wins(self) -> None:
+        self.hear("hci1", 1, NEAR)
+        self.hear("hci0", 1, NEAR + 5) # louder, but the token already went out
+        await asyncio.sleep(0)
+        self.assertEqual(self.sink.adverts, [(token(1), NEAR)])
+        self.assertEqual(self.passed, ["hci1"])
+        await self.settle()
+        self.assertEqual(len(self.sink.adverts), 1)
+
+    async def test_far_copy_is_held_for_the_best_rssi(self) -> None:
+        self.hear("hci0", 1, FAR)
+        self.hear("hci1", 1, FAR + 3)
+        self.hear("hci2", 1, FAR - 5)
+        await asyncio.sleep(0)
+        self.assertEqual(self.sink.adverts, []) # still held
+        await self.settle()
+        self.assertEqual(self.sink.adverts, [(token(1), FAR + 3)])
+        self.assertEqual(self.passed, ["hci1"])
+        self.assertEqual(self.ingest.upgraded, 1)
+
+    async def test_louder_copy_close_enough_releases_at_once(self) -> None:
+        self.hear("hci0", 1, FAR)
+        self.hear("hci1", 1, NEAR)
+        await asyncio.sleep(0)
+        self.assertEqual(self.sink.adverts, [(token(1), NEAR)])
+        self.assertEqual(self.passed, ["hci1"])
+        self.hear("hci2", 1, NEAR + 5) # after release it's a plain repeat
+        await self.settle()
+        self.assertEqual(len(self.sink.adverts), 1)
+
+    async def test_held_adverts_leave_in_first_heard_order(self) -> None:
+        self.hear("hci0", 1, FAR)
+        self.hear("hci0", 2, FAR - 5)
+        self.hear("hci0", 3, FAR)
+        self.hear("hci1", 2, FAR + 2) # upgraded, keeps its place
+        self.hear("hci1", 4, NEAR) # close enough, doesn't wait for the held ones
+        await self.settle()
+        self.assertEqual(
+            self.sink.adverts, [(token(4), NEAR), (token(1), FAR), (token(2), FAR + 2), (token(3), FAR)]
+        )
+
+    async def test_single_adapter_holds_nothing(self) -> None:
+        ingest = AdvertIngest(AUTH_SERVICE_UUID, self.sink)
+        ingest.callback_for("hci0")(None, FakeAdvert({KEY: token(1)}, FAR))
+        await asyncio.sleep(0)
+        self.assertEqual(self.sink.adverts, [(token(1), FAR)])
+
+
+class NoLoopTest(unittest.TestCase):
+    def test_without_a_loop_nothing_is_held_or_queued(self) -> None:
+        sink = Sink()
+        ingest = AdvertIngest(AUTH_SERVICE_UUID, sink, hold_below=RSSI_THRESHOLD)
+        ingest.push(token(1), FAR, "hci0")
+        self.assertEqual(sink.adverts, [(token(1), FAR)])
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,250 @@
+import asyncio
+import contextlib
+import io
+import os
+import sys
+import tempfile
+import unittest
+from typing import Dict, List, Optional
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from main import AUTH_SERVICE_UUID
+from scanning import (
+    MONITOR_MANAGER_INTERFACE,
+    NO_MONITOR,
+    MonitorSupport,
+    describe,
+    list_adapters,
+    probe_monitor_support,
+    resolve_adapters,
+    scan_plan,
+    start_scanner,
+    start_scanners,
+    stop_scanners,
+)
+
+# scanning.py against fake BlueZ adapters, no controller or bluetoothd needed. Each adapter is a
+# mocked D-Bus object (what the advertisement monitor manager reports) plus the scan modes it
+# refuses to start.
+
+
+class FakeMonitorManager:
+    def __init__(self, types: List[str], features: List[str]) -> None:
+        self.types = types
+        self.features = features
+
+    async def get_supported_monitor_types(self) -> List[str]:
+        return self.types
+
+    async def get_supported_features(self) -> List[str]:
+        return self.features
+
+
+class FakeAdapterObject:
+    def __init__(self, manager: Optional[FakeMonitorManager]) -> None:
+        self.manager = manager
+
+    def get_interface(self, name: str) -> FakeMonitorManager:
+        if name != MONITOR_MANAGER_INTERFACE or self.manager is None:
+            raise LookupError(f"interface not found: {name}")
+        return self.manager
+
+
+class FakeBus:
+    """The three MessageBus calls probe_monitor_support makes."""
+
+    def __init__(self, manager: Optional[FakeMonitorManager]) -> None:
+        self.manager = manager
+        self.paths: List[str] = []
+
+    async def introspect(self, service: str, path: str) -> str:
+        self.paths.append(path)
+        return "<node/>"
+
+    def get_proxy_object(self, service: str, path: str, introspection: str) -> FakeAdapterObject:
+        return FakeAdapterObject(self.manager)
+
+
+class FakeScanner:
+    def __init__(self, refuse: List[str], started: List[Dict], **kwargs) -> None:
+        self.refuse = refuse
+        self.started = started
+        self.kwargs = kwargs
+        self.stopped = False
+
+    async def start(self) -> None:
+        mode = self.kwargs["scanning_mode"]
+        if mode == "active" and "bluez" in self.kwargs:
+            mode = "filtered"
+        if mode in self.refuse:
+            raise RuntimeError(f"adapter refuses {mode}")
+        self.started.append(self.kwargs)
+
+    async def stop(self) -> None:
+        self.stopped = True
+
+
+# name: (monitor types, monitor features or None for no manager, refused modes, expected mode)
+ADAPTERS = {
+    "offload": (["or_patterns"], ["controller-patterns"], [], "passive"),
+    "monitor": (["or_patterns"], [], [], "passive"),
+    "no-monitor": (None, None, [], "filtered"),
+    "no-patterns": ([], [], [], "filtered"),
+    "experimental-off": (["or_patterns"], [], ["passive"], "filtered"),
+    "old-bluez": (None, None, ["filtered"], "active"),
+}
+
+
+def fake_bus(name: str) -> FakeBus:
+    types, features, _, _ = ADAPTERS[name]
+    return FakeBus(None if types is None else FakeMonitorManager(types, features))
+
+
+class StartScannerTest(unittest.IsolatedAsyncioTestCase):
+    async def start(self, name: str, preferred: str = "passive", refuse: Optional[List[str]] = None):
+        bus = fake_bus(name)
+        started: List[Dict] = []
+        refuse = ADAPTERS[name][2] if refuse is None else refuse
+        with contextlib.redirect_stdout(io.StringIO()):
+            scanner, mode = await start_scanner(
+                lambda *_: None,
+                AUTH_SERVICE_UUID,
+                adapter=name,
+                preferred=preferred,
+                scanner_factory=lambda **kwargs: FakeScanner(refuse, started, **kwargs),
+                probe=lambda adapter: probe_monitor_support(adapter, bus),
+            )
+        return scanner, mode, started, bus
+
+    async def test_each_adapter_ends_up_in_its_mode(self) -> None:
+        for name, (_, _, _, expected) in ADAPTERS.items():
+            with self.subTest(adapter=name):
+                scanner, mode, started, bus = await self.start(name)
+                self.assertEqual(mode, expected)
+                self.assertEqual(len(started), 1)
+                self.assertIs(started[0], scanner.kwargs)
+                self.assertEqual(started[0]["adapter"], name)
+                self.assertEqual(bus.paths, [f"/org/bluez/{name}"])
+
+    async def test_passive_matches_our_service_data(self) -> None:
+        _, mode, started, _ = await self.start("monitor")
+        self.assertEqual(mode, "passive")
+        self.assertEqual(started[0]["scanning_mode"], "passive")
+        pattern = started[0]["bluez"]["or_patterns"][0]
+        self.assertEqual((pattern[0], int(pattern[1]), bytes(pattern[2])), (0, 0x16, b"\xf0\xff"))
+
+    async def test_filtered_asks_for_le_with_duplicates(self) -> None:
+        _, mode, started, _ = await self.start("no-monitor")
+        self.assertEqual(mode, "filtered")
+        self.assertEqual(started[0]["scanning_mode"], "active")
+        self.assertEqual(started[0]["bluez"], {"filters": {"Transport": "le", "DuplicateData": True}})
+
+    async def test_active_has_no_bluez_arguments(self) -> None:
+        _, mode, started, _ = await self.start("old-bluez")
+        self.assertEqual(mode, "active")
+        self.assertNotIn("bluez", started[0])
+
+    async def test_preferred_mode_skips_better_ones(self) -> None:
+        _, mode, _, _ = await self.start("offload", preferred="filtered")
+        self.assertEqual(mode, "filtered")
+        _, mode, _, _ = await self.start("offload", preferred="active")
+        self.assertEqual(mode, "active")
+
+    async def test_last_error_is_raised_when_no_mode_starts(self) -> None:
+        with self.assertRaisesRegex(RuntimeError, "refuses active"):
+            await self.start("offload", refuse=["passive", "filtered", "active"])
+
+
+class ProbeTest(unittest.IsolatedAsyncioTestCase):
+    async def test_monitor_support_per_adapter(self) -> None:
+        expected = {
+            "offload": MonitorSupport(True, True, True),
+            "monitor": MonitorSupport(True, True, False),
+            "no-monitor": NO_MONITOR,
+            "no-patterns": MonitorSupport(True, False, False),
+        }
+        for name, support in expected.items():
+            with self.subTest(adapter=name):
+                self.assertEqual(await probe_monitor_support(name, fake_bus(name)), support)
+
+    async def test_default_adapter_is_hci0(self) -> None:
+        bus = fake_bus("monitor")
+        await probe_monitor_support(None, bus)
+        self.assertEqual(bus.paths, ["/org/bluez/hci0"])
+
+
+class PlanTest(unittest.TestCase):
+    def test_passive_needs_or_patterns(self) -> None:
+        self.assertEqual(scan_plan("passive", MonitorSupport(True, True, False)), ["passive", "filtered", "active"])
+        self.assertEqual(scan_plan("passive", MonitorSupport(True, False, False)), ["filtered", "active"])
+        self.assertEqual(scan_plan("passive", NO_MONITOR), ["filtered", "active"])
+        self.assertEqual(scan_plan("filtered", MonitorSupport(True, True, True)), ["filtered", "active"])
+        self.assertEqual(scan_plan("active", NO_MONITOR), ["active"])
+
+    def test_describe_says_where_the_filter_runs(self) -> None:
+        self.assertIn("controller", describe("passive", MonitorSupport(True, True, True)))
+        self.assertIn("bluetoothd", describe("passive", MonitorSupport(True, True, False)))
+        self.assertIn("unfiltered", describe("active", NO_MONITOR))
+
+
+class AdapterListTest(unittest.TestCase):
+    def test_controllers_sorted_connections_skipped(self) -> None:
+        with tempfile.TemporaryDirectory() as sysfs:
+            for name in ("hci10", "hci1", "hci0", "hci0:12", "rfkill0"):
+                os.mkdir(os.path.join(sysfs, name))
+            self.assertEqual(list_adapters(sysfs), ["hci0", "hci1", "hci10"])
+
+    def test_no_sysfs_is_no_adapters(self) -> None:
+        self.assertEqual(list_adapters("/nonexistent/bluetooth"), [])
+
+    def test_explicit_list(self) -> None:
+        self.assertEqual(resolve_adapters("hci0, hci2,"), ["hci0", "hci2"])
+
+
+class StartScannersTest(unittest.IsolatedAsyncioTestCase):
+    async def test_failing_adapter_is_left_out(self) -> None:
+        started: List[Dict] = []
+        refuse = {"hci0": [], "hci1": ["passive", "filtered", "active"], "hci2": []}
+
+        def factory(**kwargs):
+            return FakeScanner(refuse[kwargs["adapter"]], started, **kwargs)
+
+        async def probe(adapter: Optional[str]) -> MonitorSupport:
+            return NO_MONITOR
+
+        with contextlib.redirect_stdout(io.StringIO()) as out:
+            scanners = await start_scanners(
+                lambda adapter: None, AUTH_SERVICE_UUID, ["hci0", "hci1", "hci2"], "passive", factory, probe
+            )
+        self.assertEqual([(a, m) for a, _, m in scanners], [("hci0", "filtered"), ("hci2", "filtered")])
+        self.assertIn("[Error] No scan on hci1", out.getvalue())
+        self.assertEqual(await stop_scanners(scanners), [])
+        self.assertTrue(all(s.stopped for _, s, _ in scanners))
+
+    async def test_no_adapter_started_raises(self) -> None:
+        async def probe(adapter: Optional[str]) -> MonitorSupport:
+            return NO_MONITOR
+
+        with contextlib.redirect_stdout(io.StringIO()), self.assertRaises(RuntimeError):
+            await start_scanners(
+                lambda adapter: None,
+                AUTH_SERVICE_UUID,
+                ["hci0", "hci1"],
+                scanner_factory=lambda **kwargs: FakeScanner(["filtered", "active"], [], **kwargs),
+                probe=probe,
+            )
+
+    async def test_stop_errors_are_collected(self) -> None:
+        class Failing:
+            async def stop(self) -> None:
+                raise RuntimeError("gone")
+
+        scanners = [("hci0", Failing(), "active"), ("hci1", FakeScanner([], []), "active")]
+        errors = await stop_scanners(scanners)
+        self.assertEqual([str(e) for e in errors], ["gone"])
+        self.assertTrue(scanners[1][1].stopped)
+
+
+if __name__ == "__main__":
+    unittest.main()
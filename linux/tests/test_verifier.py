@@ -0,0 +1,208 @@
+import os
+import sys
+import tempfile
+import unittest
+from typing import List
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from main import (
+    KEYED_MAX_STEP_SECONDS,
+    KEYED_WINDOW_SLOTS,
+    MAX_WINDOWS,
+    PREDICTION_LENGTH,
+    RSSI_THRESHOLD,
+    SLOT_MILLIS,
+    TOKEN_V2,
+    TOKEN_V2_MAC_LENGTH,
+    TOKEN_V3,
+    WINDOW_TTL_SECONDS,
+    ClockOffset,
+    TokenVerifier,
+    minute_material,
+    next_token,
+    slot_mac,
+    slot_minute,
+)
+
+# main.py's TokenVerifier against phones built from the same chain functions. Our phone's adverts
+# are interleaved with other phones in range, which must not push our window out.
+
+OURS = "a" * 128
+THEIRS = ["b" * 128, "c" * 128]
+NEAR = RSSI_THRESHOLD + 10
+FAR = RSSI_THRESHOLD - 10
+BASE_SLOT = 8_500_000_200 + 150 # half way through a UTC minute, away from the rollover
+
+
+def slot_time(slot: int) -> float:
+    return slot * SLOT_MILLIS / 1000.0 + 0.05
+
+
+def v2_adverts(secret: str, first_slot: int, count: int) -> List[bytes]:
+    """What a v2 phone sends for `count` slots, its chain started at `first_slot`."""
+    adverts = []
+    current = secret[:PREDICTION_LENGTH]
+    for slot in range(first_slot, first_slot + count):
+        digest = next_token(current, minute_material(secret, slot_minute(slot)), TOKEN_V2_MAC_LENGTH * 2)
+        adverts.append(bytes([TOKEN_V2]) + (slot % 2**32).to_bytes(4, "big") + bytes.fromhex(digest))
+        current = digest[:PREDICTION_LENGTH]
+    return adverts
+
+
+def v1_adverts(secret: str, first_slot: int, count: int) -> List[bytes]:
+    adverts = []
+    current = secret[:PREDICTION_LENGTH]
+    for slot in range(first_slot, first_slot + count):
+        current = next_token(current, minute_material(secret, slot_minute(slot)))
+        adverts.append(current.encode())
+    return adverts
+
+
+def v3_advert(secret: str, slot: int) -> bytes:
+    return bytes([TOKEN_V3]) + (slot % 2**32).to_bytes(4, "big") + bytes.fromhex(slot_mac(secret).key(slot))
+
+
+class InterleavedTest(unittest.TestCase):
+    def setUp(self) -> None:
+        self.verifier = TokenVerifier(OURS)
+
+    def _run(self, make, rssi_theirs: int) -> None:
+        ours = make(OURS, BASE_SLOT, 20)
+        theirs = [make(secret, BASE_SLOT - 40 * (i + 1), 60) for i, secret in enumerate(THEIRS)]
+        for i, advert in enumerate(ours):
+            slot = BASE_SLOT + i
+            accepted = self.verifier.feed(advert, NEAR, slot_time(slot))
+            if i == 0:
+                self.assertFalse(accepted)
+                self.assertEqual(self.verifier.reject_reason, "unanchored")
+            else:
+                self.assertTrue(accepted, f"slot {i} refused: {self.verifier.reject_reason}")
+            for phone in theirs:
+                self.assertFalse(self.verifier.feed(phone[i], rssi_theirs, slot_time(slot) + 0.01))
+
+    def test_v2_other_phones_in_range(self) -> None:
+        self._run(v2_adverts, NEAR)
+
+    def test_v2_other_phones_out_of_range(self) -> None:
+        self._run(v2_adverts, FAR)
+
+    def test_v1_other_phones_in_range(self) -> None:
+        self._run(v1_adverts, NEAR)
+
+    def test_foreign_token_is_refused_as_stale(self) -> None:
+        ours = v2_adverts(OURS, BASE_SLOT, 2)
+        theirs = v2_adverts(THEIRS[0], BASE_SLOT, 1)
+        self.verifier.feed(ours[0], NEAR, slot_time(BASE_SLOT))
+        self.assertFalse(self.verifier.feed(theirs[0], NEAR, slot_time(BASE_SLOT)))
+        self.assertEqual(self.verifier.reject_reason, "stale")
+        self.assertEqual(len(self.verifier.windows), 2)
+        self.assertTrue(self.verifier.feed(ours[1], NEAR, slot_time(BASE_SLOT + 1)))
+        self.assertEqual(len(self.verifier.windows), 1) # the match dropped the foreign window
+
+
+class AnchorTest(unittest.TestCase):
+    def setUp(self) -> None:
+        self.verifier = TokenVerifier(OURS)
+        self.ours = v2_adverts(OURS, BASE_SLOT, 20)
+
+    def test_lost_adverts_within_the_lookahead(self) -> None:
+        self.verifier.feed(self.ours[0], NEAR, slot_time(BASE_SLOT))
+        self.assertTrue(self.verifier.feed(self.ours[5], NEAR, slot_time(BASE_SLOT + 5)))
+        self.assertFalse(self.verifier.feed(self.ours[11], NEAR, slot_time(BASE_SLOT + 11)))
+        self.assertEqual(self.verifier.reject_reason, "stale")
+
+    def test_far_match_keeps_the_window(self) -> None:
+        self.verifier.feed(self.ours[0], NEAR, slot_time(BASE_SLOT))
+        self.assertFalse(self.verifier.feed(self.ours[1], FAR, slot_time(BASE_SLOT + 1)))
+        self.assertEqual(self.verifier.reject_reason, "rssi")
+        self.assertTrue(self.verifier.feed(self.ours[2], NEAR, slot_time(BASE_SLOT + 2)))
+
+    def test_far_match_does_not_move_the_clock_offset(self) -> None:
+        self.verifier.feed(self.ours[0], NEAR, slot_time(BASE_SLOT))
+        before = self.verifier.clock_offset.value
+        self.verifier.feed(self.ours[1], FAR, slot_time(BASE_SLOT + 1) + 1.5) # late, within the window TTL
+        self.assertEqual(self.verifier.clock_offset.value, before)
+
+    def test_windows_expire(self) -> None:
+        self.verifier.feed(self.ours[0], NEAR, slot_time(BASE_SLOT))
+        self.assertFalse(self.verifier.feed(self.ours[1], NEAR, slot_time(BASE_SLOT) + WINDOW_TTL_SECONDS))
+        self.assertEqual(self.verifier.reject_reason, "stale")
+        self.assertEqual(len(self.verifier.windows), 1) # only the new anchor
+
+    def test_windows_are_bounded(self) -> None:
+        crowd = [v2_adverts(f"{n:0128x}", BASE_SLOT, 1)[0] for n in range(MAX_WINDOWS * 2)]
+        for advert in crowd:
+            self.verifier.feed(advert, NEAR, slot_time(BASE_SLOT))
+        self.assertEqual(len(self.verifier.windows), MAX_WINDOWS)
+        keys = sum(len(window) for _, window in self.verifier.windows)
+        self.assertLessEqual(len(self.verifier.expected_tokens), keys)
+
+    def test_repeat(self) -> None:
+        self.verifier.feed(self.ours[0], NEAR, slot_time(BASE_SLOT))
+        self.assertFalse(self.verifier.feed(self.ours[0], NEAR, slot_time(BASE_SLOT)))
+        self.assertEqual(self.verifier.reject_reason, "repeat")
+
+
+class KeyedTest(unittest.TestCase):
+    def setUp(self) -> None:
+        directory = tempfile.TemporaryDirectory()
+        self.addCleanup(directory.cleanup)
+        self.path = os.path.join(directory.name, "clock_offset")
+        self.offset = ClockOffset(self.path)
+        self.verifier = TokenVerifier(OURS, clock_offset=self.offset)
+
+    def test_first_advert_passes_once(self) -> None:
+        advert = v3_advert(OURS, BASE_SLOT)
+        self.assertTrue(self.verifier.feed(advert, NEAR, slot_time(BASE_SLOT)))
+        self.verifier.last_received_hash = None # past the repeat check
+        self.assertFalse(self.verifier.feed(advert, NEAR, slot_time(BASE_SLOT)))
+        self.assertEqual(self.verifier.reject_reason, "stale")
+        self.assertFalse(self.verifier.feed(v3_advert(OURS, BASE_SLOT - 1), NEAR, slot_time(BASE_SLOT)))
+        self.assertEqual(self.verifier.reject_reason, "stale")
+        self.assertTrue(self.verifier.feed(v3_advert(OURS, BASE_SLOT + 1), NEAR, slot_time(BASE_SLOT + 1)))
+
+    def test_used_slot_is_refused_in_the_next_run(self) -> None:
+        advert = v3_advert(OURS, BASE_SLOT)
+        self.assertTrue(self.verifier.feed(advert, NEAR, slot_time(BASE_SLOT)))
+        self.offset.save()
+
+        later = TokenVerifier(OURS, clock_offset=ClockOffset(self.path))
+        self.assertEqual(later.clock_offset.last_keyed_slot, BASE_SLOT)
+        self.assertFalse(later.feed(advert, NEAR, slot_time(BASE_SLOT) + 0.1))
+        self.assertEqual(later.reject_reason, "stale")
+        self.assertTrue(later.feed(v3_advert(OURS, BASE_SLOT + 1), NEAR, slot_time(BASE_SLOT + 1)))
+
+    def test_offset_file_without_a_slot(self) -> None:
+        with open(self.path, "w") as f:
+            f.write("1.500\n")
+        offset = ClockOffset(self.path)
+        self.assertEqual(offset.value, 1.5)
+        self.assertEqual(offset.last_keyed_slot, -1)
+
+    def test_window_is_a_few_slots(self) -> None:
+        now = slot_time(BASE_SLOT)
+        for step in (KEYED_WINDOW_SLOTS + 1, -(KEYED_WINDOW_SLOTS + 1), 300):
+            self.assertFalse(self.verifier.feed(v3_advert(OURS, BASE_SLOT + step), NEAR, now))
+            self.assertEqual(self.verifier.reject_reason, "mac")
+        self.assertTrue(self.verifier.feed(v3_advert(OURS, BASE_SLOT - KEYED_WINDOW_SLOTS), NEAR, now))
+
+    def test_offset_moves_a_bounded_step(self) -> None:
+        # the phone runs ahead of the estimate by almost the whole window
+        slot = BASE_SLOT + KEYED_WINDOW_SLOTS
+        self.assertTrue(self.verifier.feed(v3_advert(OURS, slot), NEAR, slot_time(BASE_SLOT)))
+        self.assertAlmostEqual(self.offset.value, KEYED_MAX_STEP_SECONDS)
+
+    def test_far_advert_changes_nothing(self) -> None:
+        self.assertFalse(self.verifier.feed(v3_advert(OURS, BASE_SLOT), FAR, slot_time(BASE_SLOT)))
+        self.assertEqual(self.verifier.reject_reason, "rssi")
+        self.assertEqual(self.offset.last_keyed_slot, -1)
+        self.assertEqual(self.offset.value, 0.0)
+
+    def test_wrong_key(self) -> None:
+        self.assertFalse(self.verifier.feed(v3_advert(THEIRS[0], BASE_SLOT), NEAR, slot_time(BASE_SLOT)))
+        self.assertEqual(self.verifier.reject_reason, "mac")
+
+
+if __name__ == "__main__":
+    unittest.main()
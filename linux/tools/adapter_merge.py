@@ -0,0 +1,144 @@
+import argparse
+import asyncio
+import os
+import random
+import sys
+import time
+from typing import Callable, Dict, List, NamedTuple, Optional, Tuple
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from ingest import AdvertIngest, Batch, service_uuid_128
+from main import AUTH_SERVICE_UUID, RSSI_THRESHOLD
+from scanning import NO_MONITOR, start_scanners, stop_scanners
+
+# Drives the multi-adapter merge with a bank of fake adapters, started through
+# scanning.start_scanners like the verifiers do. Every token is heard by each adapter with some
+# loss, a few ms of jitter and an RSSI of its own; the copies go through AdvertIngest and what
+# comes out is checked:
+#   - every token heard comes out exactly once;
+#   - the far ones (held for a louder copy) come out in the order they were first heard;
+#   - a token any adapter heard at or above RSSI_THRESHOLD comes out at or above it;
+#   - the RSSI that comes out is one of its copies, never worse than the first one.
+# Prints the merged throughput per bank size, exits 1 if a check fails.
+#
+#   python3 tools/adapter_merge.py --adapters 1,2,4,8,16 --tokens 5000
+
+DEFAULT_ADAPTERS = "1,2,4,8"
+DEFAULT_TOKENS = 5000
+DEFAULT_LOSS = 0.3
+JITTER_MS = 5.0 # copies of one advert reach the host this far apart
+BURST = 32
+
+
+class FakeAdvert(NamedTuple):
+    service_data: Dict[str, bytes]
+    rssi: int
+
+
+class FakeScanner:
+    def __init__(self, bank: Dict[str, Callable], detection_callback: Callable, adapter: str, **_) -> None:
+        self.bank = bank
+        self.callback = detection_callback
+        self.adapter = adapter
+
+    async def start(self) -> None:
+        self.bank[self.adapter] = self.callback
+
+    async def stop(self) -> None:
+        self.bank.pop(self.adapter, None)
+
+
+async def no_monitor(_: Optional[str]):
+    return NO_MONITOR
+
+
+def make_copies(adapters: int, tokens: int, loss: float, seed: int) -> List[Tuple[float, int, bytes, int]]:
+    """(arrival ms, adapter, token, rssi) sorted by arrival."""
+    rng = random.Random(seed)
+    copies = []
+    for n in range(tokens):
+        token = "".join(rng.choice("0123456789abcdef") for _ in range(20)).encode()
+        level = rng.randint(-100, -60)
+        for a in range(adapters):
+            if rng.random() < loss:
+                continue
+            copies.append((n * 2.0 + rng.random() * JITTER_MS, a, token, level + rng.randint(-10, 10)))
+    copies.sort()
+    return copies
+
+
+async def run_bank(adapters: int, tokens: int, loss: float, seed: int) -> bool:
+    names = [f"hci{a}" for a in range(adapters)]
+    bank: Dict[str, Callable] = {}
+    out: Batch = []
+    ingest = AdvertIngest(AUTH_SERVICE_UUID, out.extend, recent_size=4 * tokens)
+    scanners = await start_scanners(
+        ingest.callback_for,
+        AUTH_SERVICE_UUID,
+        names,
+        scanner_factory=lambda detection_callback, adapter, **kw: FakeScanner(bank, detection_callback, adapter),
+        probe=no_monitor,
+    )
+    if len(scanners) > 1:
+        ingest.hold_below = RSSI_THRESHOLD
+
+    copies = make_copies(adapters, tokens, loss, seed)
+    key = service_uuid_128(AUTH_SERVICE_UUID)
+    start = time.perf_counter()
+    for i in range(0, len(copies), BURST):
+        for _, a, token, rssi in copies[i:i + BURST]:
+            bank[names[a]](None, FakeAdvert({key: token}, rssi))
+        await asyncio.sleep(0)
+    await asyncio.sleep(ingest.merge_seconds * 2) # held ones run out
+    elapsed = time.perf_counter() - start
+    await stop_scanners(scanners)
+
+    first_heard: List[bytes] = []
+    heard: Dict[bytes, List[int]] = {}
+    for _, _, token, rssi in copies:
+        if token not in heard:
+            first_heard.append(token)
+            heard[token] = []
+        heard[token].append(rssi)
+    errors = []
+    if sorted(token for token, _ in out) != sorted(first_heard):
+        errors.append("tokens missing or repeated")
+    order = {token: n for n, token in enumerate(first_heard)}
+    far = [order[token] for token, rssi in out if rssi < RSSI_THRESHOLD]
+    if far != sorted(far):
+        errors.append("far tokens out of first heard order")
+    for token, rssi in out:
+        got = heard.get(token, [])
+        if rssi not in got or rssi < got[0]:
+            errors.append(f"{token!r} came out at {rssi} dBm, copies {got}")
+        elif max(got) >= RSSI_THRESHOLD > rssi:
+            errors.append(f"{token!r} came out far at {rssi} dBm, an adapter heard it at {max(got)}")
+    near = sum(1 for _, rssi in out if rssi >= RSSI_THRESHOLD)
+    print(
+        f"[{'Info' if not errors else 'Error'}] {adapters:>2} adapters: {len(copies)} copies -> {len(out)} tokens "
+        f"({near} close enough, {ingest.upgraded} upgraded by a louder copy), "
+        f"{len(copies) / elapsed:,.0f} copies/s",
+        flush=True,
+    )
+    for e in errors[:5]:
+        print(f"[Error]   {e}", flush=True)
+    return not errors
+
+
+def main() -> None:
+    parser = argparse.ArgumentParser(description="Multi-adapter merge check with fake adapters")
+    parser.add_argument("--adapters", default=DEFAULT_ADAPTERS, help="bank sizes to run, comma separated")
+    parser.add_argument("--tokens", type=int, default=DEFAULT_TOKENS)
+    parser.add_argument("--loss", type=float, default=DEFAULT_LOSS)
+    parser.add_argument("--seed", type=int, default=1)
+    args = parser.parse_args()
+    ok = True
+    for count in (int(n) for n in args.adapters.split(",")):
+        ok = asyncio.run(run_bank(count, args.tokens, args.loss, args.seed)) and ok
+    if not ok:
+        sys.exit(1)
+
+
+if __name__ == "__main__":
+    main()
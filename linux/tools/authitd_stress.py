@@ -0,0 +1,149 @@
+import argparse
+import asyncio
+import hashlib
+import os
+import sys
+import tempfile
+import time
+from datetime import datetime, timezone
+from typing import Dict, List, Optional, Tuple
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from authitd import AuthDaemon
+from beacon import BeaconEmitter, BeaconRadio
+from main import ROLL_INTERVAL_SECONDS
+
+# Fires many simultaneous AUTH requests at an in-process authitd over its real unix socket.
+# Adverts come from fake phones that roll the v1 token chain every ROLL_INTERVAL_SECONDS,
+# no adapter or enrolled users are needed. The auth-requested beacon goes to a fake radio that
+# counts how often it was put on air, it has to be off again once every request is answered.
+#
+#   python3 tools/authitd_stress.py --users 20 --requests 500
+
+DEFAULT_USERS = 10
+DEFAULT_REQUESTS = 300
+DEFAULT_TIMEOUT_MS = 5000
+FAKE_RSSI = -50
+
+
+class FakePhone:
+    def __init__(self, password_hash: str) -> None:
+        self.password_hash = password_hash
+        self.current = password_hash
+
+    def next_token(self) -> bytes:
+        stamp = datetime.now(timezone.utc).strftime("%Y-%m-%d %H:%M")
+        data = self.current[:20] + "0" * 108 + self.password_hash + stamp
+        self.current = hashlib.sha512(data.encode()).hexdigest()
+        return self.current[:20].encode()
+
+
+class FakeBeaconRadio(BeaconRadio):
+    def __init__(self) -> None:
+        self.on_air = False
+        self.starts = 0
+        self.stops = 0
+
+    async def start(self, service_uuid: str, service_data: bytes) -> None:
+        await asyncio.sleep(0.01)  # a D-Bus round trip
+        self.on_air = True
+        self.starts += 1
+
+    async def stop(self) -> None:
+        await asyncio.sleep(0.01)
+        self.on_air = False
+        self.stops += 1
+
+
+class StressDaemon(AuthDaemon):
+    """authitd with fake users and a fake radio instead of pwd and bleak."""
+
+    def __init__(self, socket_path: str, secrets: Dict[str, str], beacon: BeaconEmitter) -> None:
+        super().__init__(socket_path, beacon)
+        self.secrets = secrets
+        self.phones = [FakePhone(h) for h in secrets.values()]
+
+    def _read_secret(self, username: str, home: Optional[str] = None) -> Optional[Tuple[str, float]]:
+        password_hash = self.secrets.get(username)
+        return (password_hash, 0.0) if password_hash else None
+
+    def _read_all_secrets(self) -> Dict[str, Tuple[str, float]]:
+        return {u: (h, 0.0) for u, h in self.secrets.items()}
+
+    async def _scan_forever(self) -> None:
+        while True:
+            for phone in self.phones:
+                self.ingest.push(phone.next_token(), FAKE_RSSI)
+            await asyncio.sleep(ROLL_INTERVAL_SECONDS)
+
+
+async def request(socket_path: str, username: str, timeout_ms: int) -> Tuple[str, float]:
+    start = time.perf_counter()
+    reader, writer = await asyncio.open_unix_connection(socket_path)
+    writer.write(f"AUTH {username} {timeout_ms}\n".encode())
+    await writer.drain()
+    reply = (await reader.readline()).decode().strip()
+    writer.close()
+    return reply, time.perf_counter() - start
+
+
+def percentile(sorted_values: List[float], p: float) -> float:
+    index = min(len(sorted_values) - 1, int(round(p / 100.0 * (len(sorted_values) - 1))))
+    return sorted_values[index]
+
+
+async def run(users: int, requests: int, timeout_ms: int) -> None:
+    secrets = {f"user{i}": hashlib.sha512(f"secret{i}".encode()).hexdigest() for i in range(users)}
+    with tempfile.TemporaryDirectory() as tmp:
+        radio = FakeBeaconRadio()
+        daemon = StressDaemon(os.path.join(tmp, "authitd.sock"), secrets, BeaconEmitter(radio))
+        task = asyncio.create_task(daemon.run())
+        while not os.path.exists(daemon.socket_path):
+            await asyncio.sleep(0.01)
+        # let every phone be seen once, as on a host where the daemon has been up for a while
+        await asyncio.sleep(ROLL_INTERVAL_SECONDS * 2)
+
+        names = list(secrets)
+        cpu_start = time.process_time()
+        wall_start = time.perf_counter()
+        results = await asyncio.gather(
+            *(request(daemon.socket_path, names[i % users], timeout_ms) for i in range(requests))
+        )
+        wall = time.perf_counter() - wall_start
+        cpu = time.process_time() - cpu_start
+        await daemon.beacon.close()
+        task.cancel()
+
+    latencies = sorted(latency * 1000.0 for _, latency in results)
+    replies: Dict[str, int] = {}
+    for reply, _ in results:
+        replies[reply] = replies.get(reply, 0) + 1
+
+    print(f"[Info] {requests} requests over {users} users in {wall:.3f}s, cpu {cpu:.3f}s")
+    print(f"[Info] Replies: {replies}")
+    print(
+        "[Info] Latency ms: "
+        + " ".join(f"p{p}={percentile(latencies, p):.1f}" for p in (50, 90, 99))
+        + f" max={latencies[-1]:.1f}"
+    )
+    print(f"[Info] Beacon: {radio.starts} starts, {radio.stops} stops, on air after the run: {radio.on_air}")
+    telemetry = daemon.telemetry
+    print(f"[Info] Rejections: {dict(sorted(telemetry.rejections.values.items()))}")
+    print(
+        f"[Info] Flights: {telemetry.match.count} matched, "
+        f"mean {telemetry.match.sum / max(1, telemetry.match.count) * 1000.0:.1f} ms to match"
+    )
+
+
+def main() -> None:
+    parser = argparse.ArgumentParser(description="authitd concurrency stress test")
+    parser.add_argument("--users", type=int, default=DEFAULT_USERS)
+    parser.add_argument("--requests", type=int, default=DEFAULT_REQUESTS)
+    parser.add_argument("--timeout-ms", type=int, default=DEFAULT_TIMEOUT_MS)
+    args = parser.parse_args()
+    asyncio.run(run(args.users, args.requests, args.timeout_ms))
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,103 @@
+import argparse
+import asyncio
+import os
+import struct
+import sys
+import time
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from bleak.backends.device import BLEDevice
+from bleak.backends.scanner import AdvertisementData
+
+from main import AUTH_SERVICE_UUID
+from scanning import start_scanner
+
+# Records every Auth-It advert the adapter hears into an AITC capture, the append-only format of
+# android/verifier (CaptureFormat.java), so real traffic can be replayed at full CPU speed:
+#
+#   python3 tools/capture.py office.aitc --minutes 60
+#   cd android && ./gradlew :verifier:replay -Pargs="replay ../linux/office.aitc <hash>"
+#
+# header "AITC" | version | 3 zero bytes, then per advert: epoch millis (i64) | rssi (i8) |
+# length (u8) | service data, big endian. An existing file is appended to.
+
+CAPTURE_MAGIC = b"AITC"
+CAPTURE_VERSION = 1
+CAPTURE_HEADER = CAPTURE_MAGIC + bytes([CAPTURE_VERSION, 0, 0, 0])
+RECORD_HEADER = struct.Struct(">qbB")
+FLUSH_SECONDS = 5.0
+
+
+def open_capture(path: str):
+    """Opens for appending, after cutting off a record a crashed writer left half written."""
+    f = open(path, "a+b")
+    f.seek(0)
+    head = f.read(len(CAPTURE_HEADER))
+    if not head:
+        f.write(CAPTURE_HEADER)
+        return f
+    if head[:5] != CAPTURE_HEADER[:5]:
+        f.close()
+        raise ValueError(f"{path} is not an AITC v{CAPTURE_VERSION} capture")
+    end = len(CAPTURE_HEADER)
+    while True:
+        record = f.read(RECORD_HEADER.size)
+        if len(record) < RECORD_HEADER.size:
+            break
+        length = RECORD_HEADER.unpack(record)[2]
+        if len(f.read(length)) < length:
+            break
+        end += RECORD_HEADER.size + length
+    f.truncate(end)
+    return f
+
+
+class Recorder:
+    def __init__(self, f) -> None:
+        self.f = f
+        self.records = 0
+
+    def detection_callback(self, _: BLEDevice, adv: AdvertisementData) -> None:
+        if not adv.service_data:
+            return
+        for uuid, data in adv.service_data.items():
+            if AUTH_SERVICE_UUID in str(uuid).lower() and len(data) <= 255:
+                rssi = max(-128, min(127, adv.rssi))
+                self.f.write(RECORD_HEADER.pack(int(time.time() * 1000), rssi, len(data)) + bytes(data))
+                self.records += 1
+
+
+async def record(path: str, minutes: float) -> None:
+    with open_capture(path) as f:
+        recorder = Recorder(f)
+        scanner, _ = await start_scanner(recorder.detection_callback, AUTH_SERVICE_UUID)
+        print(f"[Info] Recording to {path} for {minutes:g} minutes, Ctrl-C stops.")
+        deadline = time.monotonic() + minutes * 60
+        try:
+            while time.monotonic() < deadline:
+                await asyncio.sleep(min(FLUSH_SECONDS, max(0.0, deadline - time.monotonic())))
+                f.flush()
+                print(f"\r[Info] {recorder.records} adverts", end="", flush=True)
+        finally:
+            await scanner.stop()
+            f.flush()
+            print(f"\n[Info] {recorder.records} adverts recorded.")
+
+
+def main() -> None:
+    parser = argparse.ArgumentParser(description="Record Auth-It adverts into an AITC capture.")
+    parser.add_argument("capture", help="file to append to")
+    parser.add_argument("--minutes", type=float, default=60.0)
+    args = parser.parse_args()
+    try:
+        asyncio.run(record(args.capture, args.minutes))
+    except KeyboardInterrupt:
+        pass
+    except ValueError as e:
+        print(f"[Error] {e}")
+        sys.exit(1)
+
+
+if __name__ == "__main__":
+    main()
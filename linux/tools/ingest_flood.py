@@ -0,0 +1,124 @@
+import argparse
+import asyncio
+import os
+import random
+import sys
+import time
+from typing import Callable, Dict, List, NamedTuple, Optional
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+
+from ingest import AdvertIngest, Batch, service_uuid_128
+from main import AUTH_SERVICE_UUID, parse_token
+
+# Floods the scanner callback with fake adverts, the way a crowded office does, and measures how
+# many per second the front of the pipeline keeps up with. Most adverts are other people's gear
+# (foreign service UUIDs, manufacturer data only), a few are Auth-It, each token repeated like the
+# phone does. The same stream goes through the per-key str().lower() loop the callbacks used
+# before ingest.py and through AdvertIngest; both hand what passes to parse_token. The stream is
+# delivered in bursts on a running event loop, like bleak's D-Bus signals, so batching happens.
+#
+#   python3 tools/ingest_flood.py --adverts 200000 --auth-share 0.05 --target 20000
+
+DEFAULT_ADVERTS = 200_000
+DEFAULT_AUTH_SHARE = 0.05 # fraction of adverts that are Auth-It
+DEFAULT_REPEATS = 4 # times the phone sends each token
+DEFAULT_TARGET = 20_000 # adverts/s the callback has to sustain
+DEFAULT_BURST = 32 # adverts D-Bus delivers per event loop iteration
+FOREIGN_UUIDS = ["feaa", "fd6f", "fe9f", "180f", "fcf1", "fe2c"] # Eddystone, exposure notification, ...
+
+
+class FakeAdvert(NamedTuple):
+    """The two fields of bleak's AdvertisementData the callbacks read."""
+    service_data: Dict[str, bytes]
+    rssi: int
+
+
+def make_stream(count: int, auth_share: float, repeats: int, seed: int) -> List[FakeAdvert]:
+    rng = random.Random(seed)
+    auth_key = service_uuid_128(AUTH_SERVICE_UUID)
+    foreign_keys = [service_uuid_128(u) for u in FOREIGN_UUIDS]
+    stream: List[FakeAdvert] = []
+    token = b""
+    sent = repeats
+    for _ in range(count):
+        roll = rng.random()
+        if roll < auth_share:
+            if sent >= repeats:
+                token = "".join(rng.choice("0123456789abcdef") for _ in range(20)).encode()
+                sent = 0
+            sent += 1
+            stream.append(FakeAdvert({auth_key: token}, rng.randint(-90, -40)))
+        elif roll < auth_share + (1 - auth_share) / 2:
+            stream.append(FakeAdvert({}, rng.randint(-100, -40))) # manufacturer data only
+        else:
+            key = rng.choice(foreign_keys)
+            stream.append(FakeAdvert({key: rng.randbytes(rng.randint(8, 20))}, rng.randint(-100, -40)))
+    return stream
+
+
+class LegacyCallback:
+    """The detection callback as it was: every service data key lowered and searched."""
+
+    def __init__(self) -> None:
+        self.parsed = 0
+
+    def detection_callback(self, _: Optional[object], adv: FakeAdvert) -> None:
+        if not adv.service_data:
+            return
+        for uuid, data in adv.service_data.items():
+            if AUTH_SERVICE_UUID in str(uuid).lower():
+                parse_token(data)
+                self.parsed += 1
+
+
+async def run(
+    name: str, callback: Callable[[Optional[object], FakeAdvert], None], stream: List[FakeAdvert], burst: int
+) -> float:
+    start = time.perf_counter()
+    for i in range(0, len(stream), burst):
+        for adv in stream[i:i + burst]:
+            callback(None, adv)
+        await asyncio.sleep(0)
+    await asyncio.sleep(0) # last scheduled flush
+    elapsed = time.perf_counter() - start
+    rate = len(stream) / elapsed
+    print(f"[Info] {name}: {rate:,.0f} adverts/s, {elapsed / len(stream) * 1e6:.2f} us/advert")
+    return rate
+
+
+def main() -> None:
+    parser = argparse.ArgumentParser(description="Scanner callback load generator")
+    parser.add_argument("--adverts", type=int, default=DEFAULT_ADVERTS)
+    parser.add_argument("--auth-share", type=float, default=DEFAULT_AUTH_SHARE)
+    parser.add_argument("--repeats", type=int, default=DEFAULT_REPEATS)
+    parser.add_argument("--target", type=int, default=DEFAULT_TARGET, help="adverts/s to sustain")
+    parser.add_argument("--burst", type=int, default=DEFAULT_BURST)
+    parser.add_argument("--seed", type=int, default=1)
+    args = parser.parse_args()
+
+    stream = make_stream(args.adverts, args.auth_share, args.repeats, args.seed)
+    legacy = LegacyCallback()
+    parsed = [0]
+
+    def sink(batch: Batch) -> None:
+        for data, _ in batch:
+            parse_token(data)
+        parsed[0] += len(batch)
+
+    ingest = AdvertIngest(AUTH_SERVICE_UUID, sink)
+
+    legacy_rate = asyncio.run(run("str().lower() loop", legacy.detection_callback, stream, args.burst))
+    ingest_rate = asyncio.run(run("AdvertIngest", ingest.detection_callback, stream, args.burst))
+
+    print(f"[Info] Parsed: loop {legacy.parsed}, ingest {parsed[0]} "
+          f"({ingest.filtered} filtered, {ingest.duplicates} duplicates, {ingest.batches} batches)")
+    for name, rate in (("loop", legacy_rate), ("ingest", ingest_rate)):
+        verdict = "sustains" if rate >= args.target else "misses"
+        print(f"[Info] {name} {verdict} {args.target:,} adverts/s ({rate / args.target:.1f}x)")
+    if ingest_rate < args.target:
+        sys.exit(1)
+
+
+if __name__ == "__main__":
+    main()